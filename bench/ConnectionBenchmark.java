@@ -0,0 +1,116 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import coms.Client;
+import coms.ClientCollector;
+import coms.ClientSelector;
+import coms.Transport;
+
+/**
+ * How many idle connections each {@link Transport} holds, and what they cost.
+ * <p>
+ * Usage: <code>make bench ConnectionBenchmark [CONNECTIONS] [TRANSPORT]</code><br>
+ * Opens CONNECTIONS (default 5000) idle clients against a collector, then
+ * reports how many were accepted, the live thread count, heap in use after a
+ * GC, and the resident set size. Without a TRANSPORT every transport is run in
+ * its own JVM, so their memory figures don't mix.
+ * </p>
+ */
+public class ConnectionBenchmark {
+	private static final int port = 1235; // Port to benchmark on (away from a real server's)
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		if (args.length > 1) {
+			run(Transport.valueOf(args[1].toUpperCase()), count);
+			return;
+		}
+
+		System.out.println("Java " + System.getProperty("java.version") + (Transport.virtualThreads ? "" : " (no virtual threads, VIRTUAL uses platform threads)"));
+		System.out.printf("%-9s %11s %8s %9s %9s %8s%n", "transport", "connections", "threads", "heap MB", "rss MB", "ms");
+		for (Transport transport : Transport.values()) {
+			Process process = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+				"-cp", System.getProperty("java.class.path"), ConnectionBenchmark.class.getName(), "" + count, transport.name())
+				.redirectErrorStream(true).start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("RESULT "))
+					System.out.println(line.substring(7));
+			}
+			process.waitFor();
+		}
+	}
+
+	private static void run(Transport transport, int count) throws Exception {
+		AtomicInteger connected = new AtomicInteger();
+		ClientCollector collector;
+		if (transport == Transport.SELECTOR) {
+			collector = new ClientSelector(port) {
+				@Override
+				public void connected(Client client) {
+					connected.incrementAndGet();
+				}
+			};
+		}
+		else {
+			collector = new ClientCollector(port) {
+				@Override
+				public void connected(Client client) {
+					connected.incrementAndGet();
+				}
+			};
+			collector.transport = transport;
+		}
+		collector.setDaemon(true);
+		collector.start();
+
+		long start = System.nanoTime();
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		ArrayList<Socket> sockets = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < count; i++) {
+				Socket sock = new Socket();
+				sock.connect(address);
+				sockets.add(sock);
+			}
+		}
+		catch (Exception e) {
+			System.out.println(e);
+		}
+		// Wait for the collector to catch up
+		for (int i = 0; i < 100 && connected.get() < sockets.size(); i++)
+			Thread.sleep(50);
+		long millis = (System.nanoTime() - start) / 1000000;
+		Thread.sleep(500);
+
+		System.gc();
+		long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		System.out.printf("RESULT %-9s %11d %8d %9.1f %9s %8d%n", transport.name().toLowerCase(), connected.get(),
+			ManagementFactory.getThreadMXBean().getThreadCount(), heap / 1048576.0, rss(), millis);
+
+		for (Socket sock : sockets)
+			sock.close();
+		collector.close();
+		System.exit(0);
+	}
+
+	private static String rss() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:"))
+					return String.format("%.1f", Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0);
+			}
+		}
+		catch (Exception e) { }
+		return "?";
+	}
+}
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import coms.Client;
+import coms.Packet;
+import coms.Tokenizer;
+import grid.Board;
+import grid.Grid;
+import grid.GridPoint;
+
+/**
+ * Microbenchmarks of the paths every move goes through, for catching regressions.
+ * <p>
+ * Usage: <code>make bench HotPaths [FILTER] [COMPARE=FILE] [ARGS=--json=FILE]</code>
+ * (or <code>make bench-json</code>, which writes <code>bench/results/COMMIT.json</code>),
+ * see {@link Microbench} for the other options.
+ * </p>
+ * <ul>
+ * <li><b>play</b>: {@link Board#play(int, int, int, boolean)} (the heart of
+ * <code>makeMove</code>), through whole games in a fixed random order, on
+ * small to huge grids.</li>
+ * <li><b>parsePoint</b>, <b>parseGrid</b>: parsing a move's point, and a grid size.</li>
+ * <li><b>tokenize</b>: taking a <code>game-play</code> line apart with a
+ * {@link Tokenizer}, down to its point and direction.</li>
+ * <li><b>dispatch</b>: a <code>game-play</code> command through
+ * {@link GameServer#handle(Client, String)}, from parsing it to
+ * <code>makeMove</code> and queueing the broadcast to the player.</li>
+ * <li><b>broadcast</b>: one command sent to N players (in-memory clients that
+ * only count the bytes they are given).</li>
+ * <li><b>spectate</b>: a spectator joining a game half way through, and being
+ * sent the whole board.</li>
+ * </ul>
+ * <p>
+ * Every benchmark's state comes from a fixed seed, so runs on different
+ * commits measure the same work.
+ * </p>
+ */
+public class HotPaths {
+	/**
+	 * A client without a connection, that only counts what it is sent.
+	 */
+	private static class Sink extends Client {
+		long bytes = 0; // Bytes queued for us
+
+		@Override
+		public void close() { }
+
+		@Override
+		public void flush() { }
+
+		@Override
+		public void queue(Packet packet) {
+			bytes += packet.line().length;
+		}
+
+		@Override
+		public String send(String message) {
+			queue(new Packet(message));
+			return message;
+		}
+
+		@Override
+		public void upgrade() { }
+	}
+
+	public static void main(String[] args) throws Exception {
+		Microbench bench = new Microbench(HotPaths.class);
+		for (String size : new String[] { "5x5", "20x20", "100x100" }) {
+			bench.add("play", new String[] { "grid", size }, () -> {
+				Grid grid = Grid.parseGrid(size);
+				Board board = new Board(grid);
+				int[] lines = lines(grid);
+				return new LongSupplier() {
+					int next = 0;
+
+					public long getAsLong() {
+						if (next == lines.length) {
+							board.reset();
+							next = 0;
+						}
+						int line = lines[next++];
+						return board.play(next & 1, (line >> 1) / grid.height, (line >> 1) % grid.height, (line & 1) != 0);
+					}
+				};
+			});
+		}
+
+		bench.add("parsePoint", new String[0], () -> {
+			String[] points = new String[256];
+			Random random = new Random(1);
+			for (int i = 0; i < points.length; i++)
+				points[i] = random.nextInt(100) + "," + random.nextInt(100);
+			return new LongSupplier() {
+				int next = 0;
+
+				public long getAsLong() {
+					GridPoint point = GridPoint.parsePoint(points[next++ & 255]);
+					return point.x + point.y;
+				}
+			};
+		});
+
+		bench.add("parseGrid", new String[0], () -> {
+			String[] grids = { "3x3", "8x8", "20x15", "100x100" };
+			return new LongSupplier() {
+				int next = 0;
+
+				public long getAsLong() {
+					Grid grid = Grid.parseGrid(grids[next++ & 3]);
+					return grid.width + grid.height;
+				}
+			};
+		});
+
+		bench.add("tokenize", new String[0], () -> {
+			String[] lines = new String[256];
+			Random random = new Random(1);
+			for (int i = 0; i < lines.length; i++)
+				lines[i] = "game-play " + random.nextInt(100) + "," + random.nextInt(100) + (random.nextBoolean() ? " ver" : " hor");
+			Tokenizer tokens = new Tokenizer();
+			return new LongSupplier() {
+				int next = 0;
+
+				public long getAsLong() {
+					tokens.reset(lines[next++ & 255]);
+					return tokens.opcode() + tokens.x(1) + tokens.y(1) + (tokens.is(2, "ver") ? 1 : 0);
+				}
+			};
+		});
+
+		for (String size : new String[] { "5x5", "20x20" }) {
+			bench.add("dispatch", new String[] { "grid", size }, () -> {
+				Grid grid = Grid.parseGrid(size);
+				Sink client = new Sink();
+				GameServer server = started(grid, client);
+				int[] lines = lines(grid);
+				String[] commands = new String[lines.length];
+				for (int i = 0; i < lines.length; i++)
+					commands[i] = "game-play " + (lines[i] >> 1) / grid.height + "," + (lines[i] >> 1) % grid.height + ((lines[i] & 1) != 0 ? " ver" : " hor");
+				return new LongSupplier() {
+					int next = 0;
+
+					public long getAsLong() {
+						if (next == commands.length) {
+							server.handle(client, "request-restart");
+							next = 0;
+						}
+						server.handle(client, commands[next++]);
+						return client.bytes;
+					}
+				};
+			});
+		}
+
+		for (int count : new int[] { 1, 16, 256 }) {
+			bench.add("broadcast", new String[] { "clients", "" + count }, () -> {
+				GameServer server = new GameServer(new Grid(8, 8), 0, true);
+				Sink[] clients = new Sink[count];
+				for (int i = 0; i < count; i++) {
+					clients[i] = new Sink();
+					clients[i].clientID = i + 1;
+					server.playerAdd(i + 1, "Client " + (i + 1), clients[i]);
+				}
+				return new LongSupplier() {
+					long seq = 0;
+
+					public long getAsLong() {
+						seq++;
+						server.broadcast("game-play 1 " + (seq & 7) + "," + (seq >> 3 & 7) + " hor " + seq);
+						return clients[0].bytes;
+					}
+				};
+			});
+		}
+
+		for (String size : new String[] { "8x8", "100x100" }) {
+			bench.add("spectate", new String[] { "grid", size }, () -> {
+				Grid grid = Grid.parseGrid(size);
+				Sink player = new Sink();
+				GameServer server = started(grid, player);
+				// Half the lines claimed
+				int[] lines = lines(grid);
+				for (int i = 0; i < lines.length / 2; i++)
+					server.handle(player, "game-play " + (lines[i] >> 1) / grid.height + "," + (lines[i] >> 1) % grid.height + ((lines[i] & 1) != 0 ? " ver" : " hor"));
+				return () -> {
+					Sink spectator = new Sink();
+					server.accept(spectator);
+					server.handle(spectator, "info-version " + GameServer.version[0] + " " + GameServer.version[1]);
+					server.handle(spectator, "request-spectate");
+					server.leave(spectator);
+					return spectator.bytes;
+				};
+			});
+		}
+
+		bench.run(args);
+	}
+
+	/**
+	 * Every line of a grid, in a fixed random order.
+	 * @return Lines, packed as <code>(height * x + y) &lt;&lt; 1 | vertical</code>
+	 */
+	private static int[] lines(Grid grid) {
+		Board board = new Board(grid);
+		ArrayList<Integer> lines = new ArrayList<Integer>();
+		for (int x = 0; x < grid.width; x++) {
+			for (int y = 0; y < grid.height; y++) {
+				if (board.hasLine(x, y, false))
+					lines.add((grid.height * x + y) << 1);
+				if (board.hasLine(x, y, true))
+					lines.add((grid.height * x + y) << 1 | 1);
+			}
+		}
+		Collections.shuffle(lines, new Random(grid.width * 1000 + grid.height));
+		return lines.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * A dedicated server with one player, and a game started. (Commands are handled straight away, not on its mailbox.)
+	 */
+	private static GameServer started(Grid grid, Sink player) {
+		GameServer server = new GameServer(grid, 0, true);
+		server.accept(player);
+		server.handle(player, "info-version " + GameServer.version[0] + " " + GameServer.version[1]);
+		server.handle(player, "request-join");
+		server.handle(player, "request-start");
+		return server;
+	}
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A small, self-contained microbenchmark harness, in the spirit of JMH.
+ * <p>
+ * Each benchmark is an operation returning a <code>long</code> (summed into a
+ * sink, so the JIT can't throw the work away). It is run in its own JVM (a
+ * fork), through timed warmup iterations and then timed measurement
+ * iterations, in batches big enough that reading the clock doesn't matter.
+ * The score is the mean throughput, with a 99.9% confidence interval as its
+ * error, like JMH's <code>thrpt</code> mode.
+ * </p>
+ * <p>
+ * Options (after the benchmark class's own name, or in <code>make bench</code>'s
+ * <code>ARGS</code> variable, since make takes them as its own):
+ * <code>[FILTER] [--json=FILE] [--compare=FILE] [--warmups=N] [--iterations=N] [--time=MS]</code>.
+ * FILTER is a regular expression that benchmark names must contain. Results
+ * are written as JMH-style JSON, so runs on different commits can be
+ * compared with <code>--compare</code> (or any JMH result viewer).
+ * </p>
+ * @see HotPaths
+ */
+public class Microbench {
+	private int iterations = 5; // Measurement iterations for each benchmark
+	private long time = 1000;   // Length of each iteration, in milliseconds
+	private int warmups = 3;    // Warmup iterations for each benchmark
+
+	private final ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>(); // Every benchmark, in the order they run
+	private final Class<?> main;                                                // Class whose main() runs these benchmarks (to fork it)
+
+	/**
+	 * Sink for every operation's result. (Read once at the end, so the work can't be skipped.)
+	 */
+	private static long sink;
+
+	// Two-sided Student's t values for a 99.9% interval, by degrees of freedom (1 to 10)
+	private static final double[] t999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+
+	private static class Benchmark {
+		final String name;                          // What is measured
+		final LinkedHashMap<String, String> params; // Parameters it was set up with
+		final Supplier<LongSupplier> setup;         // Builds the state, and returns the operation
+
+		String label() {
+			return params.isEmpty() ? name : name + " " + params.toString().replace(", ", ",");
+		}
+
+		Benchmark(String name, LinkedHashMap<String, String> params, Supplier<LongSupplier> setup) {
+			this.name = name;
+			this.params = params;
+			this.setup = setup;
+		}
+	}
+
+	/**
+	 * Add a benchmark.
+	 * @param name What is measured
+	 * @param params Names and values of the parameters it is set up with, alternating (may be empty)
+	 * @param setup Builds its state (untimed) and returns the operation to time
+	 */
+	public void add(String name, String[] params, Supplier<LongSupplier> setup) {
+		LinkedHashMap<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i + 1 < params.length; i += 2)
+			map.put(params[i], params[i + 1]);
+		benchmarks.add(new Benchmark(name, map, setup));
+	}
+
+	/**
+	 * Read the score of every benchmark in a JSON result file.
+	 * @return Scores by label
+	 */
+	private static LinkedHashMap<String, Double> scores(String json) {
+		LinkedHashMap<String, Double> scores = new LinkedHashMap<String, Double>();
+		Matcher matcher = Pattern.compile("\"benchmark\" : \"([^\"]*)\".*?\"params\" : \\{([^}]*)\\}.*?\"score\" : ([-0-9.eE]+)", Pattern.DOTALL).matcher(json);
+		while (matcher.find()) {
+			LinkedHashMap<String, String> params = new LinkedHashMap<String, String>();
+			Matcher param = Pattern.compile("\"([^\"]*)\" : \"([^\"]*)\"").matcher(matcher.group(2));
+			while (param.find())
+				params.put(param.group(1), param.group(2));
+			String name = matcher.group(1).substring(matcher.group(1).lastIndexOf('.') + 1);
+			scores.put(new Benchmark(name, params, null).label(), Double.parseDouble(matcher.group(3)));
+		}
+		return scores;
+	}
+
+	private static String quote(String text) {
+		return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Run one benchmark in this JVM.
+	 * @return The result, as one JSON object
+	 */
+	private String measure(Benchmark benchmark) {
+		// Benchmarked code may log, which would be measured too
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		LongSupplier operation = benchmark.setup.get();
+
+		// Grow the batch until it takes long enough to time
+		long batch = 1;
+		while (true) {
+			long start = System.nanoTime();
+			for (long i = 0; i < batch; i++)
+				sink += operation.getAsLong();
+			if (System.nanoTime() - start > 100000 || batch >= 1L << 30)
+				break;
+			batch *= 2;
+		}
+
+		double[] scores = new double[iterations];
+		for (int i = -warmups; i < iterations; i++) {
+			long operations = 0;
+			long start = System.nanoTime();
+			long end = start + time * 1000000;
+			long now;
+			do {
+				for (long j = 0; j < batch; j++)
+					sink += operation.getAsLong();
+				operations += batch;
+			} while ((now = System.nanoTime()) < end);
+			if (i >= 0)
+				scores[i] = operations * 1e9 / (now - start);
+		}
+		System.setOut(out);
+
+		double mean = 0;
+		for (double score : scores)
+			mean += score;
+		mean /= scores.length;
+		double variance = 0;
+		for (double score : scores)
+			variance += (score - mean) * (score - mean);
+		double error = scores.length < 2 ? Double.NaN
+			: (scores.length - 1 <= t999.length ? t999[scores.length - 2] : 3.29) * Math.sqrt(variance / (scores.length - 1) / scores.length);
+
+		StringBuilder json = new StringBuilder();
+		json.append("    {\n");
+		json.append("        \"benchmark\" : ").append(quote(main.getName() + "." + benchmark.name)).append(",\n");
+		json.append("        \"mode\" : \"thrpt\",\n");
+		json.append("        \"threads\" : 1,\n");
+		json.append("        \"forks\" : 1,\n");
+		json.append("        \"jvm\" : ").append(quote(ProcessHandle.current().info().command().orElse("java"))).append(",\n");
+		json.append("        \"jdkVersion\" : ").append(quote(System.getProperty("java.version"))).append(",\n");
+		json.append("        \"warmupIterations\" : ").append(warmups).append(",\n");
+		json.append("        \"warmupTime\" : ").append(quote(time + " ms")).append(",\n");
+		json.append("        \"measurementIterations\" : ").append(iterations).append(",\n");
+		json.append("        \"measurementTime\" : ").append(quote(time + " ms")).append(",\n");
+		json.append("        \"params\" : {");
+		String separator = "\n";
+		for (String name : benchmark.params.keySet()) {
+			json.append(separator).append("            ").append(quote(name)).append(" : ").append(quote(benchmark.params.get(name)));
+			separator = ",\n";
+		}
+		json.append(benchmark.params.isEmpty() ? "},\n" : "\n        },\n");
+		json.append("        \"primaryMetric\" : {\n");
+		json.append("            \"score\" : ").append(String.format(Locale.ROOT, "%.3f", mean)).append(",\n");
+		json.append("            \"scoreError\" : ").append(Double.isNaN(error) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", error)).append(",\n");
+		json.append("            \"scoreUnit\" : \"ops/s\",\n");
+		json.append("            \"rawData\" : [\n                [\n");
+		for (int i = 0; i < scores.length; i++)
+			json.append("                    ").append(String.format(Locale.ROOT, "%.3f", scores[i])).append(i + 1 < scores.length ? ",\n" : "\n");
+		json.append("                ]\n            ]\n        }\n    }");
+		return json.toString();
+	}
+
+	/**
+	 * Run the benchmarks, as the command line asks.
+	 * @param args Command line arguments (see the class description)
+	 */
+	public void run(String[] args) throws Exception {
+		String filter = "";
+		Path json = null;
+		Path compare = null;
+		int fork = -1;
+		ArrayList<String> options = new ArrayList<String>();
+		for (String arg : args) {
+			if (arg.startsWith("--json="))
+				json = Path.of(arg.substring(7));
+			else if (arg.startsWith("--compare="))
+				compare = Path.of(arg.substring(10));
+			else if (arg.startsWith("--fork="))
+				fork = Integer.parseInt(arg.substring(7));
+			else if (arg.startsWith("--warmups="))
+				warmups = Integer.parseInt(arg.substring(10));
+			else if (arg.startsWith("--iterations="))
+				iterations = Math.max(Integer.parseInt(arg.substring(13)), 1);
+			else if (arg.startsWith("--time="))
+				time = Long.parseLong(arg.substring(7));
+			else
+				filter = arg;
+			if (arg.startsWith("--warmups=") || arg.startsWith("--iterations=") || arg.startsWith("--time="))
+				options.add(arg);
+		}
+
+		// A fork runs just one benchmark, and hands its result back to the parent
+		if (fork >= 0) {
+			System.out.println("RESULT " + measure(benchmarks.get(fork)).replace("\n", "\t"));
+			System.out.println("SINK " + sink);
+			return;
+		}
+
+		LinkedHashMap<String, Double> old = compare == null ? null : scores(Files.readString(compare));
+		System.out.printf("%-40s %16s %14s%s%n", "benchmark", "ops/s", "error", old == null ? "" : String.format("%16s %8s", "before", "change"));
+		ArrayList<String> results = new ArrayList<String>();
+		Pattern pattern = Pattern.compile(filter);
+		for (int i = 0; i < benchmarks.size(); i++) {
+			Benchmark benchmark = benchmarks.get(i);
+			if (!pattern.matcher(benchmark.label()).find())
+				continue;
+			ArrayList<String> command = new ArrayList<String>();
+			command.add(ProcessHandle.current().info().command().orElse("java"));
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(main.getName());
+			command.add("--fork=" + i);
+			command.addAll(options);
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			String result = null;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("RESULT "))
+					result = line.substring(7).replace("\t", "\n");
+			}
+			process.waitFor();
+			if (result == null) {
+				System.out.printf("%-40s %16s%n", benchmark.label(), "failed");
+				continue;
+			}
+			results.add(result);
+			Double score = scores("[" + result + "]").get(benchmark.label());
+			Matcher error = Pattern.compile("\"scoreError\" : \"?([-0-9.eENa]+)").matcher(result);
+			error.find();
+			String change = "";
+			if (old != null && old.containsKey(benchmark.label())) {
+				double before = old.get(benchmark.label());
+				change = String.format("%16.1f %+7.1f%%", before, (score - before) * 100 / before);
+			}
+			System.out.printf("%-40s %16.1f %14s%s%n", benchmark.label(), score, "+- " + error.group(1), change);
+		}
+
+		if (json != null) {
+			if (json.getParent() != null)
+				Files.createDirectories(json.getParent());
+			Files.writeString(json, "[\n" + String.join(",\n", results) + "\n]\n");
+			System.out.println("Results written to " + json);
+		}
+	}
+
+	/**
+	 * A new set of benchmarks.
+	 * @param main The class whose <code>main()</code> adds these benchmarks and calls {@link #run(String[])} (forks run it again)
+	 */
+	public Microbench(Class<?> main) {
+		this.main = main;
+	}
+}
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import grid.Board;
+import grid.Grid;
+
+/**
+ * How much faster the {@link Solver} gets with more threads.
+ * <p>
+ * Usage: <code>make bench SearchScaling [SIZE] [POSITIONS] [SAFE_MOVES] [THREADS]</code><br>
+ * Plays POSITIONS (default 10) random games on a SIZE (default 7) square
+ * grid safely until at most SAFE_MOVES (default 3) safe moves are left (the
+ * same positions every run), then solves each of them to the end with 1, 2,
+ * 4, ... up to THREADS (default every processor) threads, starting from an
+ * empty transposition table each time. Reports the total time, the speedup
+ * over one thread, and nodes/second (every thread's nodes are counted).
+ * </p>
+ */
+public class SearchScaling {
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+		int positions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int safeMoves = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int most = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		Grid grid = new Grid(size, size);
+		ArrayList<Board> boards = new ArrayList<Board>();
+		Random random = new Random(size);
+		for (int i = 0; i < positions; i++)
+			boards.add(endgame(grid, random, safeMoves));
+		ArrayList<Integer> counts = new ArrayList<Integer>();
+		for (int threads = 1; threads < most; threads *= 2)
+			counts.add(threads);
+		counts.add(most);
+
+		System.out.printf("%d %s endgames, %d safe moves left, %d processors%n", positions, grid, safeMoves, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-7s %7s %9s %8s %12s %12s%n", "threads", "solved", "total ms", "speedup", "nodes", "nodes/s");
+		Solver solver = new Solver(grid, 22);
+		// Once round first, so the JIT has compiled the search before anything is timed
+		solver.threads = most;
+		for (Board board : boards)
+			solver.solve(board, 60000);
+		double single = 0;
+		for (int threads : counts) {
+			solver.threads = threads;
+			int solved = 0;
+			long time = 0;
+			long nodes = 0;
+			int[] values = new int[positions];
+			for (int i = 0; i < positions; i++) {
+				solver.table.clear();
+				solver.solve(boards.get(i), 600000);
+				if (solver.isSolved())
+					solved++;
+				values[i] = solver.getValue();
+				time += solver.getElapsed();
+				nodes += solver.getNodes();
+			}
+			if (threads == 1)
+				single = time;
+			System.out.printf("%-7d %3d/%-3d %9d %7.2fx %12d %12d%n", threads, solved, positions, time,
+				time == 0 ? 0 : single / time, nodes, time == 0 ? 0 : nodes * 1000 / time);
+		}
+	}
+
+	/**
+	 * Play random safe moves until only a few are left.
+	 */
+	private static Board endgame(Grid grid, Random random, int safeMoves) {
+		Board board = new Board(grid);
+		int player = 0;
+		while (true) {
+			ArrayList<Move> safe = new ArrayList<Move>();
+			for (Move move : Strategy.free(board))
+				if (Strategy.safe(board, move))
+					safe.add(move);
+			if (safe.size() <= safeMoves)
+				return board;
+			Collections.shuffle(safe, random);
+			if (board.play(player, safe.get(0).x, safe.get(0).y, safe.get(0).vertical) == Board.NO_SCORE)
+				player = 1 - player;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import coms.Client;
+import coms.Packet;
+import coms.Tokenizer;
+import grid.Board;
+import grid.Grid;
+
+/**
+ * How many games a host can adjudicate, with every game played in-process.
+ * <p>
+ * Usage: <code>make bench SelfPlay [GAMES] [SECONDS] [GRIDS] [PLAYERS] [STRATEGY]</code><br>
+ * Runs GAMES (default 64) dedicated {@link GameServer}s at once on one shared
+ * pool of threads, each with PLAYERS (default 2) seats playing with STRATEGY
+ * (default chain), on grids taken in turn from GRIDS (default 5x5, or a comma
+ * separated list). Seats are clients without sockets: they send real
+ * protocol commands to {@link GameServer#clientMessage(Client, String)} and
+ * follow the game from its broadcasts on their own {@link Mailbox}, so every
+ * move goes through the server's real command handling and
+ * <code>makeMove</code>. Each game restarts as soon as it ends, for SECONDS
+ * (default 10).
+ * </p>
+ * <p>
+ * Reports games and moves per second, and move latency (from a seat
+ * sending its move to the server's broadcast of it reaching the seat,
+ * including any time spent waiting for a thread). It also reports the
+ * allocation rate of every thread while the games were running.
+ * </p>
+ */
+public class SelfPlay {
+	private static final AtomicLong games = new AtomicLong();  // Games finished
+	private static final Histogram latency = new Histogram(); // Nanoseconds from sending each move to hearing it back
+	private static final AtomicLong moves = new AtomicLong();  // Moves made
+	private static volatile boolean running = true;            // Whether or not to start another game when one ends
+
+	/**
+	 * A player without a connection, seated at one in-process game.
+	 */
+	private static class Seat extends Client {
+		private Board board;                 // Every claimed line and box
+		private int currentPlayer = -1;      // Whose turn it is
+		private boolean gameStarted = false; // Whether or not a game is being played
+		private int playerID = -1;           // Our playerID (negative until we have joined)
+		private long sent;                   // When our last move was sent (System.nanoTime())
+		private boolean waiting = false;     // Whether or not we are waiting to hear about our own move
+
+		private final CountDownLatch finished;            // Counted down when our game stops for good
+		private final Mailbox mailbox;                    // Runs our half of the game, one message at a time
+		private final int players;                        // How many seats the game has
+		private final GameServer server;                  // The game
+		private final Strategy strategy;                  // Chooses our moves
+		private final Tokenizer tokens = new Tokenizer(); // Takes apart each broadcast (only on our mailbox)
+
+		private void handle(String message) {
+			tokens.reset(message);
+			switch (tokens.command()) {
+			case "network-assign":
+				playerID = tokens.parseInt(1);
+				break;
+			case "grid-size":
+				board = new Board(Grid.parseGrid(tokens.word(1)));
+				break;
+			case "game-start":
+			case "game-restart":
+				board.reset();
+				gameStarted = true;
+				waiting = false;
+				currentPlayer = 1;
+				break;
+			case "game-current":
+				currentPlayer = tokens.parseInt(1);
+				break;
+			case "game-play":
+				int player = tokens.parseInt(1);
+				int result = board.play(player, tokens.x(2), tokens.y(2), tokens.is(3, "ver"));
+				if (player == playerID) {
+					latency.record(System.nanoTime() - sent);
+					waiting = false;
+				}
+				if (playerID == 1)
+					moves.incrementAndGet();
+				if (result == Board.NO_SCORE)
+					currentPlayer = currentPlayer % players + 1;
+				else if ((result & Board.GAME_OVER) != 0) {
+					gameStarted = false;
+					if (playerID == 1) {
+						games.incrementAndGet();
+						if (running)
+							server.clientMessage(this, "request-restart");
+						else
+							finished.countDown();
+					}
+				}
+				break;
+			}
+
+			if (gameStarted && !waiting && currentPlayer == playerID && !board.isFull()) {
+				Move move = strategy.choose(board, playerID);
+				waiting = true;
+				sent = System.nanoTime();
+				server.clientMessage(this, "game-play " + move);
+			}
+		}
+
+		@Override
+		public void close() { }
+
+		@Override
+		public void flush() { }
+
+		@Override
+		public void queue(Packet packet) {
+			mailbox.deliver(() -> handle(packet.message));
+		}
+
+		@Override
+		public String send(String message) {
+			queue(new Packet(message));
+			return message;
+		}
+
+		@Override
+		public void upgrade() { }
+
+		Seat(GameServer server, int players, Strategy strategy, ExecutorService workers, CountDownLatch finished) {
+			this.server = server;
+			this.players = players;
+			this.strategy = strategy;
+			this.finished = finished;
+			mailbox = new Mailbox(workers, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Counts values in buckets that are never more than 1/16th wide, relative to the value.
+	 */
+	private static class Histogram {
+		private final AtomicLongArray counts = new AtomicLongArray(64 * 16); // Values in each bucket
+
+		private static int bucket(long value) {
+			if (value < 16)
+				return (int)Math.max(value, 0);
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			return (exponent - 3) * 16 + (int)(value >>> (exponent - 4) & 15);
+		}
+
+		private static long lowest(int bucket) {
+			if (bucket < 16)
+				return bucket;
+			int exponent = bucket / 16 + 3;
+			return (16L + bucket % 16) << (exponent - 4);
+		}
+
+		/**
+		 * The value that a fraction of the values are at or below.
+		 * @param fraction From 0 to 1
+		 * @return The lowest value in that value's bucket
+		 */
+		long percentile(double fraction) {
+			long total = 0;
+			for (int i = 0; i < counts.length(); i++)
+				total += counts.get(i);
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen > 0 && seen >= fraction * total)
+					return lowest(i);
+			}
+			return 0;
+		}
+
+		void record(long value) {
+			counts.incrementAndGet(bucket(value));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		String[] grids = (args.length > 2 ? args[2] : "5x5").split(",");
+		int players = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+		String strategy = args.length > 4 ? args[4] : "chain";
+		Strategy.parseStrategy(strategy);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "SelfPlay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		System.out.printf("%d games of %d %s players on %s, %d threads, %d seconds%n", count, players, strategy, String.join(",", grids), threads, seconds);
+
+		// The servers talk a lot (finished games, versions), so keep it quiet while they run
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long allocatedBefore = allocated(threadBean);
+		long start = System.nanoTime();
+
+		CountDownLatch finished = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			GameServer server = new GameServer(Grid.parseGrid(grids[i % grids.length]), players, true, workers);
+			Seat first = null;
+			for (int p = 0; p < players; p++) {
+				Seat seat = new Seat(server, players, Strategy.parseStrategy(strategy), workers, finished);
+				if (first == null)
+					first = seat;
+				server.mailbox.deliver(() -> server.accept(seat));
+				server.clientMessage(seat, "info-version " + GameServer.version[0] + " " + GameServer.version[1]);
+				server.clientMessage(seat, "request-join");
+			}
+			server.clientMessage(first, "request-start");
+		}
+
+		Thread.sleep(seconds * 1000L);
+		long gamesDone = games.get();
+		long movesDone = moves.get();
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocated(threadBean);
+		running = false;
+		finished.await(10, TimeUnit.SECONDS);
+		System.setOut(out);
+
+		double time = elapsed / 1e9;
+		System.out.printf("%d games, %d moves in %.1fs%n", gamesDone, movesDone, time);
+		System.out.printf("%.1f games/s, %.0f moves/s%n", gamesDone / time, movesDone / time);
+		System.out.printf("move latency p50 %.1f us, p99 %.1f us%n", latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3);
+		if (allocatedBefore >= 0)
+			System.out.printf("allocation %.1f MB/s, %d bytes/move%n", (allocatedAfter - allocatedBefore) / time / 1e6,
+				movesDone == 0 ? 0 : (allocatedAfter - allocatedBefore) / movesDone);
+		else
+			System.out.println("allocation rate isn't available on this JVM");
+	}
+
+	/**
+	 * Bytes allocated so far by every live thread.
+	 * @return The total, or -1 if the JVM can't count them
+	 */
+	private static long allocated(ThreadMXBean threadBean) {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+		if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled())
+			return -1;
+		long total = 0;
+		for (long bytes : bean.getThreadAllocatedBytes(threadBean.getAllThreadIds()))
+			total += Math.max(bytes, 0);
+		return total;
+	}
+}
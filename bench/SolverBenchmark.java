@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import grid.Board;
+import grid.Grid;
+
+/**
+ * How quickly the {@link Solver} solves endgames.
+ * <p>
+ * Usage: <code>make bench SolverBenchmark [POSITIONS] [BUDGET_MS] [SAFE_MOVES]</code><br>
+ * For each grid from 5x5 to 8x8, plays POSITIONS (default 20) random games
+ * safely until at most SAFE_MOVES (default 2) safe moves are left, then solves
+ * each with a BUDGET_MS (default 2000) time budget, with and without chain
+ * analysis. Reports how many were solved, the average time, and nodes/second.
+ * </p>
+ */
+public class SolverBenchmark {
+	public static void main(String[] args) {
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		long budget = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int safeMoves = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+		System.out.printf("%-5s %-8s %7s %9s %12s %12s%n", "grid", "analysis", "solved", "avg ms", "avg nodes", "nodes/s");
+		for (int size = 5; size <= 8; size++) {
+			Grid grid = new Grid(size, size);
+			ArrayList<Board> boards = new ArrayList<Board>();
+			Random random = new Random(size);
+			for (int i = 0; i < positions; i++)
+				boards.add(endgame(grid, random, safeMoves));
+			for (boolean analysis : new boolean[] { true, false }) {
+				Solver solver = new Solver(grid, 20);
+				solver.analysis = analysis;
+				int solved = 0;
+				long time = 0;
+				long nodes = 0;
+				for (Board board : boards) {
+					solver.table.clear();
+					solver.solve(board, budget);
+					if (solver.isSolved())
+						solved++;
+					time += solver.getElapsed();
+					nodes += solver.getNodes();
+				}
+				System.out.printf("%-5s %-8s %3d/%-3d %9.1f %12d %12d%n", grid, analysis, solved, positions,
+					(double)time / positions, nodes / positions, time == 0 ? 0 : nodes * 1000 / time);
+			}
+		}
+	}
+
+	/**
+	 * Play random safe moves until only a few are left.
+	 */
+	private static Board endgame(Grid grid, Random random, int safeMoves) {
+		Board board = new Board(grid);
+		int player = 0;
+		while (true) {
+			ArrayList<Move> safe = new ArrayList<Move>();
+			for (Move move : Strategy.free(board))
+				if (Strategy.safe(board, move))
+					safe.add(move);
+			if (safe.size() <= safeMoves)
+				return board;
+			Collections.shuffle(safe, random);
+			if (board.play(player, safe.get(0).x, safe.get(0).y, safe.get(0).vertical) == Board.NO_SCORE)
+				player = 1 - player;
+		}
+	}
+}
@@ -0,0 +1,325 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import coms.CommandTable;
+import coms.Commands;
+import coms.Protocol;
+import coms.Server;
+import coms.Tokenizer;
+import coms.Transport;
+import grid.Board;
+import grid.Grid;
+
+/**
+ * A player without a window, that connects to a {@link GameServer} like any
+ * other client and plays with a {@link Strategy}.
+ * <p>
+ * Each bot follows the game the same way a {@link GameManager} does (from the
+ * server's broadcasts), and only thinks on its own {@link Mailbox}. Mailboxes
+ * share an {@link Executor}, so many bots can run in one process on a small
+ * pool of threads. (Each connection still has a thread reading it, which is
+ * a virtual thread with {@link Transport#VIRTUAL}.)
+ * </p>
+ * @see Strategy
+ */
+public class Bot extends Server {
+	private Board board;                 // Every claimed line and box
+	private int clientID = -1;           // Our playerID (negative while we aren't a player)
+	private int currentPlayer = -1;      // Whose turn it is
+	private boolean gameStarted = false; // Whether or not a game is being played
+	private int nextID = 1;              // One more than the highest playerID
+	private int retries = 0;             // Warnings since our last move was accepted
+	private boolean waiting = false;     // Whether or not we are waiting to hear about our own move
+
+	private final CommandTable<Server> commands = new CommandTable<Server>();           // Every command we follow the game with
+	private final Mailbox mailbox;                                                      // Runs our half of the game, one message at a time
+	private final TreeMap<Integer, Boolean> players = new TreeMap<Integer, Boolean>(); // Whether or not each player is connected, by playerID
+	private final Strategy strategy;                                                    // Chooses our moves
+	private final Tokenizer tokens = new Tokenizer();                                   // Takes apart each message (only on our mailbox)
+
+	public int autostart = 0; // Start a game once this many players are in the lobby (0 to wait for somebody else to)
+	public int delay = 0;     // How long to think before each move, in milliseconds
+
+	/**
+	 * Log2 of how many positions a new {@link PositionBook} holds, from <code>main()</code>.
+	 */
+	public static int bookBits = 20;
+
+	/**
+	 * How many positions the front cache of a {@link PositionBook} holds, from <code>main()</code>.
+	 */
+	public static int bookCache = 1 << 14;
+
+	private static final int maxRetries = 5;                         // Most times to try again after a warning, before waiting for the game to change
+	private static final int retryDelay = 50;                        // How long to wait before trying again after a warning, in milliseconds (longer each time)
+	private static final int warning = Protocol.opcode("info-warn"); // Opcode of the warning we get when our move isn't accepted
+
+	/**
+	 * Fires when the game we are playing is over.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param boxes How many boxes we claimed
+	 * @param won Whether or not we had (or tied for) the most boxes
+	 */
+	public void finished(int boxes, boolean won) { }
+
+	@Override
+	public void connected() {
+		send("info-version " + GameServer.version[0] + " " + GameServer.version[1] + " binary");
+		send("request-join");
+	}
+
+	@Override
+	public void disconnected() {
+		mailbox.deliver(() -> {
+			gameStarted = false;
+			clientID = -1;
+		});
+	}
+
+	private void gameOver() {
+		int[] scores = new int[nextID];
+		board.getGrid().forEach(pnt -> {
+			int owner = board.getBox(pnt.x, pnt.y);
+			if (owner >= 0 && owner < nextID)
+				scores[owner]++;
+		});
+		int best = 0;
+		for (int score : scores)
+			best = Math.max(best, score);
+		finished(scores[clientID], scores[clientID] == best);
+		// Only one player needs to ask for another game
+		if (autostart > 0 && clientID == firstPlayer())
+			send("request-restart");
+	}
+
+	private void gameStart() {
+		gameStop();
+		gameStarted = true;
+		currentPlayer = 0;
+		if (!players.containsKey(currentPlayer))
+			playerNext();
+	}
+
+	private void gameStop() {
+		gameStarted = false;
+		currentPlayer = -1;
+		retries = 0;
+		waiting = false;
+		players.values().removeIf(connected -> !connected);
+		if (board != null)
+			board.reset();
+	}
+
+	private int firstPlayer() {
+		for (int playerID : players.keySet())
+			if (players.get(playerID))
+				return playerID;
+		return -1;
+	}
+
+	private void handle(String message) {
+		commands.dispatch(this, tokens.reset(message));
+		// (After our move wasn't accepted, try again shortly, not straight away, in case nothing else changes)
+		if (tokens.opcode() == warning) {
+			if (retries++ < maxRetries)
+				CompletableFuture.delayedExecutor(retryDelay * retries, TimeUnit.MILLISECONDS, mailbox::deliver).execute(this::takeTurn);
+			return;
+		}
+		takeTurn();
+	}
+
+	private void playerNext() {
+		if (!players.containsValue(true))
+			return;
+		do {
+			currentPlayer++;
+			if (currentPlayer >= nextID)
+				currentPlayer = 0;
+		} while (!players.containsKey(currentPlayer) || !players.get(currentPlayer));
+	}
+
+	@Override
+	public void receive(String message) {
+		mailbox.deliver(() -> handle(message));
+	}
+
+	// Think, if it's our turn (and we aren't waiting to hear about our move)
+	private void takeTurn() {
+		if (gameStarted && !waiting && currentPlayer == clientID && board != null && !board.isFull())
+			think();
+	}
+
+	private void think() {
+		Move move = strategy.choose(board, clientID);
+		if (move == null)
+			return;
+		waiting = true;
+		if (delay > 0)
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, mailbox::deliver).execute(() -> send("game-play " + move));
+		else
+			send("game-play " + move);
+	}
+
+	@Override
+	public String toString() {
+		return strategy + " bot " + clientID;
+	}
+
+	/**
+	 * Run many bots against a server. (Usage: <code>--bots [COUNT] [ADDRESS] [STRATEGY] [DELAY] [--book=FILE]</code>)
+	 * <p>
+	 * Defaults to 2 chain-aware bots on localhost, moving as fast as they can.
+	 * Bots start a new game whenever their lobby has 2 players, so against a
+	 * dedicated server they play until stopped, and a summary is printed every
+	 * few seconds. Solver bots share a {@link PositionBook} if one is given
+	 * (created if it doesn't exist).
+	 * </p>
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		int count;
+		String address;
+		String strategy;
+		int delay;
+		PositionBook book = null;
+		if (args.length > 0 && args[args.length - 1].startsWith("--book=")) {
+			try {
+				book = new PositionBook(Path.of(args[args.length - 1].substring(7)), bookBits, bookCache);
+			}
+			catch (IOException e) {
+				System.out.println("Could not open position book: " + e.getMessage());
+				return;
+			}
+			args = Arrays.copyOf(args, args.length - 1);
+		}
+		try {
+			count = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+			address = args.length > 1 ? args[1] : "localhost";
+			strategy = args.length > 2 ? args[2] : "chain";
+			delay = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+			Strategy.parseStrategy(strategy);
+		}
+		catch (Exception e) {
+			System.out.println("Usage: --bots [COUNT] [ADDRESS] [greedy|safe|chain|solver] [DELAY_MS] [--book=FILE]");
+			return;
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+			Thread thread = new Thread(task, "Bot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicLong games = new AtomicLong();
+		AtomicLong wins = new AtomicLong();
+		CountDownLatch running = new CountDownLatch(count);
+		ArrayList<Bot> bots = new ArrayList<Bot>();
+		for (int i = 0; i < count; i++) {
+			Strategy chooser = Strategy.parseStrategy(strategy);
+			if (chooser instanceof SolverStrategy)
+				((SolverStrategy)chooser).book = book;
+			Bot bot = new Bot(address, GameServer.port, chooser, workers) {
+				@Override
+				public void disconnected() {
+					super.disconnected();
+					running.countDown();
+				}
+
+				@Override
+				public void finished(int boxes, boolean won) {
+					games.incrementAndGet();
+					if (won)
+						wins.incrementAndGet();
+				}
+			};
+			if (!bot.isConnected()) {
+				running.countDown();
+				continue;
+			}
+			bot.autostart = 2;
+			bot.delay = delay;
+			bot.transport = Transport.virtualThreads ? Transport.VIRTUAL : Transport.THREAD;
+			bot.start();
+			bots.add(bot);
+		}
+		System.out.println(bots.size() + " " + strategy + " bots connected to " + address + ".");
+
+		long start = System.nanoTime();
+		try {
+			while (!running.await(5, TimeUnit.SECONDS)) {
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%d games finished by bots (%d won), %.1f per second%n", games.get(), wins.get(), games.get() / seconds);
+				if (book != null)
+					System.out.println("Position book: " + book);
+			}
+		}
+		catch (InterruptedException e) { }
+		if (book != null)
+			book.close();
+		System.out.println("Every bot has disconnected.");
+	}
+
+	/**
+	 * Connect a new bot to a server. (Call {@link #start()} to begin playing.)
+	 * @param remoteAddr The server's address
+	 * @param port The server's port
+	 * @param strategy Chooses the bot's moves (not shared with another bot)
+	 * @param workers Runs the bot's mailbox (may be shared by any number of bots)
+	 */
+	public Bot(String remoteAddr, Integer port, Strategy strategy, Executor workers) {
+		super(remoteAddr, port);
+		this.strategy = strategy;
+		mailbox = new Mailbox(workers, Integer.MAX_VALUE);
+
+		// Only what it takes to follow the game (anything else is ignored)
+		commands.on("game-current", null, Commands.Id::decode, (from, current) -> currentPlayer = current.id());
+		commands.on("game-play", null, Commands.Played::decode, (from, play) -> {
+			int result = board.play(play.player(), play.x(), play.y(), play.vertical());
+			if (play.player() == clientID) {
+				waiting = false;
+				retries = 0;
+			}
+			if (result == Board.NO_SCORE)
+				playerNext();
+			else if (result != Board.INVALID && (result & Board.GAME_OVER) != 0 && players.containsKey(clientID))
+				gameOver();
+		});
+		commands.on("game-restart", null, from -> gameStart());
+		commands.on("game-start", null, from -> gameStart());
+		commands.on("game-stop", null, from -> gameStop());
+		commands.on("grid-reset", null, from -> board.reset());
+		commands.on("grid-size", null, Commands.Size::decode, (from, size) -> board = new Board(new Grid(size.width(), size.height())));
+		commands.on("grid-part", null, Commands.Part::decode, (from, part) -> board.restore(part.start(), part.runs()));
+		commands.on("grid-snapshot", null, Commands.Snapshot::decode, (from, snapshot) -> board.restore(snapshot.board()));
+		commands.on("info-binary", null, from -> upgrade());
+		// Our move wasn't accepted
+		commands.on("info-warn", null, from -> waiting = false);
+		commands.on("network-assign", null, Commands.Id::decode, (from, assign) -> clientID = assign.id());
+		commands.on("player-add", null, Commands.Named::decode, (from, add) -> {
+			players.put(add.player(), true);
+			nextID = Math.max(nextID, add.player() + 1);
+			if (!gameStarted && autostart > 0 && players.size() >= autostart && clientID == players.lastKey())
+				send("request-start");
+		});
+		commands.on("player-rejoin", null, Commands.Id::decode, (from, rejoin) -> players.put(rejoin.id(), true));
+		commands.on("player-remove", null, Commands.Id::decode, (from, remove) -> {
+			if (!gameStarted)
+				players.remove(remove.id());
+			else {
+				players.put(remove.id(), false);
+				if (remove.id() == currentPlayer)
+					playerNext();
+			}
+		});
+	}
+}
@@ -3,6 +3,7 @@ import java.awt.Graphics;
 import java.awt.Rectangle;
 import java.util.concurrent.ConcurrentHashMap;
 
+import grid.Board;
 import grid.Grid;
 import grid.GridPoint;
 
@@ -13,8 +14,8 @@ import grid.GridPoint;
  */
 public class Box {
 	private Rectangle bounds; // Absolute size and position in the parent JPanel
-	private Integer owner;    // Owner of this box
 
+	private final Board board;                                // Ownership data (this box's owner lives here)
 	private final Grid grid;                                  // Game grid information
 	private final GridPoint gridPos;                          // Position on game grid
 	private final ConcurrentHashMap<Integer, Player> players; // Player Data
@@ -24,10 +25,10 @@ public class Box {
 
 	/**
 	 * Get the box's owner.
-	 * @return The number of the player that owns the box
+	 * @return The number of the player that owns the box (-1 if unclaimed)
 	 */
 	public int getOwner() {
-		return owner;
+		return board.getBox(gridPos.x, gridPos.y);
 	}
 
 	/**
@@ -36,6 +37,7 @@ public class Box {
 	 * @see Dot#paint(Graphics)
 	 */
 	public void paint(Graphics g) {
+		int owner = getOwner();
 		if (owner != -1) {
 			if (!players.get(owner).disconnected())
 				if (players.get(owner).getColor() != null)
@@ -50,13 +52,6 @@ public class Box {
 		}
 	}
 
-	/**
-	 * Reset box ownership.
-	 */
-	public void reset() {
-		owner = -1;
-	}
-
 	/**
 	 * Adjust elements if window (panel) has been resized.
 	 * @param panelWidth New width of the game grid panel
@@ -78,35 +73,28 @@ public class Box {
 	 * @return <code>true</code> if successfully claimed, <code>false</code> if box already owned
 	 */
 	public Boolean setOwner(int playerID) {
-		if (players.containsKey(playerID)) {
-			if (owner == -1) {
-				owner = playerID;
-				return true;
-			}
-		}
-		return false;
+		return players.containsKey(playerID) && board.claimBox(gridPos.x, gridPos.y, playerID);
 	}
 
 	/**
 	 * A new box, with no owner.
 	 * @param gridPos Grid position of the box's {@link Dot}
-	 * @param grid Grid information
+	 * @param board Ownership data (and grid information)
 	 * @param players Players in the game
 	 * @see GridPoint
 	 */
-	public Box(GridPoint gridPos, Grid grid, ConcurrentHashMap<Integer, Player> players) {
+	public Box(GridPoint gridPos, Board board, ConcurrentHashMap<Integer, Player> players) {
 		// Set Relative Location
 		this.gridPos = gridPos;
 
 		// Game Grid Information
-		this.grid = grid;
+		this.board = board;
+		grid = board.getGrid();
 
 		// Initialize Absolute Location
 		bounds = new Rectangle();
 
 		// Set Player Count
 		this.players = players;
-
-		reset();
 	}
 }
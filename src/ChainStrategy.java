@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+
+import grid.Board;
+
+/**
+ * Plays safe while it can, then thinks in chains.
+ * <p>
+ * Once every move gives something away, it opens whichever chain gives the
+ * next player the fewest boxes. When taking a chain with more of the board
+ * still to play for, it leaves the last two boxes (the "double-dealing"
+ * move), so the other player has to take them and open the next chain.
+ * (A heuristic, not a solver: it doesn't count loops or long chain parity.)
+ * </p>
+ */
+public class ChainStrategy extends SafeStrategy {
+	private int stamp = 0;     // Marks which lines and boxes are claimed in the current simulation
+	private int[] boxes;       // Stamp of each box taken in a simulation
+	private int[] horizontal;  // Stamp of each horizontal line claimed in a simulation
+	private int[] vertical;    // Stamp of each vertical line claimed in a simulation
+	private int[] pending;     // Lines waiting to be claimed in a simulation (boxes waiting to be taken are negative)
+
+	@Override
+	public Move choose(Board board, int playerID) {
+		int width = board.getGrid().width;
+		int height = board.getGrid().height;
+		if (boxes == null || boxes.length != width * height) {
+			boxes = new int[width * height];
+			horizontal = new int[width * height];
+			vertical = new int[width * height];
+			pending = new int[width * height * 4];
+		}
+
+		ArrayList<Move> free = Strategy.free(board);
+		boolean safe = false;
+		for (Move move : free)
+			safe |= Strategy.safe(board, move);
+
+		Move capture = Strategy.capture(board);
+		if (capture != null) {
+			// Keep control: leave the last two boxes of a chain, if the rest is worth more
+			if (!safe && simulate(board, null) == 2 && (width - 1) * (height - 1) - board.getClaimed() > 4) {
+				Move decline = doubleDeal(board);
+				if (decline != null)
+					return decline;
+			}
+			return capture;
+		}
+		if (safe || free.isEmpty())
+			return super.choose(board, playerID);
+
+		// Every move opens a chain, so open the smallest
+		ArrayList<Move> best = new ArrayList<Move>();
+		int fewest = Integer.MAX_VALUE;
+		for (Move move : free) {
+			int given = simulate(board, move);
+			if (given < fewest) {
+				fewest = given;
+				best.clear();
+			}
+			if (given == fewest)
+				best.add(move);
+		}
+		return best.get(random.nextInt(best.size()));
+	}
+
+	/**
+	 * Find the move that leaves the last two boxes of a chain for the other player.
+	 * @return The far side of the second box, or <code>null</code> if the chain isn't shaped for it
+	 */
+	private Move doubleDeal(Board board) {
+		for (int x = 0; x < board.getGrid().width - 1; x++) {
+			for (int y = 0; y < board.getGrid().height - 1; y++) {
+				if (board.getBox(x, y) != -1 || Strategy.sides(board, x, y) != 3)
+					continue;
+				// The box that this one's last side leads into
+				Move shared = Strategy.missing(board, x, y);
+				int nextX = shared.vertical ? (shared.x == x ? x - 1 : x + 1) : x;
+				int nextY = shared.vertical ? y : (shared.y == y ? y - 1 : y + 1);
+				if (!board.hasBox(nextX, nextY) || Strategy.sides(board, nextX, nextY) != 2)
+					continue;
+				for (Move far : sides(nextX, nextY)) {
+					if (board.getLine(far.x, far.y, far.vertical) != -1 || (far.x == shared.x && far.y == shared.y && far.vertical == shared.vertical))
+						continue;
+					// Claiming it mustn't give away a third box
+					int beyondX = far.vertical ? (far.x == nextX ? nextX - 1 : nextX + 1) : nextX;
+					int beyondY = far.vertical ? nextY : (far.y == nextY ? nextY - 1 : nextY + 1);
+					if (!board.hasBox(beyondX, beyondY) || Strategy.sides(board, beyondX, beyondY) < 2)
+						return far;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean claimed(Board board, int line) {
+		int index = line >> 1;
+		boolean vertical = (line & 1) != 0;
+		int height = board.getGrid().height;
+		return board.getLine(index / height, index % height, vertical) != -1 || (vertical ? this.vertical : horizontal)[index] == stamp;
+	}
+
+	private static int line(Board board, int x, int y, boolean vertical) {
+		return (board.getGrid().height * x + y) << 1 | (vertical ? 1 : 0);
+	}
+
+	private static Move[] sides(int x, int y) {
+		return new Move[] { new Move(x, y, false), new Move(x, y + 1, false), new Move(x, y, true), new Move(x + 1, y, true) };
+	}
+
+	/**
+	 * Count how many boxes could be taken in a row, without changing the board.
+	 * @param board The board
+	 * @param move A line to claim first (<code>null</code> to count what can be taken now)
+	 * @return How many boxes the next player could take
+	 */
+	private int simulate(Board board, Move move) {
+		int width = board.getGrid().width;
+		int height = board.getGrid().height;
+		stamp++;
+		int waiting = 0;
+		if (move != null)
+			pending[waiting++] = line(board, move.x, move.y, move.vertical);
+		else {
+			for (int x = 0; x < width - 1; x++)
+				for (int y = 0; y < height - 1; y++)
+					if (board.getBox(x, y) == -1 && Strategy.sides(board, x, y) == 3)
+						pending[waiting++] = -(height * x + y) - 1;
+		}
+
+		int taken = 0;
+		while (waiting > 0) {
+			int next = pending[--waiting];
+			if (next < 0) {
+				// A box with three sides: claim its last one
+				int x = (-next - 1) / height;
+				int y = (-next - 1) % height;
+				for (Move side : sides(x, y)) {
+					int line = line(board, side.x, side.y, side.vertical);
+					if (!claimed(board, line)) {
+						pending[waiting++] = line;
+						break;
+					}
+				}
+				continue;
+			}
+			// Claim the line, then look at the boxes on either side of it
+			int index = next >> 1;
+			boolean vertical = (next & 1) != 0;
+			if (claimed(board, next))
+				continue;
+			(vertical ? this.vertical : horizontal)[index] = stamp;
+			int x = index / height;
+			int y = index % height;
+			// The box before the line (left of a vertical line, above a horizontal one), then the box after it
+			for (int after = 0; after < 2; after++) {
+				int boxX = after == 0 && vertical ? x - 1 : x;
+				int boxY = after == 0 && !vertical ? y - 1 : y;
+				if (!board.hasBox(boxX, boxY) || board.getBox(boxX, boxY) != -1 || boxes[height * boxX + boxY] == stamp)
+					continue;
+				int sides = 0;
+				for (Move side : sides(boxX, boxY))
+					if (claimed(board, line(board, side.x, side.y, side.vertical)))
+						sides++;
+				if (sides == 4) {
+					boxes[height * boxX + boxY] = stamp;
+					taken++;
+				}
+				else if (sides == 3)
+					pending[waiting++] = -(height * boxX + boxY) - 1;
+			}
+		}
+		return taken;
+	}
+
+	@Override
+	public String toString() {
+		return "chain";
+	}
+}
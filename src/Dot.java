@@ -5,6 +5,7 @@ import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
+import grid.Board;
 import grid.Grid;
 import grid.GridPoint;
 
@@ -90,15 +91,13 @@ public class Dot {
 	}
 
 	/**
-	 * Resets this dot, as well as its lines and box. (Ownership info.)
+	 * Resets this dot's lines. (Ownership info is reset by the {@link Board}.)
 	 */
 	public void reset() {
 		if (right != null)
 			right.reset();
 		if (down != null)
 			down.reset();
-		if (box != null)
-			box.reset();
 	}
 
 	/**
@@ -128,27 +127,27 @@ public class Dot {
 	 * Create a new dot.<br>
 	 * The dot will also create lines and a box if necessary.
 	 * @param gridPos Grid position of the dot
-	 * @param grid Grid information
+	 * @param board Ownership data (and grid information)
 	 * @param players The players in the game
 	 * @see Line
 	 * @see Box
 	 * @see GameField
 	 * @see Player
 	 */
-	public Dot(GridPoint gridPos, Grid grid, ConcurrentHashMap<Integer, Player> players) {
+	public Dot(GridPoint gridPos, Board board, ConcurrentHashMap<Integer, Player> players) {
 		// Set Relative Location
 		this.gridPos = gridPos;
 
 		// Game Grid Information
-		this.grid = grid;
+		grid = board.getGrid();
 
 		// Initialize Absolute Location
 		panelPos = new Point();
 
 		// Create Lines
-		right = gridPos.x < grid.width - 1 ? new Line(gridPos, grid, players, false) : null;
-		down = gridPos.y < grid.height - 1 ? new Line(gridPos, grid, players, true) : null;
+		right = board.hasLine(gridPos.x, gridPos.y, false) ? new Line(gridPos, board, players, false) : null;
+		down = board.hasLine(gridPos.x, gridPos.y, true) ? new Line(gridPos, board, players, true) : null;
 
-		box = right != null && down != null ? new Box(gridPos, grid, players) : null;
+		box = board.hasBox(gridPos.x, gridPos.y) ? new Box(gridPos, board, players) : null;
 	}
 }
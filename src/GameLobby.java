@@ -0,0 +1,270 @@
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import coms.Client;
+import coms.ClientCollector;
+import coms.ClientSelector;
+import coms.SlowConsumer;
+import coms.Tokenizer;
+import coms.Transport;
+import grid.Grid;
+
+/**
+ * Many independent games (rooms) behind a single listener.
+ * <p>
+ * Every room is a dedicated {@link GameServer} with its own board, players,
+ * queue, and spectators. Clients start out in the default room (so older
+ * clients play exactly as before), and can move between rooms with:
+ * </p>
+ * <pre>
+ * room-list                       -&gt; room-list COUNT, then room-info ID WIDTHxHEIGHT PLAYERS MAX_PLAYERS lobby|game for each room
+ * room-create [WIDTHxHEIGHT] [MAX] -&gt; room-join ID (the new room)
+ * room-join ID                    -&gt; room-join ID
+ * </pre>
+ * <p>
+ * Each room handles its messages one at a time on its {@link Mailbox}, and
+ * every mailbox shares a fixed pool of worker threads. A room only ever holds
+ * one worker, and gives it up after {@link Mailbox#batch} messages, so a busy
+ * game can't starve the others.
+ * Rooms (other than the default room) are closed once everybody has left.
+ * </p>
+ * @see GameServer
+ */
+public class GameLobby {
+	private ClientCollector listener; // Waits for clients to connect
+	private Room lobby;               // Default room, where clients start (made by open())
+
+	private final Grid grid;                                                                         // Default grid for new rooms
+	private final Integer maxPlayers;                                                                // Default player limit for new rooms
+	private final AtomicInteger nextID = new AtomicInteger(1);                                      // next available room ID
+	private final ConcurrentHashMap<Client, Room> clients = new ConcurrentHashMap<Client, Room>(); // Which room each client is in
+	private final ConcurrentHashMap<Integer, Room> rooms = new ConcurrentHashMap<Integer, Room>(); // Open rooms by ID
+	private final ExecutorService workers;                                                           // Runs every room's messages
+
+	public Transport transport = Transport.THREAD;          // How client connections are served (set before open())
+	public Path replays;                                     // Directory every room archives finished games in (null to not, set before open())
+	public SlowConsumer slowConsumers = SlowConsumer.RESYNC; // What every room does with clients that can't keep up (set before open())
+
+	/**
+	 * One game, and its ID.
+	 */
+	private class Room {
+		final Integer roomID;                     // Unique ID for this room
+		final GameServer server;                  // The game
+		final Tokenizer tokens = new Tokenizer(); // Takes apart room- commands (on the room's mailbox)
+
+		/**
+		 * Queue work for the game, on its mailbox.
+		 * @param task The work
+		 */
+		void deliver(Runnable task) {
+			server.mailbox.deliver(task);
+		}
+
+		@Override
+		public String toString() {
+			return "room-info " + roomID + " " + server.getGrid() + " " + server.getPlayerCount() + " " + server.getMaxPlayers() + " " + (server.isStarted() ? "game" : "lobby");
+		}
+
+		Room(Integer roomID, Grid grid, Integer maxPlayers) {
+			this.roomID = roomID;
+			server = new GameServer(grid, maxPlayers, true, workers);
+			server.replays = replays;
+			server.slowConsumers = slowConsumers;
+		}
+	}
+
+	private void accept(Client client) {
+		clients.put(client, lobby);
+		lobby.deliver(() -> lobby.server.accept(client));
+	}
+
+	/**
+	 * Move a client into another room. (Run by the room it is leaving.)
+	 */
+	private void join(Client client, Room from, Room to) {
+		from.server.leave(client);
+		closeIfEmpty(from);
+		clients.put(client, to);
+		to.deliver(() -> {
+			// It may have emptied out and closed in the meantime
+			rooms.putIfAbsent(to.roomID, to);
+			to.server.broadcast(client, "room-join " + to.roomID);
+			to.server.accept(client);
+		});
+	}
+
+	private void closeIfEmpty(Room room) {
+		if (room != lobby && room.server.isEmpty() && rooms.remove(room.roomID, room))
+			System.out.println("Room " + room.roomID + " closed.");
+	}
+
+	/**
+	 * Handle a message from a client, in the lobby or in its room.
+	 * <br>
+	 * Everything is handled by the client's room, so its messages are never reordered, even while it moves between rooms.
+	 * @param client The client that sent the message
+	 * @param message The message
+	 */
+	public void clientMessage(Client client, String message) {
+		Room room = clients.get(client);
+		if (room == null)
+			return;
+		Runnable task = () -> roomMessage(client, message, room);
+		if (message.equals(client.disconnect))
+			room.deliver(task);
+		else if (!room.server.mailbox.offer(task)) {
+			System.out.println("Room " + room.roomID + " is too busy, disconnecting a client.");
+			client.close();
+		}
+	}
+
+	private void roomMessage(Client client, String message, Room room) {
+		Room current = clients.get(client);
+		if (current == null)
+			return;
+		// The client moved after this message was sent, pass it along behind the move
+		if (current != room) {
+			current.deliver(() -> roomMessage(client, message, current));
+			return;
+		}
+
+		if (!message.startsWith("room-")) {
+			room.server.handle(client, message);
+			if (message.equals(client.disconnect)) {
+				clients.remove(client);
+				closeIfEmpty(room);
+			}
+			return;
+		}
+
+		if (!client.isValidated()) {
+			room.server.broadcast(client, "request-deny Server has not validated you yet!\nrequest-info");
+			return;
+		}
+		Tokenizer tokens = room.tokens.reset(message);
+		switch (tokens.command()) {
+		case "room-list":
+			// (All in one batch, however many rooms there are)
+			StringBuilder list = new StringBuilder("room-list " + rooms.size());
+			rooms.values().forEach(other -> list.append('\n').append(other));
+			room.server.broadcast(client, list.toString());
+			break;
+		case "room-create":
+			Grid size;
+			Integer max;
+			try {
+				size = tokens.size() > 1 ? Grid.parseGrid(tokens.word(1)) : new Grid(grid.width, grid.height);
+				max = tokens.size() > 2 ? tokens.parseInt(2) : maxPlayers;
+				if (size.width < 2 || size.height < 2 || max < 0)
+					throw new IllegalArgumentException();
+			}
+			catch (Exception e) {
+				room.server.broadcast(client, "info-malformed Could not parse room settings!");
+				break;
+			}
+			Room created = new Room(nextID.getAndIncrement(), size, max);
+			rooms.put(created.roomID, created);
+			System.out.println("Room " + created.roomID + " opened: " + size + " grid, " + (max == 0 ? "unlimited" : max) + " players.");
+			join(client, room, created);
+			break;
+		case "room-join":
+			Room target;
+			try {
+				target = rooms.get(tokens.parseInt(1));
+			}
+			catch (Exception e) {
+				room.server.broadcast(client, "info-malformed Could not parse room ID!");
+				break;
+			}
+			if (target == null)
+				room.server.broadcast(client, "request-deny No such room!");
+			else if (target == room)
+				room.server.broadcast(client, "request-deny Already in that room.");
+			else
+				join(client, room, target);
+			break;
+		default:
+			room.server.broadcast(client, "unknown-room");
+		}
+	}
+
+	/**
+	 * Stop accepting connections, and close every room.
+	 */
+	public void close() {
+		if (listener != null)
+			listener.close();
+		rooms.values().forEach(room -> room.deliver(room.server::close));
+		workers.shutdown();
+	}
+
+	/**
+	 * Every open room's game, for reporting (see {@link Metrics}).
+	 * @return Games by room ID, in order
+	 */
+	public Map<String, GameServer> getGames() {
+		LinkedHashMap<String, GameServer> games = new LinkedHashMap<String, GameServer>();
+		new TreeMap<Integer, Room>(rooms).forEach((roomID, room) -> games.put(roomID.toString(), room.server));
+		return games;
+	}
+
+	/**
+	 * Begin accepting connections from clients.
+	 */
+	public void open() {
+		// (Made here, so it gets every setting)
+		lobby = new Room(nextID.getAndIncrement(), grid, maxPlayers);
+		rooms.put(lobby.roomID, lobby);
+		switch (transport) {
+		case SELECTOR:
+			listener = new ClientSelector(GameServer.port) {
+				@Override
+				public void connected(Client client) {
+					accept(client);
+				}
+
+				@Override
+				public void receive(Client client, String message) {
+					clientMessage(client, message);
+				}
+			};
+			break;
+		default:
+			// THREAD or VIRTUAL (the collector starts each client's thread)
+			listener = new ClientCollector(GameServer.port) {
+				@Override
+				public void connected(Client client) {
+					accept(client);
+				}
+
+				@Override
+				public void receive(Client client, String message) {
+					clientMessage(client, message);
+				}
+			};
+			listener.transport = transport;
+		}
+		listener.start();
+	}
+
+	/**
+	 * A new lobby.
+	 * <br>
+	 * Call {@link #open()} to make the default room, and begin accepting connections.
+	 * @param grid Dot grid for the default room (and new rooms that don't ask for one)
+	 * @param maxPlayers Player limit for the default room (and new rooms that don't ask for one)
+	 * @param threads How many worker threads are shared by every room
+	 */
+	public GameLobby(Grid grid, Integer maxPlayers, int threads) {
+		this.grid = grid;
+		this.maxPlayers = maxPlayers;
+		workers = Executors.newFixedThreadPool(threads);
+	}
+}
@@ -4,27 +4,33 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.net.Socket;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.JPanel;
 
 /*
  * TODO:
- * allow user to re-claim boxes after disconnect if they reconnect within a certain time period
  * allow new clients to stay connected in a "waiting room" while game in progress, and notify server so they can return to lobby when the game is over
  * pressing enter in any of the main menu text fields should active the start/connect button
  */
-import coms.Client;
-import coms.ClientCollector;
+import coms.CommandTable;
+import coms.Commands;
 import coms.Server;
+import coms.Tokenizer;
+import grid.Board;
 import grid.Grid;
 import grid.GridPoint;
 
 /**
  * Main Object that manages the Dots-N-Boxes game, as well as drawing to the
  * screen.
+ * <p>
+ * A client follows the game through the messages of a remote {@link Server}.
+ * A host does exactly the same, except its messages come from a {@link GameServer}
+ * running in this process, which it plays in as player 0.
+ * </p>
  * @author Matthew Rease
  * @see GameField
  * @see ScoreBoard
@@ -33,26 +39,34 @@ public class GameManager {
 	private Integer currentPlayer;                  // playerID of the player whose turn it is, -1 if N/A
 	private Boolean gameStarted = false;            // Whether the game is running, or we're in the lobby
 	private Boolean gameFinished = false;           // Whether or not the game has been completed (somebody won/tied)
+	private Boolean leaving = false;                // Whether or not our connection is being closed on purpose
+	private long lastSeq = 0;                       // Sequence number of the last move we've seen
+	private Boolean rejoining = false;              // Whether or not we are reconnecting to a game we lost our connection to
+	private Server server;                          // (For clients only) the Server we are communicating with
+	private String token;                           // Secret the server gave us, to rejoin the game after losing our connection
 
 	// UI Objects, Data Collections, and Server Objects
+	private final Board board;                                                                           // Line and Box ownership
 	private final Chat chat;                                                                             // Chat window
+	private final CommandTable<Server> commands;                                                         // Every command the server may send us
 	private final JPanel contentPane;                                                                    // Main panel for all UI content
-	private final ConcurrentHashMap<GridPoint, Dot> dots = new ConcurrentHashMap<GridPoint, Dot>();      // Dot, Line, and Box Data
+	private final ConcurrentHashMap<GridPoint, Dot> dots = new ConcurrentHashMap<GridPoint, Dot>();      // Dot, Line, and Box Drawing Data
 	private final GameField field;                                                                       // Sub-panel for dot grid (lines + boxes too)
 	private final Grid grid;                                                                             // Grid information for Dots
-	private final ClientCollector listener;                                                              // Waits for clients to connect to server
-	private final Integer maxPlayers;                                                                    // Maximum allowed clients
+	private final GameServer host;                                                                       // (For servers only) the game we are hosting
 	private final ConcurrentHashMap<Integer, Player> players = new ConcurrentHashMap<Integer, Player>(); // Player Data
-	private final CopyOnWriteArrayList<Client> queue = new CopyOnWriteArrayList<Client>();               // Client connection queue
+	private final String remoteAddr;                                                                     // (For clients only) the server's address
 	private final ScoreBoard score;                                                                      // Sub-panel for player names, score, and color
-	private final Server server;                                                                         // (For clients only) the Server we are communicating with
-	private final CopyOnWriteArrayList<Client> spectators = new CopyOnWriteArrayList<Client>();          // Spectator clients, waiting for the next game
+	private final Standings standings = new Standings();                                                 // Highest scoring players
 	private final TextStrip text;                                                                        // Sub-panel for UI text, and buttons
+	private final Tokenizer tokens = new Tokenizer();                                                    // Takes apart each message from the server
 	private final NetDot window;                                                                         // Main window
 
 	// Constants
-	private static final int gridPadding = 20; // Field sub-panel's margin for the dots
-	private static final int textHeight = 21;  // Height of elements in the text sub-panel
+	private static final int gridPadding = 20;       // Field sub-panel's margin for the dots
+	private static final int reconnectAttempts = 5;  // How many times to try getting back into a game after losing our connection
+	private static final int reconnectDelay = 1000;  // Milliseconds to wait before each attempt
+	private static final int textHeight = 21;        // Height of elements in the text sub-panel
 
 	public Integer clientID;   // playerID for this client (0 for server, -1 for queued client, and -2 for spectator)
 	public Integer nextID = 1; // next available unique ID
@@ -61,25 +75,85 @@ public class GameManager {
 
 	// Constants
 	public static final double horizontalGamePercentage = 0.703125; // Percentage of horizontal space to dedicate to dot grid (remaining amount goes to scoreboard)
-	public static final int port = 1234;                            // Port to communicate on
-	public static final int[] version = { 2, 0 };                   // Version information
-
-	private void assign(Client client, Integer playerID) {
-		client.clientID = playerID;
-		broadcast(client, "network-assign " + playerID);
-		updateScore();
-	}
+	public static final int port = GameServer.port;                 // Port to communicate on
+	public static final int[] version = GameServer.version;         // Version information
 
 	private void close() {
-		if (isServer) {
-			listener.close();
-			for (Client client : queue)
-				client.close();
-		}
+		leaving = true;
+		if (isServer)
+			host.close();
 		if (chat.isVisible())
 			chat.setVisible(false);
 		window.setEnd();
 	}
+
+	/**
+	 * Connect to the server. (Call <code>start()</code> once it is our {@link #server}.)
+	 * @param request What to ask for once connected (<code>request-join</code>, or <code>request-rejoin</code>)
+	 * @return The connection
+	 */
+	private Server connect(String request) {
+		return new Server(remoteAddr, port) {
+			@Override
+			public void connected() {
+				broadcast("info-version " + version[0] + " " + version[1] + " binary\n" + request);
+			}
+
+			@Override
+			public void disconnected() {
+				lost(this);
+			}
+
+			@Override
+			public void receive(String message) {
+				serverMessage(message);
+			}
+		};
+	}
+
+	/**
+	 * Our connection has ended. Unless we meant it to, try to get back into the game.
+	 * @param lost The connection that ended
+	 */
+	private void lost(Server lost) {
+		// Only the current connection matters
+		if (lost != server)
+			return;
+		if (leaving || !gameStarted || token == null || clientID <= 0) {
+			if (chat.isVisible())
+				chat.setVisible(false);
+			window.setEnd();
+			return;
+		}
+		int playerID = clientID;
+		new Thread(() -> reconnect(playerID)).start();
+	}
+
+	/**
+	 * Rejoin the game we lost our connection to, as the same player, and catch up on the moves we missed.
+	 * @param playerID Our playerID in that game
+	 */
+	private void reconnect(int playerID) {
+		for (int attempt = 1; attempt <= reconnectAttempts; attempt++) {
+			System.out.println("Lost connection to the server, reconnecting (attempt " + attempt + " of " + reconnectAttempts + ")...");
+			try {
+				Thread.sleep(reconnectDelay);
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+			rejoining = true;
+			Server next = connect("request-rejoin " + playerID + " " + token + " " + lastSeq);
+			if (next.isConnected()) {
+				server = next;
+				server.start();
+				return;
+			}
+		}
+		rejoining = false;
+		leaving = true;
+		lost(server);
+	}
 	private void gameRestart() {
 		// Stop Game
 		gameStop();
@@ -104,11 +178,9 @@ public class GameManager {
 			}
 			player.reset();
 		});
+		standings.reset();
 
-		if (isServer) {
-			moveSpectators();
-		}
-
+		board.reset();
 		dots.forEach((point, dot) -> dot.reset());
 
 		update();
@@ -122,89 +194,54 @@ public class GameManager {
 	 * If the player did score points, then they are allowed to take another
 	 * turn, otherwise play goes to the next player in line.
 	 * </p>
-	 * @param gridPos The grid position of the dot that owns the clicked line
+	 * @param x The grid x coordinate of the dot that owns the clicked line
+	 * @param y The grid y coordinate of the dot that owns the clicked line
 	 * @param verticalLine <code>true</code> if the player clicked a vertical line,
 	 * <code>false</code> if they clicked a horizontal line
-	 * @return <code>true</code> if the move was successfully executed, <code>false</code>
-	 * if it was not (most likely the line was already owned by a player)
+	 * @return The result of {@link Board#play(int, int, int, boolean)}
+	 * ({@link Board#INVALID} if the game is already over, or there is no such player)
 	 */
-	private Boolean makeMove(Integer playerID, GridPoint gridPos, Boolean verticalLine) {
-		if (gameFinished || !grid.contains(gridPos))
-			return false;
+	private int makeMove(int playerID, int x, int y, boolean verticalLine) {
+		Player player = players.get(playerID);
+		if (gameFinished || player == null)
+			return Board.INVALID;
 
-		GridPoint first = verticalLine ? gridPos.left() : gridPos.up();
-		GridPoint third = verticalLine ? first.down() : first.right();
-
-		Dot uniqueDot = grid.contains(first) ? dots.get(first) : null;
-
-		Line request = verticalLine ? dots.get(gridPos).down : dots.get(gridPos).right;
-		if (!request.setOwner(playerID)) {
+		int result = board.play(playerID, x, y, verticalLine);
+		if (result == Board.INVALID) {
 			System.out.println("Invalid move! Line already taken.");
-			return false;
-		}
-
-		// Claim boxes if possible
-		Boolean scored = false;
-		if (uniqueDot != null &&
-			uniqueDot.right.getOwner() >= 0 &&
-			uniqueDot.down.getOwner() >= 0 &&
-			(verticalLine
-				? dots.get(third).right.getOwner()
-				: dots.get(third).down.getOwner()) >= 0) {
-			uniqueDot.box.setOwner(playerID);
-			players.get(playerID).add();
-			scored = true;
-		}
-		Line adjacentLine = verticalLine ? dots.get(gridPos).right : dots.get(gridPos).down;
-		if (adjacentLine != null && adjacentLine.getOwner() >= 0 &&
-			dots.get(gridPos.right()).down.getOwner() >= 0 &&
-			dots.get(gridPos.down()).right.getOwner() >= 0) {
-			dots.get(gridPos).box.setOwner(playerID);
-			players.get(playerID).add();
-			scored = true;
+			return result;
 		}
 
 		// If a box was claimed, check if the game is over, otherwise change players. (Players who made a box get another move.)
-		if (scored) {
+		if (result != Board.NO_SCORE) {
+			standings.add(player, Board.scored(result));
 			updateScore();
-			int totalScore = 0;
-			for (Player player : players.values())
-				totalScore += player.score();
-			if (totalScore == grid.maxSpaces) {
+			if ((result & Board.GAME_OVER) != 0) {
 				gameFinished = true;
-				Player[] winners = mostBoxes();
-				text.text.setText(winners.length == 1 ? (winners[0] + " wins!") : "Tie!");
+				text.text.setText(standings.toString());
 			}
 		}
 		else playerNext();
 		updateField();
-		return true;
+		return result;
 	}
 
 	/**
-	 * Get the current highest scoring player.
-	 * @return The {@link Player} with the highest score, <code>null</code> if there is a tie
-	 * between two or more players.
+	 * Catch up with a board that was restored from a snapshot (or part of one).
+	 * @param seq Sequence number of the last move in it (-1 if the server didn't send one)
 	 */
-	private Player[] mostBoxes() { // TODO utilize the fact that this tells us more than one player (say *who* the tie is between!)
-		int tempScore = 0;
-		// Find biggest box count first
-		for (Player player : players.values())
-			if (!player.disconnected() && player.score() > tempScore)
-				tempScore = player.score();
-
-		final int highscore = tempScore;
-
-		return players.values().stream().filter(player -> player.score() == highscore).toArray(Player[]::new);
-	}
-
-	private void moveSpectators() {
-		//System.out.println("Moving spectators into free slots...");
-		while ((maxPlayers == 0 || players.size() < maxPlayers) && !spectators.isEmpty()) {
-			Client client = spectators.get(0);
-			spectators.remove(client);
-			playerAdd(client);
-		}
+	private void restored(long seq) {
+		if (seq >= 0)
+			lastSeq = seq;
+		players.values().forEach(Player::reset);
+		standings.reset();
+		grid.forEach(pnt -> {
+			int owner = board.getBox(pnt.x, pnt.y);
+			if (players.containsKey(owner))
+				standings.add(players.get(owner), 1);
+		});
+		updateField();
+		updateScore();
 	}
 
 	private void updateText() {
@@ -246,308 +283,35 @@ public class GameManager {
 		//score.repaint();
 	}
 
-	public void broadcast(Client client, String messages) {
-		String prefix = "--> " + playerName(client.clientID) + ": ";
-		for (String message : messages.split("\n"))
-			window.network(prefix + client.send(message));
-	}
-
+	/**
+	 * Send commands to the server.
+	 * <br>
+	 * A host hands them straight to its {@link GameServer}, as player 0.
+	 * @param messages The commands, one per line
+	 */
 	public void broadcast(String messages) {
-		if (isServer) {
-			players.forEach((playerID, player) -> {
-				if (playerID > 0)
-					broadcast(player.getClient(), messages);
-			});
-			spectators.forEach(client -> broadcast(client, messages));
-		}
+		if (isServer)
+			host.clientMessage(null, messages);
 		else {
-			String prefix = "--> server: ";
-			for (String message : messages.split("\n"))
-				window.network(prefix + server.send(message));
+			for (String message : messages.split("\n")) {
+				server.send(message);
+				if (window.isLogging())
+					window.network("--> server: " + message);
+			}
 		}
 	}
 
 	public void clear() { // TODO anything else we should clear?
 		contentPane.removeAll();
-		if (isServer)
-			listener.close();
-	}
-	public void clientMessage(Client client, String messages) {
-		String prefix = "<-- " + (client == null ? "self" : playerName(client.clientID)) + ": ";
-		for (String message : messages.split("\n")) {
-			window.network(prefix + message);
-			/*
-			 * ID meanings
-			 *  0: server
-			 * -1: queued client
-			 * -2: spectator
-			 * >0: player
-			 */
-			int id = client == null ? 0 : client.clientID;
-
-			Player player = id >= 0 ? players.get(id) : null;
-
-			// Convenient for Message Parsing
-			String[] words = message.split(" ");
-			String[] command = words[0].split("-");
-
-			if (command.length < 2) {
-				if (id != 0)
-					broadcast(client, "info-malformed " + command[0] + " was not followed by a hyphen!");
-				return;
-			}
-
-			switch (command[0]) {
-			// player- commands
-			case "player":
-				if (client == null || client.isValidated()) {
-					if (id >= 0) {
-						switch (command[1]) {
-						case "rename":
-							String name = message.substring(words[0].length() + 1);
-							broadcast("player-rename " + id + " " + name);
-							playerRename(player, name);
-							break;
-						case "color":
-							Integer RGB;
-							try {
-								RGB = Integer.parseInt(words[1]);
-							}
-							catch (Exception e) {
-								broadcast(client, "info-malformed Could not parse RGB color!");
-								break;
-							}
-							broadcast("player-color " + id + " " + words[1]);
-							playerColor(player, new Color(RGB));
-							break;
-						default:
-							broadcast(client, "unknown-player");
-						}
-					}
-					else broadcast(client, "info-warn You aren't a player yet!");
-				}
-				else broadcast(client, "info-warn Server has not validated you yet!\nrequest-info");
-				break;
-			// network- commands
-			case "network":
-				switch (command[1]) {
-				case "disconnect":
-					broadcast(client, "network-disconnect");
-					// Inform Other Clients and Update Server (us)
-					if (id < 0) {
-						if (queue.contains(client))
-							queue.remove(client);
-						if (spectators.contains(client))
-							spectators.remove(client);
-					}
-					else {
-						broadcast("player-remove " + id);
-						playerRemove(id);
-						moveSpectators();
-					}
-					//client.close();
-					break;
-				case "chat":
-					message = message.substring(words[0].length());
-					broadcast("network-chat " + id + message);
-					chat.receive(playerName(id) + ":" + message);
-					if (!chat.isVisible())
-						text.chat.setText("New Msg");
-					break;
-				default:
-					broadcast(client, "unknown-network");
-				}
-				break;
-			// game- commands
-			case "game":
-				if (client == null || client.isValidated()) {
-					switch (command[1]) {
-					case "play":
-						if (id == currentPlayer) {
-							GridPoint point;
-							try {
-								point = GridPoint.parsePoint(words[1]);
-							}
-							catch (Exception e) {
-								broadcast(client, "info-malformed Could not parse GridPoint!");
-								break;
-							}
-							Boolean vertical = words[2].equals("ver");
-							if (!vertical && !words[2].equals("hor")) {
-								broadcast(client, "info-malformed Could not parse line direction!");
-								break;
-							}
-							if (makeMove(id, point, vertical))
-								broadcast("game-play " + id + " " + point + " " + (vertical ? "ver" : "hor"));
-							else if (client != null)
-								broadcast(client, "info-warn Invalid move!");
-						}
-						else broadcast(client, "info-warn " + (id >= 0 ? "Not your turn!" : "You aren't part of this game!"));
-						break;
-					default:
-						broadcast(client, "unknown-game");
-					}
-				}
-				else broadcast(client, "info-warn Server has not validated you yet!\nrequest-info");
-				break;
-			// request- commands
-			case "request":
-				if (client == null || client.isValidated()) {
-					switch (command[1]) {
-					case "start":
-					case "restart":
-						broadcast("network-chat -3 " + chat.receive(playerName(id) + " wants to " + command[1] + " the game."));
-						if (!chat.isVisible())
-							text.chat.setText("New Msg");
-						break;
-					case "stop":
-						broadcast("network-chat -3 " + chat.receive(playerName(id) + " wants to return to the lobby."));
-						if (!chat.isVisible())
-							text.chat.setText("New Msg");
-						break;
-					case "join":
-						// If the client isn't in the queue, they must already be a player
-						if (queue.contains(client)) {
-							// If we're in the lobby, they can join, otherwise they can spectate or leave
-							if (!gameStarted) {
-								if (maxPlayers == 0 || players.size() != maxPlayers) {
-									// Send full game data
-									players.forEach((playerID, plyr) -> {
-										broadcast(client, "player-add " + playerID + " " + plyr);
-										if (plyr.getColor() != null)
-											broadcast(client, "player-color " + playerID + " " + plyr.getColor().getRGB());
-									});
-									broadcast(client,
-										"grid-size " + grid + "\n" +
-										"grid-reset");
-									playerAdd(client);
-									queue.remove(client);
-								}
-								else broadcast(client, "request-deny Server full! (" + players.size() + "/" + maxPlayers + " players) - feel free to spectate\nnetwork-full");
-							}
-							else broadcast(client, "request-deny Server is in the middle of a game, feel free to spectate.\nnetwork-busy");
-						}
-						else broadcast(client, "request-deny Already joined.");
-						break;
-					case "spectate":
-						if (queue.contains(client)) {
-							if (gameStarted || maxPlayers == players.size()) {
-								assign(client, -2);
-								// Send full game data
-								players.forEach((playerID, plyr) -> {
-									broadcast(client, "player-add " + playerID + " " + plyr);
-									if (plyr.getColor() != null)
-										broadcast(client, "player-color " + playerID + " " + plyr.getColor().getRGB());
-								});
-								broadcast(client, "grid-size " + grid + "\ngrid-reset");
-								spectators.add(client);
-								queue.remove(client);
-								if (gameStarted)
-									broadcast(client, "game-start");
-								players.forEach((playerID, plyr) -> {
-									if (plyr.disconnected())
-										broadcast(client, "player-remove " + playerID);
-								});
-								broadcast(client, "game-current " + currentPlayer);
-								dots.forEach((point, dot) -> {
-									dot.forEach(line -> {
-										if (line.getOwner() >= 0)
-											broadcast(client, "player-line " + line.getOwner() + " " + line + " " + point);
-									});
-									if (dot.box != null && dot.box.getOwner() >= 0)
-										broadcast(client, "player-box " + dot.box.getOwner() + " " + point);
-								});
-							}
-							else broadcast(client, "request-deny There isn't a game running right now, feel free to join the lobby!");
-						}
-						else broadcast(client, "request-deny Already joined.");
-						break;
-					default:
-						broadcast(client, "unknown-request");
-					}
-				}
-				else broadcast(client, "request-deny Server has not validated you yet!\nrequest-info");
-				break;
-			// info- commands
-			case "info":
-				switch (command[1]) {
-				case "version":
-					if (!client.isValidated()) {
-						final int[] version = new int[2];
-						try {
-							version[0] = Integer.parseInt(words[1]);
-							version[1] = Integer.parseInt(words[2]);
-						}
-						catch (Exception e) {
-							broadcast(client, "bad-syntax Could not parse version numbers!");
-							return;
-						}
-						System.out.println("Client is running version " + version[0] + "." + version[1]);
-						if (version[0] != GameManager.version[0]) {
-							System.out.println("Client version is incompatible with server version (" + GameManager.version[0] + "." + GameManager.version[1] + ")!");
-							queue.remove(client);
-							client.close();
-						}
-						else client.validate();
-					}
-					else broadcast(client, "info-warn Server has already received your version info.");
-					break;
-				case "malformed":
-					System.out.println("The client reported a malformed command...");
-					break;
-				default:
-					broadcast(client, "unknown-info");
-				}
-				break;
-			// unknown- commands
-			case "unknown":
-				switch (command[1]) {
-				case "":
-					System.out.println("Client did not recognize command group!");
-					break;
-				default:
-					System.out.println("Client did not recognize " + command[1] + " directive!");
-				}
-				break;
-			default:
-				broadcast(client, "unknown-");
-			}
-		} //else System.out.println("Client called GameServer#clientMessage(Client, String)!");
-	}
-
-	public void playerAdd(Client client) {
-		int playerID = 0;
-		do {
-			playerID = nextID;
-			nextID++;
-		}
-		while (players.containsKey(playerID));
-		assign(client, playerID);
-		Player player = playerAdd(playerID, "Client " + playerID, client);
-		broadcast("player-add " + playerID + " " + player);
-		window.setCurrent(players.size());
 	}
 
-	public Player playerAdd(Integer playerID, String name, Client client) {
-		Player player = new Player(name, client);
+	public Player playerAdd(Integer playerID, String name) {
+		Player player = new Player(name);
 		players.put(playerID, player);
 		updateScore();
 		return player;
 	}
 
-	public void playerColor(Player player, Color color) {
-		player.setColor(color);
-		update();
-	}
-
-	public void playerConnected(Client client) { // TODO handshake?
-		// Add them to the queue
-		queue.addIfAbsent(client);
-
-		// Send Server Info
-		broadcast(client, "info-version " + version[0] + " " + version[1]);
-	}
-
 	public String playerName(Integer playerID) {
 		return clientID == playerID
 			? "You"
@@ -559,6 +323,9 @@ public class GameManager {
 	}
 
 	public void playerNext() {
+		// Nobody left to take a turn
+		if (players.values().stream().allMatch(Player::disconnected))
+			return;
 		do {
 			currentPlayer++;
 			if (currentPlayer >= nextID)
@@ -578,6 +345,7 @@ public class GameManager {
 		}
 		if (gameStarted) {
 			player.disconnect();
+			standings.recount(players.values());
 			if (playerID == currentPlayer)
 				playerNext();
 			updateField();
@@ -596,14 +364,10 @@ public class GameManager {
 	public void playerRename(Player player, String newName) {
 		player.setName(newName);
 		if (gameStarted) {
-			if (players.get(currentPlayer) == player) {
-				Player[] winners = mostBoxes();
-				text.text.setText(gameFinished
-					? (winners.length == 1 && winners[0] == player)
-						? player + " wins!"
-						: "Tie!"
-					: "Your move, " + player);
-			}
+			if (gameFinished)
+				text.text.setText(standings.toString());
+			else if (players.get(currentPlayer) == player)
+				text.text.setText("Your move, " + player);
 			updateField();
 		}
 		updateText();
@@ -611,265 +375,11 @@ public class GameManager {
 	}
 
 	public void serverMessage(String message) {
-		String prefix = "<-- server: ";
-		window.network(prefix + message);
-
-		String[] words = message.split(" ");
-		String[] command = words[0].split("-");
+		// A host's traffic is already logged by its GameServer
+		if (!isServer && window.isLogging())
+			window.network("<-- server: " + message);
 
-		Integer playerID;
-		Boolean vertical;
-		GridPoint point;
-
-		switch (command[0]) {
-		case "player":
-			try {
-				playerID = Integer.parseInt(words[1]);
-			}
-			catch (Exception e) {
-				broadcast("info-malformed Could not parse playerID");
-				break;
-			}
-			switch (command[1]) {
-			case "add":
-				playerAdd(playerID, message.substring(words[0].length() + words[1].length() + 2), null);
-				if (playerID >= nextID)
-					nextID = playerID + 1;
-				break;
-			case "rename":
-				// Don't rename ourselves (that already should have happened)
-				if (playerID != clientID) {
-					playerRename(players.get(playerID), message.substring(words[0].length() + words[1].length() + 2));
-					updateText();
-					updateScore();
-				}
-				break;
-			case "color":
-				Integer RGB;
-				try {
-					RGB = Integer.parseInt(words[2]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse RGB color!");
-					break;
-				}
-				players.get(playerID).setColor(new Color(RGB));
-				update();
-				break;
-			case "remove":
-				// If the server has disconnected us (or itself!) return to the menu
-				if (playerID == clientID || playerID == 0)
-					server.disconnected();
-				playerRemove(playerID);
-				update();
-				break;
-			case "line":
-				vertical = words[2].equals("ver");
-				if (!vertical && !words[2].equals("hor")) {
-					broadcast("info-malformed Could not parse line direction!");
-					break;
-				}
-				try {
-					point = GridPoint.parsePoint(words[3]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse GridPoint!");
-					break;
-				}
-				Dot dot = dots.get(point);
-				(vertical ? dot.down : dot.right).setOwner(playerID);
-				updateField();
-				break;
-			case "box":
-				try {
-					point = GridPoint.parsePoint(words[2]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse GridPoint!");
-					break;
-				}
-				players.get(playerID).add();
-				dots.get(point).box.setOwner(playerID);
-				updateScore();
-				break;
-			default:
-				broadcast("unknown-player");
-			}
-			break;
-		case "grid":
-			switch (command[1]) {
-			case "size":
-				Grid newGrid;
-				try {
-					newGrid = Grid.parseGrid(words[1]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse grid dimensions!");
-					break;
-				}
-				grid.resize(newGrid);
-				// Remove old dots (if board shrunk)
-				dots.forEach((pnt, dot) -> {
-					if (!grid.contains(pnt))
-						dots.remove(pnt);
-				});
-				// Add new dots (if board expanded)
-				for (GridPoint pnt : grid.newArray())
-					if (!dots.containsKey(pnt))
-						dots.put(pnt, new Dot(pnt, grid, players));
-				break;
-			case "reset":
-				grid.forEach(pnt -> dots.get(pnt).reset());
-				updateField();
-				break;
-			default:
-				broadcast("unknown-grid");
-			}
-			break;
-		case "network":
-			switch (command[1]) {
-			case "assign":
-				try {
-					playerID = Integer.parseInt(words[1]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse clientID!");
-					break;
-				}
-				clientID = playerID;
-				switch (clientID) {
-				case -2:
-					System.out.println("Assigned to spectator mode.");
-					break;
-				case -1:
-					System.out.println("Placed in queue, waiting for further instructions from the server...");
-					break;
-				default:
-					System.out.println("Joining game with player ID " + clientID);
-				}
-				break;
-			case "busy":
-				System.out.println("The server is already in the middle of a game. Asking to spectate.");
-				broadcast("request-spectate");
-				break;
-			case "chat":
-				try {
-					playerID = Integer.parseInt(words[1]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse playerID!");
-					break;
-				}
-				chat.receive((playerID > -3 ? playerName(playerID) + ": " : "") + message.substring(words[0].length() + words[1].length() + 2));
-				if (!chat.isVisible())
-					text.chat.setText("New Msg");
-				break;
-			case "disconnect":
-				server.close();
-				break;
-			case "full":
-				System.out.println("The server is full! Asking to spectate.");
-				broadcast("request-spectate");
-				break;
-			default:
-				broadcast("unknown-network");
-			}
-			break;
-		case "game":
-			switch (command[1]) {
-			case "start":
-			case "restart":
-				gameRestart();
-				break;
-			case "play":
-				try {
-					playerID = Integer.parseInt(words[1]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse playerID!");
-					break;
-				}
-				try {
-					point = GridPoint.parsePoint(words[2]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse GridPoint!");
-					break;
-				}
-				vertical = words[3].equals("ver");
-				if (!vertical && !words[3].equals("hor")) {
-					broadcast("info-malformed Could not parse line direction!");
-					break;
-				}
-				makeMove(playerID, point, vertical);
-				break;
-			case "stop":
-				gameStop();
-				break;
-			case "current":
-				try {
-					playerID = Integer.parseInt(words[1]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse current player!");
-					break;
-				}
-				currentPlayer = playerID;
-				updateText();
-				break;
-			default:
-				broadcast("unknown-game");
-			}
-			break;
-		case "info":
-			switch (command[1]) {
-			case "warn":
-				System.out.println("Received warning: " + message.substring(words[0].length()));
-				break;
-			case "malformed":
-				System.out.println("Whatever you just did sent a pretty bad request to the server, please report this error!");
-				break;
-			case "version":
-				int[] version = new int[2];
-				try {
-					version[0] = Integer.parseInt(words[1]);
-					version[1] = Integer.parseInt(words[2]);
-				}
-				catch (Exception e) {
-					broadcast("info-malformed Could not parse version numbers!");
-				}
-				System.out.println("Server is running version " + version[0] + "." + version[1]);
-				if (version[0] != GameManager.version[0]) {
-					System.out.println("Server version is incompatible with client version (" + GameManager.version[0] + "." + GameManager.version[1] + ")!");
-					//serverOut.close();
-				}
-				break;
-			default:
-				broadcast("unknown-info");
-			}
-			break;
-		case "request":
-			switch (command[1]) {
-			case "deny":
-				System.out.println("Server denied request with reason: " + message.substring(words[0].length() + 1));
-				break;
-			case "info":
-				broadcast("info-version " + version[0] + " " + version[1]);
-				break;
-			}
-			break;
-		case "unknown":
-			switch (command[1]) {
-			case "":
-				System.out.println("Server did not recognize command group!");
-				break;
-			default:
-				System.out.println("Server did not recognize " + command[1] + " directive!");
-			}
-			break;
-		default:
-			broadcast("unknown-");
-		}
+		commands.dispatch(server, tokens.reset(message));
 	}
 
 	public void update() {
@@ -895,14 +405,15 @@ public class GameManager {
 		this.window = window;         // Save window
 		contentPane = panel;          // Save Content Panel (Main Display)
 		this.isServer = isServer;     // Server or Client
-		this.maxPlayers = maxPlayers; // Set client limit
+		this.remoteAddr = remoteAddr; // Server's address (clients only)
 
 		// Setup Text Display Panel
 		text = new TextStrip(textHeight);
 		text.quit.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseClicked(MouseEvent e) {
-				broadcast("network-disconnect");
+				if (!isServer)
+					broadcast("network-disconnect");
 				close();
 			}
 		});
@@ -922,11 +433,7 @@ public class GameManager {
 				if (gameStarted) {
 					if (!gameFinished) {
 						if (clientID == currentPlayer) {
-							String message = "game-play " + point + " " + line;
-							if (isServer)
-								clientMessage(null, message);
-							else
-								broadcast(message);
+							broadcast("game-play " + point + " " + line);
 						}
 						else System.out.println("It's not your turn.");
 					}
@@ -942,18 +449,14 @@ public class GameManager {
 			@Override
 			public void rename(Player player, String name) {
 				playerRename(player, name);
-				broadcast("player-rename " + (isServer ? "0 " : "") + name);
+				broadcast("player-rename " + name);
 			}
 
 			@Override
 			public void setColor(Color color) {
 				players.get(clientID).setColor(color);
 				update();
-				String message = "player-color " + color.getRGB();
-				if (isServer)
-					clientMessage(null, message);
-				else
-					broadcast(message);
+				broadcast("player-color " + color.getRGB());
 			}
 		};
 		score.setLayout(null);
@@ -961,6 +464,7 @@ public class GameManager {
 
 		// Setup Grid, Initialize Player Data, and Initialize Dot Grid Data
 		this.grid = grid;
+		board = new Board(grid);
 
 		// Initialize program state before making/accepting connections!
 		gameStop();
@@ -969,55 +473,218 @@ public class GameManager {
 		chat = new Chat() {
 			@Override
 			public void send(String message) {
-				String command = "network-chat " + (message.indexOf("\n") == -1 ? message : message.substring(0, message.indexOf("\n")));
-				if (isServer)
-					clientMessage(null, command);
-				else
-					broadcast(command);
+				broadcast("network-chat " + (message.indexOf("\n") == -1 ? message : message.substring(0, message.indexOf("\n"))));
 			}
 		};
 		chat.setVisible(false);
 
-		if (isServer) {
-			listener = new ClientCollector(port) {
-				@Override
-				public void connected(Socket sock) {
-					Client client = new Client(sock) {
-						@Override
-						public void receive(String message) {
-							clientMessage(this, message);
-						}
-					};
-					assign(client, -1);
-					client.disconnect = "network-disconnect";
-					client.start();
-					playerConnected(client);
+		// Every command the server may send us
+		commands = new CommandTable<Server>() {
+			@Override
+			public void malformed(Server from, Tokenizer command, String problem) {
+				broadcast("info-malformed " + problem);
+			}
+
+			@Override
+			public void unknown(Server from, Tokenizer command) {
+				if (command.group().equals("unknown"))
+					System.out.println(command.verb() == null ? "Server did not recognize command group!" : "Server did not recognize " + command.verb() + " directive!");
+				else if (command.verb() == null)
+					broadcast("info-malformed " + command.group() + " was not followed by a hyphen!");
+				else switch (command.group()) {
+				case "game":
+				case "grid":
+				case "info":
+				case "network":
+				case "player":
+					broadcast("unknown-" + command.group());
+					break;
+				case "request":
+					break;
+				default:
+					broadcast("unknown-");
 				}
-			};
-			listener.start();
-			server = null;
-		}
-		else {
-			server = new Server(remoteAddr, port) {
+			}
+		};
+		commands.on("game-current", null, Commands.Id::decode, (from, current) -> {
+			currentPlayer = current.id();
+			updateText();
+		});
+		commands.on("game-play", null, Commands.Played::decode, (from, play) -> {
+			makeMove(play.player(), play.x(), play.y(), play.vertical());
+			if (play.seq() >= 0)
+				lastSeq = play.seq();
+		});
+		commands.on("game-restart", null, from -> gameRestart());
+		commands.on("game-start", null, from -> gameRestart());
+		commands.on("game-stop", null, from -> gameStop());
+		commands.on("grid-reset", null, from -> {
+			board.reset();
+			grid.forEach(pnt -> dots.get(pnt).reset());
+			updateField();
+		});
+		commands.on("grid-size", null, Commands.Size::decode, (from, size) -> {
+			grid.resize(size.width(), size.height());
+			board.resize();
+			// Replace the dots (edge dots don't have every line/box)
+			dots.clear();
+			for (GridPoint pnt : grid.newArray())
+				dots.put(pnt, new Dot(pnt, board, players));
+		});
+		// Part of every line and box (for a board too large for one grid-snapshot)
+		commands.on("grid-part", null, Commands.Part::decode, (from, part) -> {
+			try {
+				board.restore(part.start(), part.runs());
+			}
+			catch (Exception e) {
+				broadcast("info-malformed Could not parse grid snapshot!");
+				return;
+			}
+			restored(part.seq());
+		});
+		// Every line and box at once (sent to spectators joining mid-game)
+		commands.on("grid-snapshot", null, Commands.Snapshot::decode, (from, snapshot) -> {
+			try {
+				board.restore(snapshot.board());
+			}
+			catch (Exception e) {
+				broadcast("info-malformed Could not parse grid snapshot!");
+				return;
+			}
+			restored(snapshot.seq());
+		});
+		// The server accepted binary frames, and will only send frames from now on, so we do the same
+		commands.on("info-binary", null, from -> {
+			if (!isServer)
+				server.upgrade();
+		});
+		commands.on("info-malformed", null, from -> System.out.println("Whatever you just did sent a pretty bad request to the server, please report this error!"));
+		commands.on("info-version", null, Commands.Version::decode, (from, version) -> {
+			System.out.println("Server is running version " + version.major() + "." + version.minor());
+			if (version.major() != GameManager.version[0])
+				System.out.println("Server version is incompatible with client version (" + GameManager.version[0] + "." + GameManager.version[1] + ")!");
+		});
+		commands.on("info-warn", null, Commands.Text::decode, (from, warning) -> System.out.println("Received warning: " + warning.text()));
+		commands.on("network-assign", null, Commands.Id::decode, (from, assign) -> {
+			clientID = assign.id();
+			switch (clientID) {
+			case -2:
+				System.out.println("Assigned to spectator mode.");
+				break;
+			case -1:
+				System.out.println("Placed in queue, waiting for further instructions from the server...");
+				break;
+			default:
+				System.out.println("Joining game with player ID " + clientID);
+			}
+		});
+		commands.on("network-busy", null, from -> {
+			System.out.println("The server is already in the middle of a game. Asking to spectate.");
+			broadcast("request-spectate");
+		});
+		commands.on("network-chat", null, Commands.Said::decode, (from, said) -> {
+			chat.receive((said.player() > -3 ? playerName(said.player()) + ": " : "") + said.text());
+			if (!chat.isVisible())
+				text.chat.setText("New Msg");
+		});
+		commands.on("network-disconnect", null, from -> {
+			if (!isServer) {
+				leaving = true;
+				server.close();
+			}
+		});
+		commands.on("network-full", null, from -> {
+			System.out.println("The server is full! Asking to spectate.");
+			broadcast("request-spectate");
+		});
+		commands.on("player-add", null, Commands.Named::decode, (from, add) -> {
+			playerAdd(add.player(), add.name());
+			if (add.player() >= nextID)
+				nextID = add.player() + 1;
+		});
+		commands.on("player-box", null, Commands.Claimed::decode, (from, box) -> {
+			if (players.containsKey(box.player()) && board.claimBox(box.x(), box.y(), box.player()))
+				standings.add(players.get(box.player()), 1);
+			updateScore();
+		});
+		commands.on("player-color", null, Commands.Colored::decode, (from, color) -> {
+			players.get(color.player()).setColor(new Color(color.rgb()));
+			update();
+		});
+		commands.on("player-line", null, Commands.Line::decode, (from, line) -> {
+			if (players.containsKey(line.player()))
+				board.claimLine(line.x(), line.y(), line.vertical(), line.player());
+			updateField();
+		});
+		// A player is back, after losing their connection (maybe us)
+		commands.on("player-rejoin", null, Commands.Id::decode, (from, rejoin) -> {
+			if (rejoin.id() == clientID)
+				rejoining = false;
+			if (players.containsKey(rejoin.id()))
+				players.get(rejoin.id()).reconnect(null);
+			standings.recount(players.values());
+			update();
+		});
+		commands.on("player-remove", null, Commands.Id::decode, (from, remove) -> {
+			// If the server has disconnected us (or itself!) return to the menu
+			if (!isServer && (remove.id() == clientID || remove.id() == 0)) {
+				leaving = true;
+				server.disconnected();
+			}
+			playerRemove(remove.id());
+			update();
+		});
+		commands.on("player-rename", null, Commands.Named::decode, (from, rename) -> {
+			// Don't rename ourselves (that already should have happened)
+			if (rename.player() != clientID) {
+				playerRename(players.get(rename.player()), rename.name());
+				updateText();
+				updateScore();
+			}
+		});
+		commands.on("player-token", null, Commands.Token::decode, (from, token) -> {
+			if (token.player() == clientID)
+				this.token = token.token();
+		});
+		commands.on("request-deny", null, Commands.Text::decode, (from, deny) -> {
+			System.out.println("Server denied request with reason: " + deny.text());
+			// Couldn't get back into our game, so give up on it
+			if (rejoining) {
+				rejoining = false;
+				leaving = true;
+				server.close();
+			}
+		});
+		commands.on("request-info", null, from -> broadcast("info-version " + version[0] + " " + version[1] + " binary"));
+
+		if (isServer) {
+			host = new GameServer(new Grid(grid.width, grid.height), maxPlayers, false) {
 				@Override
-				public void connected() {
-					broadcast("info-version " + version[0] + " " + version[1] + "\nrequest-join");
+				public boolean isLogging() {
+					return window.isLogging();
 				}
 
 				@Override
-				public void disconnected() {
-					if (chat.isVisible())
-						chat.setVisible(false);
-					window.setEnd();
+				public void network(String message) {
+					window.network(message);
 				}
 
 				@Override
 				public void receive(String message) {
 					serverMessage(message);
 				}
+
+				@Override
+				public void setCurrent(Integer current) {
+					window.setCurrent(current);
+				}
 			};
+			server = null;
+		}
+		else {
+			server = connect("request-join");
 			server.start();
-			listener = null;
+			host = null;
 		}
 	}
 	public GameManager(NetDot window, JPanel panel, Dimension size, Integer maxPlayers) {
@@ -1028,22 +695,32 @@ public class GameManager {
 		// Setup Text Display Panel
 		text.reset.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				broadcast("game-" + (gameStarted ? "restart" : "start"));
-				gameRestart();
+				host.mailbox.deliver(host::restart);
 			}
 		});
 		text.lobby.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				broadcast("game-stop");
-				gameStop();
+				host.mailbox.deliver(host::stop);
 			}
 		});
 
 		serverMessage("grid-size " + grid);
 		serverMessage("grid-reset");
 
-		playerAdd(0, "Server", null);
+		host.playerAdd(0, "Server", null);
+		playerAdd(0, "Server");
 		window.setCurrent(1);
+		// Recover the last hosted game, if it was journaled
+		if (System.getProperty("netdot.journal") != null) {
+			try {
+				host.journal(Path.of(System.getProperty("netdot.journal")));
+			}
+			catch (IOException e) {
+				System.out.println("Unable to open the journal!");
+				System.out.println(e);
+			}
+		}
+		host.open();
 
 		updateText();
 		updateField();
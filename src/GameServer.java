@@ -0,0 +1,1214 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import coms.Client;
+import coms.ClientCollector;
+import coms.ClientSelector;
+import coms.CommandTable;
+import coms.Commands;
+import coms.Packet;
+import coms.Protocol;
+import coms.SlowConsumer;
+import coms.Tokenizer;
+import coms.Transport;
+import grid.Board;
+import grid.Grid;
+
+/**
+ * The authoritative side of a Dots-N-Boxes game.
+ * <p>
+ * Owns the player, queue, and spectator state, and answers every command sent
+ * by a {@link Client}. Nothing in here touches AWT or Swing, so it can either be
+ * hosted by a {@link GameManager} (which then acts as player 0), or run on its
+ * own as a dedicated server with {@link #main(String[])}.
+ * </p>
+ * <p>
+ * Every change to the game is made by its {@link #mailbox}, one command at a
+ * time, so no two commands can ever interleave. {@link #clientMessage(Client, String)}
+ * and {@link #close()} may be called from any thread (they queue their work),
+ * everything else must run on the mailbox (or before {@link #open()}).
+ * </p>
+ * @see GameManager
+ * @see Mailbox
+ * @see ClientCollector
+ */
+public class GameServer {
+	private Integer currentPlayer = -1;   // playerID of the player whose turn it is, -1 if N/A
+	private Boolean gameStarted = false;  // Whether the game is running, or we're in the lobby
+	private Boolean gameFinished = false; // Whether or not the game has been completed (somebody won/tied)
+	private Journal journal;              // Records every change to the game, to recover from a crash (null if not journaling)
+	private ClientCollector listener;     // Waits for clients to connect to server
+	private Replay replay;                // Replay of the game in progress (null if not archiving, or nothing to archive)
+	private Integer nextID = 1;           // next available unique ID
+
+	// Data Collections
+	private final Board board;                                                                           // Line and Box ownership
+	private final Histogram broadcasts = new Histogram();                                                // Time taken by each broadcast, to queue it for every client
+	private final CommandTable<Client> commands;                                                         // Every command clients may send, and who may send it
+	private final Grid grid;                                                                             // Grid information for the board
+	private final LinkedHashSet<Client> lagging = new LinkedHashSet<Client>();                           // Clients that missed messages this tick, resynced before flushing
+	private final MoveLog log = new MoveLog();                                                           // Recent moves, for clients that rejoin
+	private final Integer maxPlayers;                                                                    // Maximum allowed clients (0 for no limit)
+	private final Histogram moves = new Histogram();                                                     // Time taken by each move, from checking it to queuing it for every client
+	private final LinkedHashSet<Client> outgoing = new LinkedHashSet<Client>();                          // Clients with queued messages, flushed every tick
+	private final ConcurrentHashMap<Integer, Player> players = new ConcurrentHashMap<Integer, Player>(); // Player Data
+	private final CopyOnWriteArrayList<Client> queue = new CopyOnWriteArrayList<Client>();               // Client connection queue
+	private final long[] sent = new long[Protocol.commands.length];                                      // Messages queued for clients, by opcode (once for each client)
+	private final CopyOnWriteArrayList<Client> spectators = new CopyOnWriteArrayList<Client>();          // Spectator clients, waiting for the next game
+	private final Standings standings = new Standings();                                                 // Highest scoring players
+	private final Tokenizer tokens = new Tokenizer();                                                    // Takes apart each command (only on the mailbox)
+
+	public final Boolean dedicated; // Whether or not there is no hosting player (so player requests are honored directly)
+	public final Mailbox mailbox;   // Runs every command for this game, one at a time
+
+	public Transport transport = Transport.THREAD;          // How client connections are served (set before open())
+	public Path replays;                                     // Directory to archive a replay of every finished game in (null to not)
+	public SlowConsumer slowConsumers = SlowConsumer.RESYNC; // What to do with clients that can't keep up (set before open())
+
+	// Constants
+	public static final int port = 1234;          // Port to communicate on
+	public static final int[] version = { 2, 5 }; // Version information (2.1 added binary frames, 2.2 added rooms, 2.3 added grid-snapshot, 2.4 added rejoining, 2.5 added grid-part)
+	public static final int mailboxCapacity = 1024;              // Most client commands that may wait for the game, before a client is cut off for flooding
+	public static final int maxDelta = 256;                      // Most missed moves replayed to a rejoining client (past this, a snapshot is smaller)
+	public static final int maxSnapshot = Protocol.maxFrame / 2; // Longest grid-snapshot sent in one message (past this, it is sent in grid-parts)
+
+	private static final String[] journaled = { "game-play", "game-restart", "game-start", "game-stop", "player-add", "player-color", "player-remove", "player-rename", "player-token" }; // Commands that change the game
+
+	private static final SecureRandom random = new SecureRandom(); // Generates rejoin tokens
+
+	private void assign(Client client, Integer playerID) {
+		client.clientID = playerID;
+		broadcast(client, "network-assign " + playerID);
+	}
+
+	private void gameRestart() {
+		// Stop Game
+		gameStop();
+
+		// Start Game
+		gameStarted = true;
+		gameFinished = false;
+		currentPlayer = 0;
+		if (replays != null) {
+			try {
+				// (A unique name, even with many rooms archiving to the same directory)
+				replay = new Replay(Files.createTempFile(replays, "game-" + System.currentTimeMillis() + "-", ".replay"), grid, players);
+			}
+			catch (IOException e) {
+				System.out.println("Unable to start a replay!");
+				System.out.println(e);
+			}
+		}
+
+		// Without a hosting player, play starts with the first connected player
+		if (!players.containsKey(currentPlayer)) {
+			playerNext();
+			broadcast("game-current " + currentPlayer);
+		}
+	}
+
+	private void gameStop() {
+		abandonReplay();
+		gameStarted = false;
+		gameFinished = false;
+		currentPlayer = -1;
+
+		players.forEach((playerID, player) -> {
+			if (player.disconnected()) {
+				players.remove(playerID);
+				return;
+			}
+			player.reset();
+		});
+		standings.reset();
+
+		moveSpectators();
+
+		board.reset();
+		log.clear();
+	}
+
+	/**
+	 * Attempts a move by the current player.
+	 * <p>
+	 * Same rules as {@link GameManager}: if the player claimed any boxes they
+	 * get another turn, otherwise play goes to the next player in line.
+	 * </p>
+	 * @param playerID The player making the move
+	 * @param x The grid x coordinate of the dot that owns the line
+	 * @param y The grid y coordinate of the dot that owns the line
+	 * @param verticalLine <code>true</code> for the line below the dot, <code>false</code> for the line to its right
+	 * @return The result of {@link Board#play(int, int, int, boolean)}
+	 * ({@link Board#INVALID} if the game is already over)
+	 */
+	private int makeMove(int playerID, int x, int y, boolean verticalLine) {
+		if (gameFinished)
+			return Board.INVALID;
+
+		int result = board.play(playerID, x, y, verticalLine);
+		if (result == Board.INVALID)
+			return result;
+		log.add(playerID, x, y, verticalLine);
+		if (replay != null)
+			archive(playerID, x, y, verticalLine, result);
+
+		// If a box was claimed, check if the game is over, otherwise change players. (Players who made a box get another move.)
+		if (result != Board.NO_SCORE) {
+			standings.add(players.get(playerID), Board.scored(result));
+			if ((result & Board.GAME_OVER) != 0) {
+				gameFinished = true;
+				System.out.println(standings);
+			}
+		}
+		else playerNext();
+		return result;
+	}
+
+	// Only finished games are archived
+	private void abandonReplay() {
+		if (replay == null)
+			return;
+		try {
+			replay.close();
+			Files.deleteIfExists(replay.getFile());
+		}
+		catch (IOException e) { }
+		replay = null;
+	}
+
+	private void archive(int playerID, int x, int y, boolean verticalLine, int result) {
+		try {
+			replay.move(playerID, x, y, verticalLine, board);
+			if ((result & Board.GAME_OVER) != 0) {
+				replay.close();
+				System.out.println("Archived " + replay.getMoves() + " moves to " + replay.getFile());
+				replay = null;
+			}
+		}
+		catch (IOException e) {
+			System.out.println("Unable to write the replay, no longer archiving this game!");
+			System.out.println(e);
+			replay = null;
+		}
+	}
+
+	private void moveSpectators() {
+		while ((maxPlayers == 0 || players.size() < maxPlayers) && !spectators.isEmpty()) {
+			Client client = spectators.get(0);
+			spectators.remove(client);
+			playerAdd(client);
+		}
+	}
+
+	/**
+	 * Bring a client that couldn't keep up (and missed messages) up to date, all at once.
+	 * <br>
+	 * It is sent the whole game, as a client that just joined or rejoined would be, after
+	 * undoing anything it may have missed: players that left, and the game starting or stopping.
+	 * @param client The client
+	 */
+	private void resync(Client client) {
+		// (Unless it has left, maybe for another room, which resyncs it instead)
+		Player player = players.get(client.clientID);
+		if (!queue.contains(client) && !spectators.contains(client) && (player == null || player.getClient() != client))
+			return;
+		// Older clients can't be sent the board at once
+		if (client.version == null || client.version[1] < 3) {
+			System.out.println(playerName(client.clientID) + " can't keep up, disconnecting.");
+			client.abort();
+			return;
+		}
+		client.resync();
+		// (Queued clients have no game to catch up on)
+		if (client.clientID == -1)
+			return;
+		System.out.println("Resyncing " + playerName(client.clientID) + ".");
+		broadcast(client, "network-assign " + client.clientID + "\ngame-stop");
+		for (int playerID = 1; playerID < nextID; playerID++)
+			if (!players.containsKey(playerID) && playerID != client.clientID)
+				broadcast(client, "player-remove " + playerID);
+		sendState(client);
+		if (player != null && player.getToken() != null && client.version[1] >= 4)
+			broadcast(client, "player-token " + client.clientID + " " + player.getToken());
+		if (gameStarted) {
+			broadcast(client, "game-start");
+			players.forEach((playerID, plyr) -> {
+				if (plyr.disconnected())
+					broadcast(client, "player-remove " + playerID);
+			});
+			sendBoard(client);
+			broadcast(client, "game-current " + currentPlayer);
+		}
+		// Too far behind to even be brought up to date
+		if (client.isLagging()) {
+			System.out.println(playerName(client.clientID) + " can't keep up, disconnecting.");
+			lagging.remove(client);
+			client.abort();
+		}
+	}
+
+	/**
+	 * Send every line and box to a client.
+	 * <br>
+	 * The whole board in one message, for clients that understand it, unless
+	 * it is too long for one ({@link #maxSnapshot}), then in parts. Older
+	 * clients (or ones that don't understand parts) get each line and box.
+	 * @param client The client to send the board to
+	 */
+	private void sendBoard(Client client) {
+		int minor = client.version != null ? client.version[1] : 0;
+		String snapshot = minor >= 3 ? board.snapshot() : null;
+		if (snapshot != null && snapshot.length() <= maxSnapshot)
+			broadcast(client, "grid-snapshot " + snapshot + " " + log.last());
+		else if (minor >= 5)
+			board.snapshot(maxSnapshot).forEach(part -> broadcast(client, "grid-part " + part + " " + log.last()));
+		else {
+			for (int x = 0; x < grid.width; x++)
+				for (int y = 0; y < grid.height; y++) {
+					if (board.getLine(x, y, false) >= 0)
+						broadcast(client, "player-line " + board.getLine(x, y, false) + " hor " + x + "," + y);
+					if (board.getLine(x, y, true) >= 0)
+						broadcast(client, "player-line " + board.getLine(x, y, true) + " ver " + x + "," + y);
+					if (board.getBox(x, y) >= 0)
+						broadcast(client, "player-box " + board.getBox(x, y) + " " + x + "," + y);
+				}
+		}
+	}
+
+	/**
+	 * Send the complete lobby/game state to a client that just joined or started spectating.
+	 * @param client The client to bring up to date
+	 */
+	private void sendState(Client client) {
+		players.forEach((playerID, plyr) -> {
+			broadcast(client, "player-add " + playerID + " " + plyr);
+			if (plyr.getRGB() != null)
+				broadcast(client, "player-color " + playerID + " " + plyr.getRGB());
+		});
+		broadcast(client, "grid-size " + grid + "\ngrid-reset");
+	}
+
+	private void broadcast(Client client, Packet[] packets) {
+		// Messages for the hosting player go straight to them
+		if (client == null) {
+			for (Packet packet : packets)
+				receive(packet.message);
+			return;
+		}
+		for (Packet packet : packets) {
+			client.queue(packet);
+			sent[packet.opcode()]++;
+		}
+		if (client.isLagging())
+			lagging.add(client);
+		if (isLogging()) {
+			String prefix = "--> " + playerName(client.clientID) + ": ";
+			for (Packet packet : packets)
+				network(prefix + packet);
+		}
+		outgoing.add(client);
+	}
+
+	/**
+	 * Send messages to one client. (On the mailbox, they are sent at the end of the tick.)
+	 * @param client The client (<code>null</code> for the hosting player)
+	 * @param messages The messages, one per line
+	 */
+	public void broadcast(Client client, String messages) {
+		broadcast(client, Packet.split(messages));
+	}
+
+	/**
+	 * Send messages to every player and spectator. (On the mailbox, they are sent at the end of the tick.)
+	 * <br>
+	 * Each message is only encoded once, however many clients it goes to.
+	 * @param messages The messages, one per line
+	 */
+	public void broadcast(String messages) {
+		long start = System.nanoTime();
+		Packet[] packets = Packet.split(messages);
+		record(packets);
+		players.forEach((playerID, player) -> {
+			// (Players recovered from a journal have no client until they rejoin)
+			if (playerID > 0 && player.getClient() != null)
+				broadcast(player.getClient(), packets);
+		});
+		spectators.forEach(client -> broadcast(client, packets));
+		if (!dedicated)
+			broadcast(null, packets);
+		broadcasts.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Send everything queued this tick, one write per client.
+	 */
+	private void flush() {
+		if (!lagging.isEmpty()) {
+			Client[] behind = lagging.toArray(new Client[lagging.size()]);
+			lagging.clear();
+			for (Client client : behind)
+				resync(client);
+		}
+		for (Client client : outgoing)
+			client.flush();
+		outgoing.clear();
+	}
+
+	/**
+	 * Queue commands for the game.
+	 * <br>
+	 * If the mailbox is full, the client is sending faster than the game can keep up, and is disconnected.
+	 * @param client The client that sent them (<code>null</code> for the hosting player)
+	 * @param messages The commands, one per line
+	 */
+	public void clientMessage(Client client, String messages) {
+		// The host, and disconnects, are never turned away
+		if (client == null || messages.equals(client.disconnect))
+			mailbox.deliver(() -> handle(client, messages));
+		else if (!mailbox.offer(() -> handle(client, messages))) {
+			System.out.println("Game is too busy (" + mailbox.depth() + " commands waiting), disconnecting " + playerName(client.clientID) + ".");
+			client.close();
+		}
+	}
+
+	/**
+	 * Answer commands. (On the mailbox.)
+	 * @param client The client that sent them (<code>null</code> for the hosting player)
+	 * @param messages The commands, one per line
+	 */
+	public void handle(Client client, String messages) {
+		// Each line is taken apart where it is, without splitting or copying it
+		for (int start = 0, end; start < messages.length() || start == 0; start = end + 1) {
+			end = messages.indexOf('\n', start);
+			if (end == -1)
+				end = messages.length();
+			tokens.reset(messages, start, end);
+			if (isLogging())
+				network("<-- " + (client == null ? "self" : playerName(client.clientID)) + ": " + tokens);
+
+			if (tokens.verb() == null) {
+				if (client != null)
+					broadcast(client, "info-malformed " + tokens.group() + " was not followed by a hyphen!");
+				return;
+			}
+			commands.dispatch(client, tokens);
+		}
+	}
+
+	/*
+	 * ID meanings
+	 *  0: server
+	 * -1: queued client
+	 * -2: spectator
+	 * >0: player
+	 */
+	private int id(Client client) {
+		return client == null ? 0 : client.clientID;
+	}
+
+	// Guards, checked before a command is parsed (each answers the client if it may not use the command)
+
+	private boolean isNew(Client client) {
+		if (client != null && !client.isValidated())
+			return true;
+		broadcast(client, "info-warn Server has already received your version info.");
+		return false;
+	}
+
+	private boolean isPlayer(Client client) {
+		if (!isValidated(client, "info-warn"))
+			return false;
+		if (id(client) >= 0 && players.get(id(client)) != null)
+			return true;
+		broadcast(client, "info-warn You aren't a player yet!");
+		return false;
+	}
+
+	private boolean isTurn(Client client) {
+		if (!isValidated(client, "info-warn"))
+			return false;
+		if (id(client) == currentPlayer)
+			return true;
+		broadcast(client, "info-warn " + (id(client) >= 0 ? "Not your turn!" : "You aren't part of this game!"));
+		return false;
+	}
+
+	private boolean isValidated(Client client, String refusal) {
+		if (client == null || client.isValidated())
+			return true;
+		broadcast(client, refusal + " Server has not validated you yet!\nrequest-info");
+		return false;
+	}
+
+	// Commands (registered in the constructor)
+
+	private void gamePlay(Client client, Commands.Move move) {
+		long start = System.nanoTime();
+		if (makeMove(id(client), move.x(), move.y(), move.vertical()) != Board.INVALID)
+			broadcast(log.move(log.last()));
+		else if (client != null)
+			broadcast(client, "info-warn Invalid move!");
+		moves.record(System.nanoTime() - start);
+	}
+
+	private void infoVersion(Client client, Commands.Version version) {
+		System.out.println("Client is running version " + version.major() + "." + version.minor());
+		if (version.major() != GameServer.version[0]) {
+			System.out.println("Client version is incompatible with server version (" + GameServer.version[0] + "." + GameServer.version[1] + ")!");
+			queue.remove(client);
+			client.close();
+		}
+		else {
+			client.validate();
+			client.version = new int[] { version.major(), version.minor() };
+			// Clients that understand binary frames ask for them after their version
+			if (version.binary())
+				client.upgrade();
+		}
+	}
+
+	private void networkChat(Client client, Commands.Text chat) {
+		broadcast("network-chat " + id(client) + (chat.text().isEmpty() ? "" : " " + chat.text()));
+	}
+
+	private void networkDisconnect(Client client) {
+		broadcast(client, "network-disconnect");
+		leave(client);
+	}
+
+	private void playerColor(Client client, Commands.Color color) {
+		broadcast("player-color " + id(client) + " " + color.rgb());
+		players.get(id(client)).setRGB(color.rgb());
+	}
+
+	private void playerRename(Client client, Commands.Name name) {
+		broadcast("player-rename " + id(client) + " " + name.name());
+		players.get(id(client)).setName(name.name());
+	}
+
+	private void requestJoin(Client client) {
+		// If the client isn't in the queue, they must already be a player
+		if (queue.contains(client)) {
+			// If we're in the lobby, they can join, otherwise they can spectate or leave
+			if (!gameStarted) {
+				if (maxPlayers == 0 || players.size() != maxPlayers) {
+					// Send full game data
+					sendState(client);
+					playerAdd(client);
+					queue.remove(client);
+				}
+				else broadcast(client, "request-deny Server full! (" + players.size() + "/" + maxPlayers + " players) - feel free to spectate\nnetwork-full");
+			}
+			else broadcast(client, "request-deny Server is in the middle of a game, feel free to spectate.\nnetwork-busy");
+		}
+		else broadcast(client, "request-deny Already joined.");
+	}
+
+	// A player that lost its connection
+	private void requestRejoin(Client client, Commands.Rejoin rejoin) {
+		if (!queue.contains(client)) {
+			broadcast(client, "request-deny Already joined.");
+			return;
+		}
+		Player former = players.get(rejoin.player());
+		if (!gameStarted || former == null || !former.disconnected() || !rejoin.token().equals(former.getToken())) {
+			broadcast(client, "request-deny Could not rejoin, that game is over.");
+			return;
+		}
+		queue.remove(client);
+		assign(client, rejoin.player());
+		former.reconnect(client);
+		standings.recount(players.values());
+		broadcast("player-rejoin " + rejoin.player());
+		// Just the moves it missed, unless it missed too many
+		if (log.covers(rejoin.seq()) && log.last() - rejoin.seq() <= maxDelta) {
+			if (rejoin.seq() < log.last())
+				broadcast(client, log.since(rejoin.seq()));
+		}
+		else sendBoard(client);
+		broadcast(client, "game-current " + currentPlayer);
+		setCurrent(players.size());
+	}
+
+	private void requestSpectate(Client client) {
+		if (!queue.contains(client)) {
+			broadcast(client, "request-deny Already joined.");
+			return;
+		}
+		if (!gameStarted && maxPlayers != players.size()) {
+			broadcast(client, "request-deny There isn't a game running right now, feel free to join the lobby!");
+			return;
+		}
+		assign(client, -2);
+		// Send full game data
+		sendState(client);
+		spectators.add(client);
+		queue.remove(client);
+		if (gameStarted)
+			broadcast(client, "game-start");
+		players.forEach((playerID, plyr) -> {
+			if (plyr.disconnected())
+				broadcast(client, "player-remove " + playerID);
+		});
+		broadcast(client, "game-current " + currentPlayer);
+		sendBoard(client);
+	}
+
+	// request-start and request-restart
+	private void requestStart(Client client, String verb) {
+		if (dedicated && id(client) >= 0) {
+			broadcast("network-chat -3 " + playerName(id(client)) + " " + verb + "ed the game.");
+			restart();
+		}
+		else broadcast("network-chat -3 " + playerName(id(client)) + " wants to " + verb + " the game.");
+	}
+
+	private void requestStop(Client client) {
+		if (dedicated && id(client) >= 0) {
+			broadcast("network-chat -3 " + playerName(id(client)) + " returned to the lobby.");
+			stop();
+		}
+		else broadcast("network-chat -3 " + playerName(id(client)) + " wants to return to the lobby.");
+	}
+
+	/**
+	 * Take in a client that has just connected, and queue it. (On the mailbox.)
+	 * @param client The new client
+	 */
+	public void accept(Client client) {
+		client.slowConsumer = slowConsumers;
+		assign(client, -1);
+		client.disconnect = "network-disconnect";
+		playerConnected(client);
+	}
+
+	/**
+	 * Stop accepting connections, and tell every client that the server is going away.
+	 */
+	public void close() {
+		if (listener != null)
+			listener.close();
+		mailbox.deliver(() -> {
+			broadcast("network-disconnect");
+			for (Client client : queue)
+				broadcast(client, "network-disconnect");
+			flush();
+			for (Client client : queue)
+				client.close();
+		});
+	}
+
+	/**
+	 * Every command clients may send, with how many of each have been answered, and how long they took.
+	 * @return The game's command table (only touch it on the mailbox)
+	 */
+	public CommandTable<Client> getCommands() {
+		return commands;
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	public Integer getMaxPlayers() {
+		return maxPlayers;
+	}
+
+	/**
+	 * How many players are still connected. (Including the hosting player.)
+	 * @return Number of connected players
+	 */
+	public int getPlayerCount() {
+		return (int)players.values().stream().filter(player -> !player.disconnected()).count();
+	}
+
+	/**
+	 * What the game has been doing, for {@link Metrics}. (On the mailbox.)
+	 * @return A copy of every count, and of how many clients there are and how far behind they are
+	 */
+	public GameStats getStats() {
+		long[] received = new long[Protocol.commands.length];
+		long[] receivedNanos = new long[Protocol.commands.length];
+		for (int opcode = 0; opcode < received.length; opcode++) {
+			received[opcode] = commands.getCount(opcode);
+			receivedNanos[opcode] = commands.getNanos(opcode);
+		}
+		// (Players recovered from a journal have no client until they rejoin)
+		ArrayList<Client> playing = new ArrayList<Client>();
+		players.forEach((playerID, player) -> {
+			if (player.getClient() != null && !player.disconnected())
+				playing.add(player.getClient());
+		});
+		List<List<Client>> states = List.of(queue, playing, spectators);
+		long[] queueBytes = new long[states.size()];
+		int maxQueueBytes = 0;
+		int lagging = 0;
+		for (int state = 0; state < states.size(); state++) {
+			for (Client client : states.get(state)) {
+				int depth = client.getQueueDepth();
+				queueBytes[state] += depth;
+				maxQueueBytes = Math.max(maxQueueBytes, depth);
+				if (client.isLagging())
+					lagging++;
+			}
+		}
+		return new GameStats(queue.size(), playing.size(), spectators.size(), received, receivedNanos, sent.clone(),
+			moves.copy(), broadcasts.copy(), queueBytes, maxQueueBytes, lagging, mailbox.depth());
+	}
+
+	/**
+	 * Keep a journal of the game, so it can be recovered if this process dies.
+	 * <p>
+	 * If the journal already holds a game (because the last process died), that
+	 * game is rebuilt first. Its players are left disconnected, so their clients
+	 * can rejoin them. Call before {@link #open()}, after any hosting player has been added.
+	 * </p>
+	 * @param file The journal file (created if it doesn't exist)
+	 * @throws IOException If the journal could not be opened, or is corrupt
+	 * @see Journal
+	 */
+	public void journal(Path file) throws IOException {
+		Journal journal = new Journal(file);
+		List<String> records = journal.read();
+		if (!records.isEmpty()) {
+			long start = System.nanoTime();
+			recover(records);
+			// Nobody is connected any more (but a game in progress waits for its players to rejoin)
+			players.forEach((playerID, player) -> {
+				if (playerID == 0)
+					return;
+				if (!gameStarted)
+					players.remove(playerID);
+				else player.disconnect();
+			});
+			standings.recount(players.values());
+			setCurrent(players.size());
+			System.out.println("Recovered " + players.size() + " players and " + board.getClaimed() + " boxes from "
+				+ records.size() + " journal records in " + (System.nanoTime() - start) / 1000000 + " ms.");
+			// Bring the hosting player up to date
+			if (!dedicated)
+				broadcast(null, String.join("\n", state()));
+		}
+		journal.checkpoint(state());
+		this.journal = journal;
+	}
+
+	private void record(Packet[] packets) {
+		if (journal == null)
+			return;
+		for (Packet packet : packets) {
+			int space = packet.message.indexOf(' ');
+			String command = Protocol.commands[Protocol.opcode(packet.message, 0, space == -1 ? packet.message.length() : space)];
+			for (String journaledCommand : journaled) {
+				if (!journaledCommand.equals(command))
+					continue;
+				try {
+					// (The game has already changed, so a checkpoint holds every packet of this broadcast)
+					if (journal.isDue() || !journal.append(packet.message)) {
+						journal.checkpoint(state());
+						return;
+					}
+				}
+				catch (IOException e) {
+					System.out.println("Unable to write the journal, no longer journaling!");
+					System.out.println(e);
+					journal = null;
+					return;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the game from journal records.
+	 * @param records Commands from {@link #journal(Path)}, oldest first
+	 */
+	private void recover(List<String> records) throws IOException {
+		for (String record : records) {
+			tokens.reset(record);
+			try {
+				switch (tokens.command()) {
+				case "grid-size":
+					if (!grid.toString().equals(tokens.word(1)))
+						throw new IOException("Journal is for a " + tokens.word(1) + " grid, not " + grid);
+					break;
+				case "game-start":
+				case "game-restart":
+					gameRestart();
+					break;
+				case "game-stop":
+					gameStop();
+					break;
+				case "game-current":
+					currentPlayer = tokens.parseInt(1);
+					break;
+				case "game-play":
+					long seq = tokens.parseLong(4);
+					long last = log.last();
+					// (A checkpoint may already hold the move)
+					if (seq <= last)
+						break;
+					log.resume(seq - 1);
+					if (makeMove(tokens.parseInt(1), tokens.x(2), tokens.y(2), tokens.is(3, "ver")) == Board.INVALID)
+						log.resume(last);
+					break;
+				case "grid-snapshot":
+					// (The moves before a checkpoint are gone, so neither is the game's replay)
+					abandonReplay();
+					board.restore(tokens.word(1) + " " + tokens.word(2) + " " + tokens.word(3));
+					log.resume(tokens.parseLong(4));
+					players.values().forEach(Player::reset);
+					standings.reset();
+					grid.forEach(pnt -> {
+						if (players.containsKey(board.getBox(pnt.x, pnt.y)))
+							standings.add(players.get(board.getBox(pnt.x, pnt.y)), 1);
+					});
+					gameFinished = board.isFull();
+					break;
+				case "player-add":
+					int playerID = tokens.parseInt(1);
+					String name = tokens.rest(2);
+					// The hosting player has already been added
+					if (players.containsKey(playerID))
+						players.get(playerID).setName(name);
+					else
+						playerAdd(playerID, name, null);
+					nextID = Math.max(nextID, playerID + 1);
+					break;
+				case "player-color":
+					players.get(tokens.parseInt(1)).setRGB(tokens.parseInt(2));
+					break;
+				case "player-remove":
+					playerRemove(tokens.parseInt(1));
+					break;
+				case "player-rename":
+					players.get(tokens.parseInt(1)).setName(tokens.rest(2));
+					break;
+				case "player-token":
+					players.get(tokens.parseInt(1)).setToken(tokens.word(2));
+					break;
+				}
+			}
+			catch (IOException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				throw new IOException("Corrupt journal record: " + record, e);
+			}
+		}
+	}
+
+	/**
+	 * Commands that rebuild the game as it is now. (A journal checkpoint, or catching up a hosting player.)
+	 * @return The commands, in order
+	 */
+	private List<String> state() {
+		ArrayList<String> state = new ArrayList<String>();
+		state.add("info-version " + version[0] + " " + version[1]);
+		state.add("grid-size " + grid);
+		players.forEach((playerID, player) -> {
+			state.add("player-add " + playerID + " " + player.getName());
+			if (player.getRGB() != null)
+				state.add("player-color " + playerID + " " + player.getRGB());
+			if (player.getToken() != null)
+				state.add("player-token " + playerID + " " + player.getToken());
+		});
+		if (gameStarted) {
+			state.add("game-start");
+			state.add("grid-snapshot " + board.snapshot() + " " + log.last());
+			state.add("game-current " + currentPlayer);
+			// (Unless nobody is connected, right after a recovery, when replaying them would end a dedicated server's game)
+			if (!players.values().stream().allMatch(Player::disconnected)) {
+				players.forEach((playerID, player) -> {
+					if (player.disconnected())
+						state.add("player-remove " + playerID);
+				});
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Whether or not every client has left. (The hosting player doesn't count.)
+	 * @return <code>true</code> if there are no connected players, queued clients, or spectators
+	 */
+	public Boolean isEmpty() {
+		return queue.isEmpty() && spectators.isEmpty()
+			&& players.entrySet().stream().allMatch(entry -> entry.getKey() == 0 || entry.getValue().disconnected());
+	}
+
+	/**
+	 * Whether or not a game is currently being played.
+	 * @return <code>true</code> if the game has started, <code>false</code> if we're in the lobby
+	 */
+	public Boolean isStarted() {
+		return gameStarted;
+	}
+
+	/**
+	 * Remove a client from the game, without disconnecting it (it may be moving to another game).
+	 * @param client The client that is leaving
+	 */
+	public void leave(Client client) {
+		// Inform Other Clients and Update Server (us)
+		if (client.clientID < 0) {
+			if (queue.contains(client))
+				queue.remove(client);
+			if (spectators.contains(client))
+				spectators.remove(client);
+		}
+		else {
+			broadcast("player-remove " + client.clientID);
+			playerRemove(client.clientID);
+			moveSpectators();
+		}
+	}
+
+	/**
+	 * Whether or not to describe traffic to {@link #network(String)}. (Each description is a new string, for every command.)
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @return <code>true</code> if traffic is being logged
+	 */
+	public boolean isLogging() {
+		return false;
+	}
+
+	/**
+	 * Log network traffic.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param message Description of the traffic
+	 */
+	public void network(String message) { }
+
+	/**
+	 * Begin accepting connections from clients.
+	 */
+	public void open() {
+		switch (transport) {
+		case SELECTOR:
+			listener = new ClientSelector(port) {
+				@Override
+				public void connected(Client client) {
+					mailbox.deliver(() -> accept(client));
+				}
+
+				@Override
+				public void receive(Client client, String message) {
+					clientMessage(client, message);
+				}
+			};
+			break;
+		default:
+			// THREAD or VIRTUAL (the collector starts each client's thread)
+			listener = new ClientCollector(port) {
+				@Override
+				public void connected(Client client) {
+					mailbox.deliver(() -> accept(client));
+				}
+
+				@Override
+				public void receive(Client client, String message) {
+					clientMessage(client, message);
+				}
+			};
+			listener.transport = transport;
+		}
+		listener.start();
+	}
+
+	public void playerAdd(Client client) {
+		int playerID = 0;
+		do {
+			playerID = nextID;
+			nextID++;
+		}
+		while (players.containsKey(playerID));
+		assign(client, playerID);
+		Player player = playerAdd(playerID, "Client " + playerID, client);
+		broadcast("player-add " + playerID + " " + player);
+		// Only this client learns the token, so only it can rejoin as this player
+		player.setToken(Long.toHexString(random.nextLong()));
+		record(Packet.split("player-token " + playerID + " " + player.getToken()));
+		if (client.version != null && client.version[1] >= 4)
+			broadcast(client, "player-token " + playerID + " " + player.getToken());
+		setCurrent(players.size());
+	}
+
+	public Player playerAdd(Integer playerID, String name, Client client) {
+		Player player = new Player(name, client);
+		players.put(playerID, player);
+		return player;
+	}
+
+	public void playerConnected(Client client) {
+		// Add them to the queue
+		queue.addIfAbsent(client);
+
+		// Send Server Info (unless it already has, in another game)
+		if (!client.isValidated())
+			broadcast(client, "info-version " + version[0] + " " + version[1]);
+	}
+
+	public String playerName(Integer playerID) {
+		return playerID == -2
+			? "Spectator"
+			: playerID == -1 || !players.containsKey(playerID)
+				? "Queued Client"
+				: players.get(playerID).toString();
+	}
+
+	public void playerNext() {
+		// Nobody left to take a turn
+		if (players.values().stream().allMatch(Player::disconnected))
+			return;
+		do {
+			currentPlayer++;
+			if (currentPlayer >= nextID)
+				currentPlayer = 0;
+		} while (!players.containsKey(currentPlayer) || players.get(currentPlayer).disconnected());
+	}
+
+	public void playerRemove(int playerID) {
+		Player player = players.get(playerID);
+		if (player == null)
+			return;
+		if (gameStarted) {
+			player.disconnect();
+			standings.recount(players.values());
+			if (playerID == currentPlayer)
+				playerNext();
+			// A dedicated server has nobody left to finish the game
+			if (dedicated && players.values().stream().allMatch(Player::disconnected))
+				gameStop();
+		}
+		else players.remove(playerID);
+		setCurrent(players.size());
+	}
+
+	/**
+	 * Receive a message meant for the hosting player (player 0).
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param message The message to receive
+	 */
+	public void receive(String message) { }
+
+	/**
+	 * (Re)start the game, and tell every client to do the same.
+	 */
+	public void restart() {
+		broadcast("game-" + (gameStarted ? "restart" : "start"));
+		gameRestart();
+	}
+
+	/**
+	 * Fires whenever the number of players changes.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param current How many players are in the game
+	 */
+	public void setCurrent(Integer current) { }
+
+	/**
+	 * Return to the lobby, and tell every client to do the same.
+	 */
+	public void stop() {
+		broadcast("game-stop");
+		gameStop();
+	}
+
+	/**
+	 * Run a dedicated server, without any user interface.
+	 * <p>
+	 * Usage: <code>[--rooms|--journal=FILE] [--replays=DIR] [--slow=POLICY] [--metrics=PORT] [--TRANSPORT] [WIDTHxHEIGHT] [MAX_PLAYERS]</code>, defaults to an 8x8 grid with no player limit.<br>
+	 * <code>--selector</code> serves every client from a single thread, and <code>--virtual</code> gives each client a
+	 * virtual thread instead of a platform thread (see {@link Transport}).<br>
+	 * With no hosting player, the game is started and stopped by the players' own start/stop requests.<br>
+	 * <code>--rooms</code> hosts many games at once instead, starting with one of the given size (see {@link GameLobby}).<br>
+	 * <code>--replays=DIR</code> archives a {@link Replay} of every finished game in a directory.<br>
+	 * <code>--journal=FILE</code> records the game, so that if the server dies, running it again recovers the game (see {@link #journal(Path)}), but not with <code>--rooms</code>.<br>
+	 * <code>--slow=resync</code> (the default) brings clients that can't keep up back up to date all at once, <code>--slow=disconnect</code> disconnects them (see {@link SlowConsumer}).<br>
+	 * <code>--metrics=PORT</code> serves the server's {@link Metrics} at <code>http://localhost:PORT/metrics</code> (and through JMX).
+	 * </p>
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		Grid grid;
+		Integer maxPlayers;
+		Transport transport = Transport.THREAD;
+		Boolean rooms = false;
+		Path journal = null;
+		Path replays = null;
+		SlowConsumer slowConsumers = SlowConsumer.RESYNC;
+		Integer metrics = null;
+		try {
+			ArrayList<String> values = new ArrayList<String>();
+			for (String arg : args) {
+				if (arg.equals("--rooms"))
+					rooms = true;
+				else if (arg.startsWith("--journal="))
+					journal = Path.of(arg.substring(10));
+				else if (arg.startsWith("--replays="))
+					replays = Files.createDirectories(Path.of(arg.substring(10)));
+				else if (arg.startsWith("--slow="))
+					slowConsumers = SlowConsumer.valueOf(arg.substring(7).toUpperCase());
+				else if (arg.startsWith("--metrics="))
+					metrics = Integer.parseInt(arg.substring(10));
+				else if (arg.startsWith("--"))
+					transport = Transport.valueOf(arg.substring(2).toUpperCase());
+				else
+					values.add(arg);
+			}
+			args = values.toArray(new String[values.size()]);
+			grid = args.length > 0 ? Grid.parseGrid(args[0]) : new Grid(8, 8);
+			maxPlayers = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+			// (Only a single game is journaled)
+			if (grid.width < 2 || grid.height < 2 || maxPlayers < 0 || rooms && journal != null)
+				throw new IllegalArgumentException();
+		}
+		catch (Exception e) {
+			System.out.println("Usage: --headless [--rooms|--journal=FILE] [--replays=DIR] [--slow=resync|disconnect] [--metrics=PORT] [--thread|--selector|--virtual] [WIDTHxHEIGHT] [MAX_PLAYERS]");
+			return;
+		}
+
+		if (transport == Transport.VIRTUAL && !Transport.virtualThreads)
+			System.out.println("Virtual threads need Java 21, using platform threads instead.");
+		if (rooms) {
+			GameLobby lobby = new GameLobby(grid, maxPlayers, Runtime.getRuntime().availableProcessors());
+			lobby.transport = transport;
+			lobby.replays = replays;
+			lobby.slowConsumers = slowConsumers;
+			System.out.println("Dedicated lobby: rooms default to " + grid + " grid, " + (maxPlayers == 0 ? "unlimited" : maxPlayers) + " players.");
+			lobby.open();
+			serveMetrics(new Metrics(lobby::getGames), metrics);
+			return;
+		}
+
+		GameServer server = new GameServer(grid, maxPlayers, true);
+		server.transport = transport;
+		server.replays = replays;
+		server.slowConsumers = slowConsumers;
+		System.out.println("Dedicated server: " + grid + " grid, " + (maxPlayers == 0 ? "unlimited" : maxPlayers) + " players.");
+		if (journal != null) {
+			try {
+				server.journal(journal);
+			}
+			catch (IOException e) {
+				System.out.println("Unable to open the journal!");
+				System.out.println(e);
+				return;
+			}
+		}
+		server.open();
+		serveMetrics(new Metrics(() -> Map.of("1", server)), metrics);
+	}
+
+	/**
+	 * Serve metrics, if asked to.
+	 * @param metrics Metrics to serve
+	 * @param port Port to serve them on (null to not)
+	 */
+	private static void serveMetrics(Metrics metrics, Integer port) {
+		if (port == null)
+			return;
+		try {
+			metrics.open(port);
+		}
+		catch (IOException e) {
+			System.out.println("Unable to serve metrics!");
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * A new game server, in the lobby, with a thread of its own.
+	 * <br>
+	 * Call {@link #open()} to begin accepting connections.
+	 * @param grid Dot grid to use for the game
+	 * @param maxPlayers Maximum number of players (0 for no limit)
+	 * @param dedicated <code>true</code> if nobody is hosting (no player 0)
+	 */
+	public GameServer(Grid grid, Integer maxPlayers, Boolean dedicated) {
+		this(grid, maxPlayers, dedicated, Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "GameServer");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	/**
+	 * A new game server, in the lobby, sharing its threads with other games.
+	 * @param grid Dot grid to use for the game
+	 * @param maxPlayers Maximum number of players (0 for no limit)
+	 * @param dedicated <code>true</code> if nobody is hosting (no player 0)
+	 * @param executor Lends the game's mailbox a thread whenever it has work
+	 */
+	public GameServer(Grid grid, Integer maxPlayers, Boolean dedicated, Executor executor) {
+		this.grid = grid;
+		this.maxPlayers = maxPlayers;
+		this.dedicated = dedicated;
+		mailbox = new Mailbox(executor, mailboxCapacity) {
+			@Override
+			public void tick() {
+				flush();
+			}
+		};
+
+		board = new Board(grid);
+
+		commands = new CommandTable<Client>() {
+			@Override
+			public void malformed(Client client, Tokenizer command, String problem) {
+				broadcast(client, "info-malformed " + problem);
+			}
+
+			@Override
+			public void unknown(Client client, Tokenizer command) {
+				switch (command.group()) {
+				case "unknown":
+					System.out.println("Client did not recognize " + command.verb() + " directive!");
+					break;
+				case "game":
+				case "info":
+				case "network":
+				case "player":
+				case "request":
+					broadcast(client, "unknown-" + command.group());
+					break;
+				default:
+					broadcast(client, "unknown-");
+				}
+			}
+		};
+		commands.on("game-play", this::isTurn, Commands.Move::decode, this::gamePlay);
+		commands.on("info-binary", null, client -> { }); // The client has switched to binary frames (Client's Connection has already switched too)
+		commands.on("info-malformed", null, client -> System.out.println("The client reported a malformed command..."));
+		commands.on("info-version", this::isNew, Commands.Version::decode, this::infoVersion);
+		commands.on("network-chat", null, Commands.Text::decode, this::networkChat);
+		commands.on("network-disconnect", null, this::networkDisconnect);
+		commands.on("player-color", this::isPlayer, Commands.Color::decode, this::playerColor);
+		commands.on("player-rename", this::isPlayer, Commands.Name::decode, this::playerRename);
+		commands.on("request-join", client -> isValidated(client, "request-deny"), this::requestJoin);
+		commands.on("request-rejoin", client -> isValidated(client, "request-deny"), Commands.Rejoin::decode, this::requestRejoin);
+		commands.on("request-restart", client -> isValidated(client, "request-deny"), client -> requestStart(client, "restart"));
+		commands.on("request-spectate", client -> isValidated(client, "request-deny"), this::requestSpectate);
+		commands.on("request-start", client -> isValidated(client, "request-deny"), client -> requestStart(client, "start"));
+		commands.on("request-stop", client -> isValidated(client, "request-deny"), this::requestStop);
+
+		// Initialize program state before making/accepting connections!
+		gameStop();
+	}
+}
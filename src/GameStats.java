@@ -0,0 +1,24 @@
+/**
+ * What one game has been doing, copied on its mailbox so it can be read anywhere.
+ * <p>
+ * Counts (of commands, moves, and so on) only ever go up, from when the game
+ * was made. Everything indexed by opcode follows {@link coms.Protocol#commands}
+ * (0 for commands without an opcode).
+ * </p>
+ * @param queued Clients waiting to join or spectate
+ * @param players Connected players (not counting a hosting player)
+ * @param spectators Spectators
+ * @param received Commands answered, by opcode
+ * @param receivedNanos Time spent answering commands, by opcode
+ * @param sent Messages queued for clients, by opcode (once for each client)
+ * @param moves Time taken by each move, from being checked to being queued for every client
+ * @param broadcasts Time taken to queue each message for every client
+ * @param queueBytes Bytes waiting to be sent, added up for the queued clients, players, and spectators (in that order)
+ * @param maxQueueBytes Most bytes waiting to be sent to any one client
+ * @param lagging Clients that can't keep up, and are missing messages until they are resynced
+ * @param mailboxDepth Commands waiting for the game
+ * @see GameServer#getStats()
+ * @see Metrics
+ */
+public record GameStats(int queued, int players, int spectators, long[] received, long[] receivedNanos, long[] sent,
+	Histogram moves, Histogram broadcasts, long[] queueBytes, int maxQueueBytes, int lagging, int mailboxDepth) { }
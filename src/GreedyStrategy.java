@@ -0,0 +1,23 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+import grid.Board;
+
+/**
+ * Takes any box it can, otherwise plays anywhere.
+ */
+public class GreedyStrategy implements Strategy {
+	protected final Random random = new Random(); // Picks between equally good moves
+
+	public Move choose(Board board, int playerID) {
+		Move capture = Strategy.capture(board);
+		if (capture != null)
+			return capture;
+		ArrayList<Move> free = Strategy.free(board);
+		return free.isEmpty() ? null : free.get(random.nextInt(free.size()));
+	}
+
+	public String toString() {
+		return "greedy";
+	}
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import coms.Protocol;
+
+/**
+ * An append-only, memory-mapped record of the commands that changed a game.
+ * <p>
+ * Each record is a command encoded as a binary {@link Protocol} frame, so the
+ * file is just the game's own broadcasts, one after another. The length of a
+ * record is written after its contents, and unused space is zeros, so a
+ * record cut short by a crash reads as the end of the journal.
+ * </p>
+ * <p>
+ * Writes go straight into the mapped file, so they survive the process
+ * dying, without a system call per record. (Only a {@link #checkpoint(List)}
+ * forces them to disk, to survive the whole machine going down.) Once a
+ * checkpoint has been written it replaces the whole journal, keeping it small.
+ * </p>
+ * @see GameServer#journal(Path)
+ */
+public class Journal {
+	private MappedByteBuffer buffer; // The mapped journal file
+	private int records = 0;         // Records appended since the last checkpoint
+
+	private final Path file; // Journal file
+
+	/**
+	 * How many records to append before asking for a checkpoint.
+	 */
+	public static final int checkpointInterval = 1024;
+
+	/**
+	 * Smallest size of the mapped file, in bytes. (It grows if a checkpoint needs more than half of it.)
+	 */
+	public static final int minimumSize = 1 << 20;
+
+	/**
+	 * Record a command.
+	 * <br>
+	 * If the journal is full, it should be {@link #checkpoint(List) checkpointed}.
+	 * @param message The command (a single line)
+	 * @return <code>false</code> if there wasn't room for it
+	 */
+	public boolean append(String message) {
+		byte[] frame = Protocol.encode(message);
+		int position = buffer.position();
+		if (position + frame.length >= buffer.capacity())
+			return false;
+		// Contents first, then the length, which makes the record count
+		int prefix = prefixLength(frame);
+		buffer.put(position + prefix, frame, prefix, frame.length - prefix);
+		buffer.put(position, frame, 0, prefix);
+		buffer.position(position + frame.length);
+		records++;
+		return true;
+	}
+
+	/**
+	 * Replace the whole journal with a compact description of the game.
+	 * <p>
+	 * The new journal is written beside the old one and then moved over it, so
+	 * a crash part way through leaves the old journal as it was.
+	 * </p>
+	 * @param state Commands that rebuild the game as it is now
+	 * @throws IOException If the new journal could not be written
+	 */
+	public void checkpoint(List<String> state) throws IOException {
+		ArrayList<byte[]> frames = new ArrayList<byte[]>(state.size());
+		int length = 0;
+		for (String message : state) {
+			byte[] frame = Protocol.encode(message);
+			frames.add(frame);
+			length += frame.length;
+		}
+
+		ByteBuffer contents = ByteBuffer.allocate(length);
+		frames.forEach(contents::put);
+		contents.flip();
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (contents.hasRemaining())
+				channel.write(contents);
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		map(Math.max(minimumSize, Integer.highestOneBit(Math.max(length, 1)) * 4));
+		buffer.position(length);
+		records = 0;
+	}
+
+	/**
+	 * Whether or not enough has been appended that a checkpoint is due.
+	 * @return <code>true</code> after {@link #checkpointInterval} records
+	 */
+	public boolean isDue() {
+		return records >= checkpointInterval;
+	}
+
+	/**
+	 * Read every complete record, and get ready to append after them.
+	 * @return The recorded commands, oldest first (empty for a new journal)
+	 * @throws IOException If a record is corrupt
+	 */
+	public List<String> read() throws IOException {
+		ArrayList<String> messages = new ArrayList<String>();
+		int position = 0;
+		byte[] frame = new byte[256];
+		while (position < buffer.capacity()) {
+			int length = 0;
+			int start = position;
+			for (int shift = 0; ; shift += 7) {
+				if (shift >= 35 || position >= buffer.capacity())
+					throw new IOException("Malformed journal record length");
+				int b = buffer.get(position++);
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					break;
+			}
+			// Zero length: the end (or a record that was never finished)
+			if (length == 0 || position + length > buffer.capacity()) {
+				position = start;
+				break;
+			}
+			if (frame.length < length)
+				frame = new byte[length];
+			buffer.get(position, frame, 0, length);
+			messages.add(Protocol.decode(frame, length));
+			position += length;
+		}
+		buffer.position(position);
+		return messages;
+	}
+
+	private void map(int size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+		}
+	}
+
+	private static int prefixLength(byte[] frame) {
+		int prefix = 1;
+		while ((frame[prefix - 1] & 0x80) != 0)
+			prefix++;
+		return prefix;
+	}
+
+	/**
+	 * Open (or create) a journal.
+	 * @param file The journal file
+	 * @throws IOException If it could not be opened and mapped
+	 */
+	public Journal(Path file) throws IOException {
+		this.file = file;
+		map(minimumSize);
+	}
+}
@@ -0,0 +1,30 @@
+import java.util.Arrays;
+
+/**
+ * Program entry point.
+ * <p>
+ * Starts the {@link NetDot} window, or with <code>--headless</code>, a dedicated
+ * {@link GameServer}, or with <code>--replay</code>, scans a {@link Replay} file,
+ * or with <code>--bots</code>, runs headless {@link Bot} players. This class deliberately references nothing from AWT or
+ * Swing, so a headless server never loads them.
+ * </p>
+ * @see NetDot#main(String[])
+ * @see GameServer#main(String[])
+ * @see ReplayReader#main(String[])
+ * @see Bot#main(String[])
+ */
+public class Launcher {
+	/**
+	 * Launch the application.
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("--headless"))
+			GameServer.main(Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--replay"))
+			ReplayReader.main(Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--bots"))
+			Bot.main(Arrays.copyOfRange(args, 1, args.length));
+		else
+			NetDot.main(args);
+	}
+}
@@ -5,6 +5,7 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.util.concurrent.ConcurrentHashMap;
 
+import grid.Board;
 import grid.Grid;
 import grid.GridPoint;
 
@@ -16,11 +17,11 @@ import grid.GridPoint;
  */
 public class Line {
 	private Color color;                                // Current line color
-	private Integer owner;                              // Owner of this line
 	private Rectangle panelRect;                        // Absolute location and size, in the parent JPanel
 	private ConcurrentHashMap<Integer, Player> players; // Player Data
 	private Polygon validArea;                          // Bounds for Valid Mouse Clicks/Hovers
 
+	private final Board board;       // Ownership data (this line's owner lives here)
 	private final Grid grid;         // Game grid information
 	private final GridPoint gridPos; // Location on the grid
 	private final Boolean vertical;  // Line orientation
@@ -47,10 +48,10 @@ public class Line {
 
 	/**
 	 * Get the user that owns this line.
-	 * @return The owner (0 if unclaimed)
+	 * @return The owner (-1 if unclaimed)
 	 */
 	public int getOwner() {
-		return owner;
+		return board.getLine(gridPos.x, gridPos.y, vertical);
 	}
 
 	/**
@@ -58,7 +59,7 @@ public class Line {
 	 * @param point The location of the mouse cursor
 	 */
 	public void hover(Point point) {
-		if (owner == -1)
+		if (getOwner() == -1)
 			color = validArea == null || !validArea.contains(point) ? defaultColor : hoverColor;
 	}
 
@@ -69,6 +70,7 @@ public class Line {
 	 * @see Dot#paint(Graphics)
 	 */
 	public void paint(Graphics g) {
+		int owner = getOwner();
 		if (owner >= 0) {
 			if (!players.get(owner).disconnected())
 				if (players.get(owner).getColor() != null)
@@ -87,10 +89,9 @@ public class Line {
 	}
 
 	/**
-	 * Reset line ownership and color.
+	 * Reset line color. (Ownership is reset by the {@link Board}.)
 	 */
 	public void reset() {
-		owner = -1;
 		color = defaultColor;
 	}
 
@@ -136,13 +137,7 @@ public class Line {
 	 * @return <code>true</code> if the line was claimed, <code>false</code> if it was already claimed
 	 */
 	public Boolean setOwner(Integer playerID) {
-		if (players.containsKey(playerID)) {
-			if (owner == -1) {
-				owner = playerID;
-				return true;
-			}
-		}
-		return false;
+		return players.containsKey(playerID) && board.claimLine(gridPos.x, gridPos.y, vertical, playerID);
 	}
 
 	public String toString() {
@@ -152,16 +147,17 @@ public class Line {
 	/**
 	 * A new line - should only be created by a {@link Dot}.
 	 * @param gridPos Grid position of this line's {@link Dot}
-	 * @param grid Grid information
+	 * @param board Ownership data (and grid information)
 	 * @param players Player data
 	 * @param vertical <code>true</code> if this is a vertical line, <code>false</code> if horizontal
 	 */
-	public Line(GridPoint gridPos, Grid grid, ConcurrentHashMap<Integer, Player> players, boolean vertical) {
+	public Line(GridPoint gridPos, Board board, ConcurrentHashMap<Integer, Player> players, boolean vertical) {
 		// Set Relative Location
 		this.gridPos = gridPos;
 
 		// Game Grid Information
-		this.grid = grid;
+		this.board = board;
+		grid = board.getGrid();
 
 		// Initialize Absolute Location and Size
 		panelRect = new Rectangle();
@@ -0,0 +1,114 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs work for one game, one task at a time, in the order it arrived.
+ * <p>
+ * Any thread can hand over work, but only one thread at a time ever runs it,
+ * so the game's state needs no locking of its own. The mailbox borrows a
+ * thread from its {@link Executor} only while it has work, and gives it back
+ * after {@link #batch} tasks, so many mailboxes can share a small pool fairly.
+ * </p>
+ * <p>
+ * Ordinary work is bounded by a capacity ({@link #offer(Runnable)} refuses it
+ * once the mailbox is full), but work that must never be lost (like a
+ * disconnect) can always be {@link #deliver(Runnable) delivered}.
+ * </p>
+ * @see GameServer
+ */
+public class Mailbox implements Runnable {
+	private final AtomicInteger depth = new AtomicInteger();                                  // Tasks waiting to be run
+	private final AtomicInteger peak = new AtomicInteger();                                   // Most tasks ever waiting at once
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);                         // Whether or not a thread has been asked to run us
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>(); // Waiting work
+	private final Executor executor;                                                          // Lends us a thread when there is work
+
+	public final int capacity; // Most ordinary tasks that may wait at once
+
+	/**
+	 * The most tasks run before giving the thread back.
+	 */
+	public static final int batch = 32;
+
+	/**
+	 * Queue work, even if the mailbox is full.
+	 * @param task The work
+	 */
+	public void deliver(Runnable task) {
+		int waiting = depth.incrementAndGet();
+		if (waiting > peak.get())
+			peak.accumulateAndGet(waiting, Math::max);
+		tasks.add(task);
+		if (scheduled.compareAndSet(false, true))
+			executor.execute(this);
+	}
+
+	/**
+	 * How many tasks are waiting to be run.
+	 * @return Current queue depth
+	 */
+	public int depth() {
+		return depth.get();
+	}
+
+	/**
+	 * Queue work, unless the mailbox is full.
+	 * @param task The work
+	 * @return <code>false</code> if there were already {@link #capacity} tasks waiting
+	 */
+	public boolean offer(Runnable task) {
+		if (depth.get() >= capacity)
+			return false;
+		deliver(task);
+		return true;
+	}
+
+	/**
+	 * The deepest the queue has been.
+	 * @return Most tasks ever waiting at once
+	 */
+	public int peak() {
+		return peak.get();
+	}
+
+	/**
+	 * Run waiting work, on the executor's thread.
+	 */
+	public void run() {
+		Runnable task;
+		for (int handled = 0; handled < batch && (task = tasks.poll()) != null; handled++) {
+			depth.decrementAndGet();
+			try {
+				task.run();
+			}
+			catch (Exception e) {
+				System.out.println("Could not handle a message!");
+				e.printStackTrace();
+			}
+		}
+		tick();
+		scheduled.set(false);
+		// More arrived (or we ran out of batch), go to the back of the line
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true))
+			executor.execute(this);
+	}
+
+	/**
+	 * Fires after each batch of tasks, before the thread is given back.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 */
+	public void tick() { }
+
+	/**
+	 * A new, empty mailbox.
+	 * @param executor Lends the mailbox a thread when it has work
+	 * @param capacity Most ordinary tasks that may wait at once
+	 */
+	public Mailbox(Executor executor, int capacity) {
+		this.executor = executor;
+		this.capacity = capacity;
+	}
+}
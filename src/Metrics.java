@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpServer;
+
+import coms.Connection;
+import coms.Protocol;
+
+/**
+ * Everything the server's games have been doing, as metrics.
+ * <p>
+ * Each game's numbers are copied on its own mailbox ({@link GameServer#getStats()}),
+ * so nothing is locked and no game is slowed down between scrapes. A scrape
+ * collects every game's copy, the process's network traffic, and the JVM's
+ * garbage collections, and exposes them two ways:
+ * </p>
+ * <ul>
+ * <li>As <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus text</a>,
+ * at <code>http://localhost:PORT/metrics</code> ({@link #open(int)}, only on the loopback interface).</li>
+ * <li>Through JMX, as the MBean <code>netdot:type=Metrics</code>, which has every
+ * sample as an attribute (named the same as in the text), and a <code>scrape</code>
+ * operation returning the whole text.</li>
+ * </ul>
+ * <p>
+ * Every game's samples are labeled with its name (its room ID, in a {@link GameLobby}).
+ * A game too busy to answer within {@link #timeout} ms is reported with
+ * <code>netdot_game_up 0</code>, and none of its other samples.
+ * </p>
+ * @see GameStats
+ */
+public class Metrics implements DynamicMBean {
+	private HttpServer http; // Serves the text (null until opened)
+	private ObjectName name; // Our JMX registration (null until opened)
+
+	private final Supplier<Map<String, GameServer>> games; // Every game to report, by name
+
+	/**
+	 * Longest time a scrape waits for a game to copy its numbers, in milliseconds.
+	 */
+	public static final long timeout = 1000;
+
+	/**
+	 * One metric, and all of its samples.
+	 */
+	private static class Family {
+		final String help;                                                  // What it measures
+		final String name;                                                  // Metric name
+		final LinkedHashMap<String, Double> samples = new LinkedHashMap<String, Double>(); // Each sample's name and labels, and its value
+		final String type;                                                  // Prometheus type (counter, gauge, histogram, or summary)
+
+		/**
+		 * Add a sample.
+		 * @param suffix Added to the metric's name (<code>_bucket</code>, <code>_sum</code>, ..., or empty)
+		 * @param labels Labels, already formatted (<code>game="1",state="player"</code>, or empty)
+		 * @param value The value
+		 */
+		void add(String suffix, String labels, double value) {
+			samples.put(name + suffix + (labels.isEmpty() ? "" : "{" + labels + "}"), value);
+		}
+
+		void histogram(String labels, Histogram histogram) {
+			String prefix = labels.isEmpty() ? "" : labels + ",";
+			for (int i = 0; i < Histogram.bounds.length; i++)
+				add("_bucket", prefix + "le=\"" + Histogram.bounds[i] / 1e9 + "\"", histogram.cumulative(i));
+			add("_bucket", prefix + "le=\"+Inf\"", histogram.getCount());
+			add("_sum", labels, histogram.getSum() / 1e9);
+			add("_count", labels, histogram.getCount());
+		}
+
+		Family(String name, String type, String help) {
+			this.name = name;
+			this.type = type;
+			this.help = help;
+		}
+	}
+
+	/**
+	 * Take every sample, now.
+	 * @return Every metric, in the order they are reported
+	 */
+	private ArrayList<Family> collect() {
+		Family up = new Family("netdot_game_up", "gauge", "Whether or not the game answered this scrape in time.");
+		Family connections = new Family("netdot_connections", "gauge", "Connected clients, by state.");
+		Family mailbox = new Family("netdot_mailbox_depth", "gauge", "Commands waiting for the game.");
+		Family received = new Family("netdot_messages_received_total", "counter", "Commands answered, by command.");
+		Family handling = new Family("netdot_command_seconds_total", "counter", "Time spent answering commands, by command.");
+		Family sent = new Family("netdot_messages_sent_total", "counter", "Messages queued for clients, by command (once for each client).");
+		Family moves = new Family("netdot_move_seconds", "histogram", "Time taken by each move, from checking it to queuing it for every client.");
+		Family broadcasts = new Family("netdot_broadcast_seconds", "histogram", "Time taken to queue each broadcast message for every client.");
+		Family queued = new Family("netdot_outbound_queue_bytes", "gauge", "Bytes waiting to be sent, by client state.");
+		Family deepest = new Family("netdot_outbound_queue_max_bytes", "gauge", "Most bytes waiting to be sent to any one client.");
+		Family lagging = new Family("netdot_lagging_clients", "gauge", "Clients that can't keep up, missing messages until they are resynced.");
+		Family bytesIn = new Family("netdot_bytes_received_total", "counter", "Bytes read from every connection.");
+		Family bytesOut = new Family("netdot_bytes_sent_total", "counter", "Bytes written to every connection.");
+		Family gc = new Family("jvm_gc_collection_seconds", "summary", "Time spent in garbage collections, by collector.");
+
+		// Every game copies its numbers at once, then they are gathered
+		LinkedHashMap<String, CompletableFuture<GameStats>> copies = new LinkedHashMap<String, CompletableFuture<GameStats>>();
+		games.get().forEach((game, server) -> {
+			CompletableFuture<GameStats> copy = new CompletableFuture<GameStats>();
+			server.mailbox.deliver(() -> copy.complete(server.getStats()));
+			copies.put(game, copy);
+		});
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		copies.forEach((game, copy) -> {
+			String label = "game=\"" + escape(game) + "\"";
+			GameStats stats;
+			try {
+				stats = copy.get(Math.max(end - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+			}
+			catch (Exception e) {
+				up.add("", label, 0);
+				return;
+			}
+			up.add("", label, 1);
+			connections.add("", label + ",state=\"queued\"", stats.queued());
+			connections.add("", label + ",state=\"player\"", stats.players());
+			connections.add("", label + ",state=\"spectator\"", stats.spectators());
+			mailbox.add("", label, stats.mailboxDepth());
+			for (int opcode = 0; opcode < Protocol.commands.length; opcode++) {
+				String command = label + ",command=\"" + (opcode == 0 ? "unknown" : Protocol.commands[opcode]) + "\"";
+				if (stats.received()[opcode] > 0) {
+					received.add("", command, stats.received()[opcode]);
+					handling.add("", command, stats.receivedNanos()[opcode] / 1e9);
+				}
+				if (stats.sent()[opcode] > 0)
+					sent.add("", command, stats.sent()[opcode]);
+			}
+			moves.histogram(label, stats.moves());
+			broadcasts.histogram(label, stats.broadcasts());
+			queued.add("", label + ",state=\"queued\"", stats.queueBytes()[0]);
+			queued.add("", label + ",state=\"player\"", stats.queueBytes()[1]);
+			queued.add("", label + ",state=\"spectator\"", stats.queueBytes()[2]);
+			deepest.add("", label, stats.maxQueueBytes());
+			lagging.add("", label, stats.lagging());
+		});
+
+		bytesIn.add("", "", Connection.getBytesRead());
+		bytesOut.add("", "", Connection.getBytesWritten());
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			String label = "gc=\"" + escape(collector.getName()) + "\"";
+			gc.add("_count", label, Math.max(collector.getCollectionCount(), 0));
+			gc.add("_sum", label, Math.max(collector.getCollectionTime(), 0) / 1e3);
+		}
+
+		ArrayList<Family> families = new ArrayList<Family>();
+		for (Family family : new Family[] { up, connections, mailbox, received, handling, sent, moves, broadcasts, queued, deepest, lagging, bytesIn, bytesOut, gc })
+			families.add(family);
+		return families;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long)value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * Stop serving metrics.
+	 */
+	public void close() {
+		if (http != null)
+			http.stop(0);
+		try {
+			if (name != null)
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch (Exception e) { }
+		http = null;
+		name = null;
+	}
+
+	/**
+	 * Serve metrics over HTTP (on the loopback interface only), and register them with JMX.
+	 * @param port Port to serve <code>/metrics</code> on
+	 * @throws IOException If the port couldn't be bound
+	 */
+	public void open(int port) throws IOException {
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.createContext("/metrics", exchange -> {
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		http.start();
+		try {
+			name = new ObjectName("netdot:type=Metrics");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+		catch (Exception e) {
+			System.out.println("Unable to register metrics with JMX!");
+			System.out.println(e);
+			name = null;
+		}
+		System.out.println("Serving metrics on http://localhost:" + http.getAddress().getPort() + "/metrics");
+	}
+
+	/**
+	 * Every sample, as Prometheus text.
+	 * @return The text exposition format (version 0.0.4)
+	 */
+	public String scrape() {
+		StringBuilder text = new StringBuilder();
+		for (Family family : collect()) {
+			text.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			text.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			family.samples.forEach((sample, value) -> text.append(sample).append(' ').append(format(value)).append('\n'));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Every sample, by name.
+	 * @return Values by sample name and labels (as in the text)
+	 */
+	public LinkedHashMap<String, Double> samples() {
+		LinkedHashMap<String, Double> samples = new LinkedHashMap<String, Double>();
+		for (Family family : collect())
+			samples.putAll(family.samples);
+		return samples;
+	}
+
+	// DynamicMBean: every sample is a read-only attribute
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Double value = samples().get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		LinkedHashMap<String, Double> samples = samples();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes)
+			if (samples.containsKey(attribute))
+				list.add(new Attribute(attribute, samples.get(attribute)));
+		return list;
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Family family : collect())
+			for (String sample : family.samples.keySet())
+				attributes.add(new MBeanAttributeInfo(sample, Double.class.getName(), family.help, true, false, false));
+		MBeanOperationInfo scrape = new MBeanOperationInfo("scrape", "Every sample, as Prometheus text.",
+			new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO);
+		return new MBeanInfo(getClass().getName(), "NetDot server metrics.", attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+			null, new MBeanOperationInfo[] { scrape }, null);
+	}
+
+	@Override
+	public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+		if (action.equals("scrape"))
+			return scrape();
+		throw new ReflectionException(new NoSuchMethodException(action));
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * Metrics for some games. (Call {@link #open(int)} to serve them.)
+	 * @param games Every game to report, by name (asked again at every scrape, so games may come and go)
+	 */
+	public Metrics(Supplier<Map<String, GameServer>> games) {
+		this.games = games;
+	}
+}
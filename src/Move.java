@@ -0,0 +1,29 @@
+/**
+ * A line to claim: the point that owns it, and which of its two lines.
+ * @see Strategy
+ */
+public class Move {
+	public final int x;            // The grid x coordinate of the point that owns the line
+	public final int y;            // The grid y coordinate of the point that owns the line
+	public final boolean vertical; // <code>true</code> for the line below the point, <code>false</code> for the line to its right
+
+	/**
+	 * Describe the move the way <code>game-play</code> does.
+	 * @return <code>X,Y hor|ver</code>
+	 */
+	public String toString() {
+		return x + "," + y + " " + (vertical ? "ver" : "hor");
+	}
+
+	/**
+	 * A new move.
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 */
+	public Move(int x, int y, boolean vertical) {
+		this.x = x;
+		this.y = y;
+		this.vertical = vertical;
+	}
+}
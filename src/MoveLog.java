@@ -0,0 +1,102 @@
+/**
+ * The most recent moves of a game, numbered in the order they were made.
+ * <p>
+ * Sequence numbers only ever go up (even across games), so a client that
+ * remembers the last one it saw can be sent just the moves it missed. Only
+ * the last {@link #capacity} moves are kept, and moves from before the board
+ * was last reset are forgotten, so older gaps need a full snapshot instead.
+ * </p>
+ * @see GameServer
+ */
+public class MoveLog {
+	private long first = 1; // Sequence number of the oldest kept move
+	private long last = 0;  // Sequence number of the latest move (0 before any)
+
+	private final int[] owners = new int[capacity];            // playerID that made each move
+	private final int[] xs = new int[capacity];                // Grid x coordinate of each move
+	private final int[] ys = new int[capacity];                // Grid y coordinate of each move
+	private final boolean[] verticals = new boolean[capacity]; // Whether or not each move was a vertical line
+
+	/**
+	 * How many moves are kept.
+	 */
+	public static final int capacity = 4096;
+
+	/**
+	 * Record a move.
+	 * @param playerID The player that made the move
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return The move's sequence number
+	 */
+	public long add(int playerID, int x, int y, boolean vertical) {
+		last++;
+		if (last - first >= capacity)
+			first++;
+		int index = (int)(last % capacity);
+		owners[index] = playerID;
+		xs[index] = x;
+		ys[index] = y;
+		verticals[index] = vertical;
+		return last;
+	}
+
+	/**
+	 * Forget every move. (Sequence numbers carry on from where they were.)
+	 */
+	public void clear() {
+		first = last + 1;
+	}
+
+	/**
+	 * Whether or not every move after <code>seq</code> is still kept.
+	 * @param seq The last sequence number a client saw
+	 * @return <code>true</code> if {@link #since(long)} can bring that client up to date
+	 */
+	public boolean covers(long seq) {
+		return seq >= first - 1 && seq <= last;
+	}
+
+	/**
+	 * Sequence number of the latest move.
+	 * @return The number (0 if no moves have been made yet)
+	 */
+	public long last() {
+		return last;
+	}
+
+	/**
+	 * Carry on numbering from a sequence number, forgetting every move. (When recovering a game.)
+	 * @param seq The sequence number of the latest move
+	 */
+	public void resume(long seq) {
+		last = seq;
+		first = seq + 1;
+	}
+
+	/**
+	 * A kept move, as it was broadcast.
+	 * @param seq The move's sequence number
+	 * @return <code>game-play PLAYER X,Y hor|ver SEQ</code>
+	 */
+	public String move(long seq) {
+		int index = (int)(seq % capacity);
+		return "game-play " + owners[index] + " " + xs[index] + "," + ys[index] + " " + (verticals[index] ? "ver" : "hor") + " " + seq;
+	}
+
+	/**
+	 * Every kept move after a sequence number.
+	 * @param seq The last sequence number a client saw (must be {@link #covers(long) covered})
+	 * @return The moves, one per line (empty if there are none)
+	 */
+	public String since(long seq) {
+		StringBuilder moves = new StringBuilder();
+		for (long next = seq + 1; next <= last; next++) {
+			if (moves.length() > 0)
+				moves.append('\n');
+			moves.append(move(next));
+		}
+		return moves.toString();
+	}
+}
@@ -481,6 +481,10 @@ public class NetDot extends JFrame {
 		return end;
 	}
 
+	public boolean isLogging() {
+		return networkTraffic.isSelected();
+	}
+
 	public void network(String message) {
 		if (networkTraffic.isSelected())
 			System.out.println(message);
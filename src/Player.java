@@ -10,9 +10,11 @@ import coms.Client;
 public class Player {
 	private Integer boxes;                // How many boxes this player owns
 	private Client client;                // The client object for this player (shouldn't be used by clients...)
-	private Color color;                  // This player's display color
+	private Color color;                  // This player's display color (created from rgb on demand)
 	private Boolean disconnected = false; // Whether or not this player has disconnected (shouldn't be used by clients...)
 	private String name;                  // The player's name
+	private Integer rgb;                  // This player's display color, as packed RGB (AWT-free)
+	private String token;                 // Secret that lets this player's client rejoin after losing its connection (shouldn't be used by clients...)
 
 	/**
 	 * Increment the player's score by one. (Meaning they claimed one box.)
@@ -30,12 +32,11 @@ public class Player {
 	}
 
 	/**
-	 * Consider this player to be disconnected. (Changes their name too.)
+	 * Consider this player to be disconnected. (Changes their displayed name too, until they {@link #reconnect(Client)}.)
 	 */
 	public void disconnect() {
 		disconnected = true;
 		//reset();
-		name = "Disconnected";
 	}
 
 	/**
@@ -55,6 +56,19 @@ public class Player {
 		return client;
 	}
 
+	/**
+	 * The player's name, even while they are disconnected.
+	 * @return The name they chose
+	 * @see #toString()
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
 	public Integer getClientID() {
 		return client == null ? 0 : client.clientID;
 	}
@@ -65,9 +79,31 @@ public class Player {
 	 * @see Player#setColor(Color)
 	 */
 	public Color getColor() {
+		if (color == null && rgb != null)
+			color = new Color(rgb);
 		return color;
 	}
 
+	/**
+	 * This player's color, as a packed RGB value.
+	 * <br>
+	 * Unlike {@link #getColor()}, this never loads any AWT classes, and is safe to use on a headless server.
+	 * @return <code>rgb</code> if one was set, <code>null</code> otherwise
+	 * @see Color#getRGB()
+	 */
+	public Integer getRGB() {
+		return rgb;
+	}
+
+	/**
+	 * Consider this player to be connected again, keeping their name, color, and score.
+	 * @param client The player's new communication client (<code>null</code> for clients)
+	 */
+	public void reconnect(Client client) {
+		setClient(client);
+		disconnected = false;
+	}
+
 	/**
 	 * Reset this player's score.
 	 */
@@ -100,12 +136,27 @@ public class Player {
 		this.client = client;
 	}
 
+	public void setToken(String token) {
+		this.token = token;
+	}
+
 	/**
 	 * Set this player's color.
 	 * @param newColor The player's new color
 	 */
 	public void setColor(Color newColor) {
 		color = newColor;
+		rgb = newColor == null ? null : newColor.getRGB();
+	}
+
+	/**
+	 * Set this player's color, from a packed RGB value.
+	 * @param newRGB The player's new color
+	 * @see #getRGB()
+	 */
+	public void setRGB(Integer newRGB) {
+		color = null;
+		rgb = newRGB;
 	}
 
 	/**
@@ -119,7 +170,7 @@ public class Player {
 	}
 
 	public String toString() {
-		return name;
+		return disconnected ? "Disconnected" : name;
 	}
 
 	/**
@@ -139,7 +190,7 @@ public class Player {
 	public Player(String name, Client client) {
 		setName(name);
 		setClient(client);
-		setColor(null);
+		setRGB(null);
 		reset();
 	}
 }
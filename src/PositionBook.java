@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import grid.Board;
+
+/**
+ * A persistent, memory-mapped store of evaluated positions, keyed by
+ * {@link #key(Board)}, with a small in-memory cache in front.
+ * <p>
+ * A key is the position's {@link Board#getCanonicalHash()} mixed with the
+ * size of its grid, since the same lines claimed on different grids are
+ * different positions. So one book can be shared by bots playing on any
+ * number of grids.
+ * </p>
+ * <p>
+ * Entries are packed the same way as {@link TranspositionTable} entries
+ * (value, bound, depth and best move), except that the move is a line
+ * packed the way {@link Board#transform(int, int, int, boolean)} packs it,
+ * the way round the canonical position is. So one entry answers for every
+ * rotation and reflection of a position.
+ * </p>
+ * <p>
+ * The file is a fixed number of slots (its size cap): a 16 byte header
+ * ("NDBK", version, log2 of the slot count, slots used), then 16 bytes
+ * (hash, entry) per slot. A position can be in any of a few slots after its
+ * home slot. When they are all taken, the shallowest entry is replaced.
+ * Writes go straight into the mapped file, so they survive the process
+ * dying. {@link #close()} forces them to disk.
+ * </p>
+ * <p>
+ * The front cache holds up to a set number of entries that were recently
+ * looked up or stored, and evicts with the CLOCK algorithm. An entry gets a
+ * second chance if it was used since the hand last passed it, so
+ * frequently used positions stay in memory without re-ordering anything on
+ * each hit. Every method is synchronized, so one book can be shared by any
+ * number of bots.
+ * </p>
+ * @see SolverStrategy
+ */
+public class PositionBook {
+	private long cacheHits = 0;   // Lookups answered by the front cache
+	private int cached = 0;       // Entries in the front cache
+	private long diskHits = 0;    // Lookups answered by the mapped file
+	private int hand = 0;         // Next front cache slot the CLOCK hand looks at
+	private long misses = 0;      // Lookups of positions that weren't in the book
+	private int used;             // Slots of the mapped file in use
+
+	private final MappedByteBuffer buffer;                                  // The mapped book file
+	private final long[] cacheEntries;                                      // Entry in each front cache slot
+	private final long[] cacheKeys;                                         // Position in each front cache slot
+	private final HashMap<Long, Integer> index = new HashMap<Long, Integer>(); // Front cache slot of each cached position
+	private final int mask;                                                 // Slot index bits of the mapped file
+	private final boolean[] referenced;                                     // Whether or not each front cache slot was used since the hand passed it
+
+	/**
+	 * How many slots after its home slot a position may be stored in.
+	 */
+	public static final int probes = 8;
+
+	/**
+	 * Version of the file format.
+	 */
+	public static final int version = 2;
+
+	private static final int header = 16;
+	private static final int magic = 0x4E44424B; // "NDBK"
+
+	// Keep an entry in the front cache, evicting one that hasn't been used lately if it is full
+	private void admit(long key, long entry) {
+		Integer slot = index.get(key);
+		if (slot == null) {
+			if (cached < cacheKeys.length)
+				slot = cached++;
+			else {
+				while (referenced[hand]) {
+					referenced[hand] = false;
+					hand = (hand + 1) % cacheKeys.length;
+				}
+				slot = hand;
+				hand = (hand + 1) % cacheKeys.length;
+				index.remove(cacheKeys[slot]);
+			}
+			index.put(key, slot);
+			cacheKeys[slot] = key;
+		}
+		cacheEntries[slot] = entry;
+		referenced[slot] = true;
+	}
+
+	/**
+	 * Force every entry to disk.
+	 */
+	public synchronized void close() {
+		buffer.force();
+	}
+
+	/**
+	 * Look up a position.
+	 * @param key The position's {@link #key(Board)}
+	 * @return Its entry, or 0 if it isn't in the book
+	 */
+	public synchronized long get(long key) {
+		if (cacheKeys.length > 0) {
+			Integer slot = index.get(key);
+			if (slot != null) {
+				cacheHits++;
+				referenced[slot] = true;
+				return cacheEntries[slot];
+			}
+		}
+		for (int probe = 0; probe < probes; probe++) {
+			int offset = offset((int)key + probe);
+			long entry = buffer.getLong(offset + 8);
+			if (entry == 0)
+				break;
+			if (buffer.getLong(offset) == key) {
+				diskHits++;
+				if (cacheKeys.length > 0)
+					admit(key, entry);
+				return entry;
+			}
+		}
+		misses++;
+		return 0;
+	}
+
+	/**
+	 * A position's key: its canonical hash, mixed with the size of its grid.
+	 * @param board The position
+	 * @return The same for every rotation and reflection of the position (and only on the same size of grid)
+	 */
+	public static long key(Board board) {
+		long size = (long)board.getGrid().width << 32 | board.getGrid().height;
+		return board.getCanonicalHash() ^ size * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * How many positions are in the book.
+	 * @return Slots in use in the mapped file
+	 */
+	public synchronized int size() {
+		return used;
+	}
+
+	/**
+	 * How many positions the book can hold.
+	 * @return Slots in the mapped file
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	private int offset(int slot) {
+		return header + (slot & mask) * 16;
+	}
+
+	/**
+	 * Remember a position.
+	 * @param key The position's {@link #key(Board)}
+	 * @param entry Its entry (from {@link TranspositionTable#entry(int, int, int, int)})
+	 */
+	public synchronized void put(long key, long entry) {
+		// The position's own slot, else an empty one, else the shallowest
+		int victim = -1;
+		int shallowest = Integer.MAX_VALUE;
+		for (int probe = 0; probe < probes; probe++) {
+			int offset = offset((int)key + probe);
+			long old = buffer.getLong(offset + 8);
+			if (old == 0 || buffer.getLong(offset) == key) {
+				victim = offset;
+				break;
+			}
+			if (TranspositionTable.depth(old) < shallowest) {
+				shallowest = TranspositionTable.depth(old);
+				victim = offset;
+			}
+		}
+		if (buffer.getLong(victim + 8) == 0)
+			buffer.putInt(12, ++used);
+		buffer.putLong(victim, key);
+		buffer.putLong(victim + 8, entry);
+		if (cacheKeys.length > 0)
+			admit(key, entry);
+	}
+
+	@Override
+	public synchronized String toString() {
+		long lookups = cacheHits + diskHits + misses;
+		return String.format("%d/%d positions, %d lookups (%.1f%% cached, %.1f%% from disk)", used, capacity(), lookups,
+			lookups == 0 ? 0 : cacheHits * 100.0 / lookups, lookups == 0 ? 0 : diskHits * 100.0 / lookups);
+	}
+
+	/**
+	 * Open (or create) a book.
+	 * @param file The book file
+	 * @param bits Log2 of the number of positions it can hold, for a new book (each takes 16 bytes on disk)
+	 * @param cacheSize How many positions to keep in the front cache (0 for none)
+	 * @throws IOException If the file could not be mapped, or isn't a book of the same version
+	 */
+	public PositionBook(Path file, int bits, int cacheSize) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() == 0) {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, header + (16L << bits));
+				buffer.putInt(0, magic);
+				buffer.putInt(4, version);
+				buffer.putInt(8, bits);
+			}
+			else
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		}
+		if (buffer.capacity() < header || buffer.getInt(0) != magic || buffer.getInt(4) != version)
+			throw new IOException("Not a position book (version " + version + ")");
+		bits = buffer.getInt(8);
+		if (bits < 0 || bits > 26 || buffer.capacity() != header + (16L << bits))
+			throw new IOException("Position book is the wrong size");
+		mask = (1 << bits) - 1;
+		used = buffer.getInt(12);
+		cacheKeys = new long[cacheSize];
+		cacheEntries = new long[cacheSize];
+		referenced = new boolean[cacheSize];
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+
+import grid.Board;
+import grid.Grid;
+
+/**
+ * Writes a game to a compact binary replay file, one move at a time.
+ * <p>
+ * The file is a header, then one record per move, then a seek index:
+ * </p>
+ * <pre>
+ * replay   = "NDRP" version varint(width) varint(height) varint(players) player* move* 0 index?
+ * player   = zigzag-varint(playerID) string(name) 0 | 1 int32(rgb)
+ * move     = varint(zigzag(playerID) + 1) varint((height * x + y) &lt;&lt; 1 | vertical)
+ * index    = varint(keyframes) keyframe* int64(offset of index) "NDRX"
+ * keyframe = varint(moves) varint(offset of next move) string(board snapshot)
+ * string   = varint(length) utf-8
+ * </pre>
+ * <p>
+ * So a move takes 2 or 3 bytes. Every {@link #keyframeInterval} moves (more
+ * on a big board, so there are at most {@link #maxKeyframes}), the index
+ * keeps a {@link Board#snapshot()} and where the next move starts, so a
+ * reader can jump to any move by replaying fewer than that many. A replay
+ * cut short (because the server died) has no index, but every move written
+ * before that can still be read in order.
+ * </p>
+ * @see ReplayReader
+ * @see GameServer#replays
+ */
+public class Replay implements Closeable {
+	private int moves = 0; // Moves written so far
+
+	private final int interval; // Moves between keyframes
+
+	private final ArrayList<Long> offsets = new ArrayList<Long>();     // Where the move after each keyframe starts
+	private final ArrayList<String> snapshots = new ArrayList<String>(); // The board at each keyframe
+	private final DataOutputStream out;                                  // Writes the replay file
+	private final Path file;                                             // Replay file
+	private final int height;                                            // Grid height (for packing line indices)
+
+	// Constants
+	public static final byte[] magic = "NDRP".getBytes(StandardCharsets.US_ASCII);      // Start of every replay
+	public static final byte[] indexMagic = "NDRX".getBytes(StandardCharsets.US_ASCII); // End of a replay with a seek index
+	public static final int version = 1;                                                   // Format version
+	public static final int keyframeInterval = 256;                                        // Fewest moves between seek index keyframes
+	public static final int maxKeyframes = 32;                                             // Most keyframes in a game's seek index
+
+	/**
+	 * Write the end of the moves, and the seek index.
+	 * @throws IOException If the file could not be written
+	 */
+	public void close() throws IOException {
+		out.write(0);
+		long index = out.size();
+		writeVarint(out, snapshots.size());
+		for (int i = 0; i < snapshots.size(); i++) {
+			writeVarint(out, (i + 1) * interval);
+			writeVarint(out, offsets.get(i));
+			writeString(out, snapshots.get(i));
+		}
+		out.writeLong(index);
+		out.write(indexMagic);
+		out.close();
+	}
+
+	/**
+	 * Record a move that was just made.
+	 * @param playerID The player that made the move
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @param board The board, after the move (for keyframes)
+	 * @throws IOException If the file could not be written
+	 */
+	public void move(int playerID, int x, int y, boolean vertical, Board board) throws IOException {
+		writeVarint(out, zigzag(playerID) + 1);
+		writeVarint(out, (height * x + y) << 1 | (vertical ? 1 : 0));
+		if (++moves % interval == 0) {
+			offsets.add((long)out.size());
+			snapshots.add(board.snapshot());
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * How many moves have been recorded.
+	 * @return Number of moves
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, utf8.length);
+		out.write(utf8);
+	}
+
+	static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Start a replay, writing its header.
+	 * @param file Where to write the replay (replaced if it exists)
+	 * @param grid The game's grid
+	 * @param players Every player in the game, by playerID
+	 * @throws IOException If the file could not be written
+	 */
+	public Replay(Path file, Grid grid, Map<Integer, Player> players) throws IOException {
+		this.file = file;
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 8192));
+		height = grid.height;
+		interval = Math.max(keyframeInterval, grid.width * grid.height * 2 / maxKeyframes);
+		out.write(magic);
+		out.write(version);
+		writeVarint(out, grid.width);
+		writeVarint(out, grid.height);
+		writeVarint(out, players.size());
+		for (Map.Entry<Integer, Player> entry : players.entrySet()) {
+			writeVarint(out, zigzag(entry.getKey()));
+			writeString(out, entry.getValue().getName());
+			Integer rgb = entry.getValue().getRGB();
+			out.write(rgb == null ? 0 : 1);
+			if (rgb != null)
+				out.writeInt(rgb);
+		}
+	}
+}
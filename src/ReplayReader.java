@@ -0,0 +1,324 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import grid.Board;
+import grid.Grid;
+
+/**
+ * Streams the moves out of a {@link Replay} file.
+ * <p>
+ * Moves are read one at a time through a small buffer, so a replay of any
+ * size can be played back at full speed onto a {@link Board}, or as
+ * <code>game-play</code> commands to drive a {@link GameManager} (after the
+ * commands from {@link #header()}). {@link #seek(Board, int)} uses the
+ * replay's index to jump straight to any move.
+ * </p>
+ * @see Replay
+ */
+public class ReplayReader implements Closeable {
+	private boolean vertical; // Whether or not the last move read was a vertical line
+	private int moves = 0;    // Moves read so far
+	private int playerID;     // The player that made the last move read
+	private int total = -1;   // Moves in the whole replay (-1 until known)
+	private int x;            // Grid x coordinate of the last move read
+	private int y;            // Grid y coordinate of the last move read
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);                          // Bytes read ahead of the current move
+	private final FileChannel channel;                                                        // Replay file
+	private final Grid grid;                                                                  // The game's grid
+	private final int[] keyframes;                                                            // Moves made before each keyframe
+	private final long[] offsets;                                                             // Where the move after each keyframe starts
+	private final LinkedHashMap<Integer, Player> players = new LinkedHashMap<Integer, Player>(); // Every player in the game
+	private final String[] snapshots;                                                         // The board at each keyframe
+	private final long start;                                                                 // Where the first move starts
+
+	/**
+	 * Close the replay file.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * How many moves there are in the replay.
+	 * @return Number of moves, or -1 if the replay has no index (it was cut short), and they haven't all been read yet
+	 */
+	public int getMoves() {
+		return total;
+	}
+
+	public Map<Integer, Player> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * How many moves have been read.
+	 * @return Number of the last move read (0 before the first)
+	 */
+	public int getPosition() {
+		return moves;
+	}
+
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * Commands that set up a {@link GameManager} for this replay's game.
+	 * @return The commands, one per line
+	 */
+	public String header() {
+		StringBuilder header = new StringBuilder("grid-size " + grid + "\ngrid-reset");
+		players.forEach((id, player) -> {
+			header.append("\nplayer-add ").append(id).append(' ').append(player.getName());
+			if (player.getRGB() != null)
+				header.append("\nplayer-color ").append(id).append(' ').append(player.getRGB());
+		});
+		return header.append("\ngame-start").toString();
+	}
+
+	public boolean isVertical() {
+		return vertical;
+	}
+
+	/**
+	 * The last move read, as it was broadcast.
+	 * @return <code>game-play PLAYER X,Y hor|ver MOVE</code>
+	 */
+	public String message() {
+		return "game-play " + playerID + " " + x + "," + y + " " + (vertical ? "ver" : "hor") + " " + moves;
+	}
+
+	/**
+	 * Read the next move.
+	 * @return <code>false</code> if there are no more
+	 * @throws IOException If the replay could not be read, or is corrupt
+	 */
+	public boolean next() throws IOException {
+		// (The seek index comes after the last move)
+		if (moves == total)
+			return false;
+		int player = readVarint(true);
+		if (player <= 0) {
+			if (total == -1)
+				total = moves;
+			return false;
+		}
+		int line = readVarint(false);
+		player--;
+		playerID = (player >>> 1) ^ -(player & 1);
+		vertical = (line & 1) != 0;
+		x = (line >>> 1) / grid.height;
+		y = (line >>> 1) % grid.height;
+		moves++;
+		return true;
+	}
+
+	/**
+	 * Read the next move, and make it on a board.
+	 * @param board The board to play on (at the position of the last move read)
+	 * @return The result of {@link Board#play(int, int, int, boolean)}, or {@link Board#INVALID} if there are no more moves
+	 * @throws IOException If the replay could not be read, or is corrupt
+	 */
+	public int play(Board board) throws IOException {
+		return next() ? board.play(playerID, x, y, vertical) : Board.INVALID;
+	}
+
+	private void position(long offset, int moves) throws IOException {
+		channel.position(offset);
+		buffer.clear().flip();
+		this.moves = moves;
+	}
+
+	private int read() throws IOException {
+		if (!buffer.hasRemaining()) {
+			buffer.clear();
+			int count = channel.read(buffer);
+			buffer.flip();
+			if (count <= 0)
+				return -1;
+		}
+		return buffer.get() & 0xFF;
+	}
+
+	private int readVarint(boolean endAllowed) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = read();
+			if (b == -1) {
+				// A replay cut short ends at its last whole move
+				if (shift == 0 && endAllowed)
+					return 0;
+				throw new EOFException("Replay ends in the middle of a move");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private String readString() throws IOException {
+		byte[] utf8 = new byte[readVarint(false)];
+		for (int i = 0; i < utf8.length; i++) {
+			int b = read();
+			if (b == -1)
+				throw new EOFException("Replay ends in the middle of a string");
+			utf8[i] = (byte)b;
+		}
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Jump to just after a move, setting a board to how it was then.
+	 * <p>
+	 * Starts from the closest keyframe before the move (or from where the
+	 * reader already is, if that is closer), so only the moves between two
+	 * keyframes are ever replayed.
+	 * </p>
+	 * @param board A board of the same size (it is overwritten, unless the reader is already closer)
+	 * @param move How many moves should have been made (clamped to the end of the replay)
+	 * @throws IOException If the replay could not be read, or is corrupt
+	 */
+	public void seek(Board board, int move) throws IOException {
+		int keyframe = Arrays.binarySearch(keyframes, move);
+		if (keyframe < 0)
+			keyframe = -keyframe - 2;
+		int from = keyframe < 0 ? 0 : keyframes[keyframe];
+		if (move < moves || from > moves) {
+			if (keyframe < 0) {
+				board.reset();
+				position(start, 0);
+			}
+			else {
+				board.restore(snapshots[keyframe]);
+				position(offsets[keyframe], from);
+			}
+		}
+		while (moves < move && play(board) != Board.INVALID);
+	}
+
+	/**
+	 * Scan a replay at full speed. (Usage: <code>--replay FILE [MOVE]</code>)
+	 * <p>
+	 * Prints the game, how quickly every move was read and played, and the
+	 * score at the given move (the end of the game by default).
+	 * </p>
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: --replay FILE [MOVE]");
+			return;
+		}
+		try (ReplayReader reader = new ReplayReader(Path.of(args[0]))) {
+			Board board = new Board(reader.getGrid());
+			System.out.println(reader.getGrid() + " grid, players: " + reader.getPlayers().values());
+
+			long began = System.nanoTime();
+			while (reader.play(board) != Board.INVALID);
+			long elapsed = Math.max(System.nanoTime() - began, 1);
+			System.out.println(reader.getPosition() + " moves (" + board.getClaimed() + " boxes claimed) read in "
+				+ elapsed / 1000 + " us, " + (long)(reader.getPosition() * 1e9 / elapsed) + " moves/s");
+
+			int move = args.length > 1 ? Integer.parseInt(args[1]) : reader.getPosition();
+			began = System.nanoTime();
+			reader.seek(board, move);
+			System.out.println("Seeked to move " + reader.getPosition() + " in " + (System.nanoTime() - began) / 1000 + " us");
+
+			Standings standings = new Standings();
+			reader.getGrid().forEach(pnt -> {
+				Player owner = reader.getPlayers().get(board.getBox(pnt.x, pnt.y));
+				if (owner != null)
+					standings.add(owner, 1);
+			});
+			reader.getPlayers().values().forEach(player -> System.out.println(player + ": " + player.score()));
+			System.out.println(standings);
+		}
+		catch (Exception e) {
+			System.out.println("Unable to read the replay!");
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * Open a replay, and read its header and seek index.
+	 * @param file The replay file
+	 * @throws IOException If the file could not be read, or isn't a replay
+	 */
+	public ReplayReader(Path file) throws IOException {
+		channel = FileChannel.open(file);
+		buffer.flip();
+		try {
+			byte[] magic = new byte[Replay.magic.length];
+			for (int i = 0; i < magic.length; i++)
+				magic[i] = (byte)read();
+			if (!Arrays.equals(magic, Replay.magic) || read() != Replay.version)
+				throw new IOException("Not a replay (or an unsupported version)");
+			grid = new Grid(readVarint(false), readVarint(false));
+			for (int count = readVarint(false); count > 0; count--) {
+				int id = readVarint(false);
+				Player player = new Player(readString());
+				if (read() == 1) {
+					int rgb = 0;
+					for (int i = 0; i < 4; i++)
+						rgb = rgb << 8 | read();
+					player.setRGB(rgb);
+				}
+				players.put((id >>> 1) ^ -(id & 1), player);
+			}
+			start = channel.position() - buffer.remaining();
+
+			// The index is at the end, if the replay was finished
+			ByteBuffer trailer = ByteBuffer.allocate(8 + Replay.indexMagic.length);
+			long size = channel.size();
+			int[] keyframes = new int[0];
+			long[] offsets = new long[0];
+			String[] snapshots = new String[0];
+			if (size - trailer.capacity() > start && channel.read(trailer, size - trailer.capacity()) == trailer.capacity()
+				&& Arrays.equals(Arrays.copyOfRange(trailer.array(), 8, trailer.capacity()), Replay.indexMagic)) {
+				position(trailer.getLong(0), 0);
+				int count = readVarint(false);
+				keyframes = new int[count];
+				offsets = new long[count];
+				snapshots = new String[count];
+				for (int i = 0; i < count; i++) {
+					keyframes[i] = readVarint(false);
+					offsets[i] = readVarint(false);
+					snapshots[i] = readString();
+				}
+				// Count the moves after the last keyframe
+				position(count > 0 ? offsets[count - 1] : start, count > 0 ? keyframes[count - 1] : 0);
+				while (next());
+			}
+			this.keyframes = keyframes;
+			this.offsets = offsets;
+			this.snapshots = snapshots;
+			position(start, 0);
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e instanceof IOException ? (IOException)e : new IOException("Corrupt replay", e);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+import java.util.ArrayList;
+
+import grid.Board;
+
+/**
+ * Takes any box it can, and otherwise avoids giving away the third side of a
+ * box, for as long as that is possible.
+ */
+public class SafeStrategy extends GreedyStrategy {
+	@Override
+	public Move choose(Board board, int playerID) {
+		Move capture = Strategy.capture(board);
+		if (capture != null)
+			return capture;
+		ArrayList<Move> free = Strategy.free(board);
+		ArrayList<Move> safe = new ArrayList<Move>();
+		for (Move move : free)
+			if (Strategy.safe(board, move))
+				safe.add(move);
+		if (!safe.isEmpty())
+			return safe.get(random.nextInt(safe.size()));
+		return free.isEmpty() ? null : free.get(random.nextInt(free.size()));
+	}
+
+	@Override
+	public String toString() {
+		return "safe";
+	}
+}
@@ -0,0 +1,633 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import grid.Board;
+import grid.Grid;
+
+/**
+ * Searches for the best move on a {@link Board}.
+ * <p>
+ * A position's value is how many more of the remaining boxes the player to
+ * move can take than the other player, if both play perfectly (who owns the
+ * lines doesn't matter, only which are claimed). The solver finds it with
+ * iterative deepening alpha-beta search:
+ * </p>
+ * <ul>
+ * <li>Positions are remembered in a {@link TranspositionTable}, keyed by
+ * {@link Board#getCanonicalHash()} (kept up to date as each move is made and
+ * unmade), so a position that is a rotation or reflection of one already
+ * searched is found too. Best moves are stored the way round the canonical
+ * position is.</li>
+ * <li>Moves are tried best first: the table's move, then captures, then safe
+ * moves (which don't give away a box), then sacrifices.</li>
+ * <li>A box whose capture can't hand the other player another box is always
+ * taken straight away.</li>
+ * <li>Once every box has exactly two sides, the board is just chains and
+ * loops, and its value is worked out from their lengths instead of searched
+ * (the other player either takes all of whatever is opened, or keeps control
+ * by leaving the last 2 boxes of a chain, or 4 of a loop).</li>
+ * </ul>
+ * <p>
+ * Each search stops when its time budget runs out, and gives the best move
+ * from the deepest search that finished. Small endgames are usually solved
+ * (searched to the end) well within the budget.
+ * </p>
+ * <p>
+ * With more than one {@link #threads thread}, the root is split on a
+ * {@link ForkJoinPool} ("young brothers wait"): the first move is searched
+ * on its own to get a bound, then every other move is searched at once, each
+ * on its own copy of the position, starting from the best bound found so
+ * far. The threads share the transposition table (and the chain and loop
+ * endgames), so what one of them learns the others can use.
+ * </p>
+ * @see SolverStrategy
+ */
+public class Solver {
+	private volatile boolean aborted; // Whether or not the current search ran out of time
+	private long deadline;            // When the current search must stop (System.nanoTime())
+	private int depth;                // Depth of the last search that finished
+	private long elapsed;             // How long the last solve() took, in nanoseconds
+	private ForkJoinPool pool;        // Searches the root in parallel (created when first needed)
+	private boolean solved;           // Whether or not the last solve() searched to the end of the game
+	private int value;                // Value of the root from the last search that finished
+
+	private final int[][] boxLines;      // The 4 lines around each box (top, bottom, left, right)
+	private final ConcurrentHashMap<String, Integer> endgames = new ConcurrentHashMap<String, Integer>(); // Values of chain and loop endgames, by their lengths
+	private final Grid grid;             // The grid being solved (a copy, so it never changes size under us)
+	private final int[][] lineBoxes;     // The boxes on either side of each line (-1 if there isn't one)
+	private final int[] lineX;           // Grid x coordinate of the point that owns each line
+	private final int[] lineY;           // Grid y coordinate of the point that owns each line
+	private final boolean[] lineVertical; // Whether or not each line is vertical
+	private final int[][] lineMaps;      // Where each line goes under each symmetry
+	private final Search root;           // The position being solved (copied for each parallel search)
+	private final int symmetries;        // How many ways the grid can be rotated or reflected onto itself
+	private final long[][] zobrist;      // Random bits for each claimed line, under each symmetry (the same as Board's)
+
+	public final TranspositionTable table; // Positions already searched (kept between searches, and shared by every thread)
+
+	public boolean analysis = true; // Whether or not to use chain analysis (forced captures and chain/loop endgames)
+	public int threads = 1;         // How many threads to search with
+
+	/**
+	 * Value of a position that isn't a chain and loop endgame.
+	 */
+	private static final int NONE = Integer.MIN_VALUE;
+
+	/**
+	 * The value of a chain and loop endgame, for the player who has to open one of them.
+	 * @param components Sorted lengths of each chain (and negated lengths of each loop)
+	 */
+	private int endgame(int[] components) {
+		if (components.length == 0)
+			return 0;
+		String key = Arrays.toString(components);
+		Integer known = endgames.get(key);
+		if (known != null)
+			return known;
+
+		int best = NONE;
+		for (int i = 0; i < components.length; i++) {
+			// Opening any one of a set of equal components is the same
+			if (i > 0 && components[i] == components[i - 1])
+				continue;
+			int[] rest = new int[components.length - 1];
+			System.arraycopy(components, 0, rest, 0, i);
+			System.arraycopy(components, i + 1, rest, i, rest.length - i);
+			int after = endgame(rest);
+			int length = Math.abs(components[i]);
+			// The other player takes everything (and has to open the next one), or keeps control
+			int opened = -(length + after);
+			if (components[i] < 0)
+				opened = Math.min(opened, 8 - length + after);
+			else if (length >= 3)
+				opened = Math.min(opened, 4 - length + after);
+			best = Math.max(best, opened);
+		}
+		endgames.put(key, best);
+		return best;
+	}
+
+	private static boolean contains(int[] list, int count, int line) {
+		for (int i = 0; i < count; i++)
+			if (list[i] == line)
+				return true;
+		return false;
+	}
+
+	// The table's move goes before everything
+	private static int order(int[] list, int count, int tableMove) {
+		for (int i = 0; i < count; i++) {
+			if (list[i] == tableMove) {
+				System.arraycopy(list, 0, list, 1, i);
+				list[0] = tableMove;
+				break;
+			}
+		}
+		return count;
+	}
+
+	// The table's move is stored the way round the canonical position is
+	private int tableMove(long entry, int symmetry) {
+		int move = entry == 0 ? -1 : TranspositionTable.move(entry);
+		return move == -1 ? -1 : lineMaps[Board.inverse(symmetry)][move];
+	}
+
+	/**
+	 * How deep the last search went.
+	 * @return The depth (in moves) of the last search that finished
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * How long the last search took.
+	 * @return Milliseconds
+	 */
+	public long getElapsed() {
+		return elapsed / 1000000;
+	}
+
+	/**
+	 * How many positions the last search looked at.
+	 * @return Number of positions
+	 */
+	public long getNodes() {
+		return root.nodes;
+	}
+
+	/**
+	 * How quickly the last search looked at positions.
+	 * @return Positions per second
+	 */
+	public long getNodesPerSecond() {
+		return elapsed == 0 ? 0 : (long)(root.nodes * 1e9 / elapsed);
+	}
+
+	/**
+	 * The value of the position the last search started from.
+	 * @return How many more of the remaining boxes the player to move can take (exact if {@link #isSolved()})
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * Whether or not the last search was searched to the end of the game.
+	 * @return <code>true</code> if its value and move are perfect play
+	 */
+	public boolean isSolved() {
+		return solved;
+	}
+
+	/**
+	 * Find the best move, within a time budget.
+	 * @param board The position to search (it isn't changed)
+	 * @param budget The most time to spend, in milliseconds
+	 * @return The best move found, or <code>null</code> if there are no moves left
+	 * @see #isSolved()
+	 */
+	public Move solve(Board board, long budget) {
+		long start = System.nanoTime();
+		root.load(board);
+		deadline = start + budget * 1000000;
+		aborted = false;
+		solved = false;
+		root.nodes = 0;
+		root.ply = 0;
+		depth = 0;
+		value = 0;
+		if (threads > 1 && (pool == null || pool.getParallelism() != threads)) {
+			if (pool != null)
+				pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+
+		int best = -1;
+		int free = 0;
+		for (boolean line : root.claimed)
+			if (!line)
+				free++;
+		for (int limit = 1; limit <= free && !aborted; limit++) {
+			root.limited = 0;
+			root.rootMove = -1;
+			int score = threads > 1 && limit > 1 && root.remaining > 0 ? split(limit) : root.search(limit, -root.remaining - 1, root.remaining + 1);
+			if (aborted || root.rootMove == -1)
+				break;
+			best = root.rootMove;
+			value = score;
+			depth = limit;
+			if (root.limited == 0) {
+				solved = true;
+				break;
+			}
+		}
+		// Out of time before even one move deep, so take the best looking move
+		if (best == -1 && free > 0 && root.generate(-1) > 0)
+			best = root.moves[0][0];
+		elapsed = System.nanoTime() - start;
+		return best == -1 ? null : new Move(lineX[best], lineY[best], lineVertical[best]);
+	}
+
+	/**
+	 * Search the root on every thread: the first move on its own, then the rest at once.
+	 * @param depth How many moves deep to search
+	 * @return The root's value (its best move is left in the root's rootMove)
+	 */
+	private int split(int depth) {
+		int alpha = -root.remaining - 1;
+		int beta = root.remaining + 1;
+		int symmetry = root.symmetry();
+		int count = root.generate(tableMove(table.probe(root.hashes[symmetry]), symmetry));
+		int[] list = Arrays.copyOf(root.moves[0], count);
+
+		// The eldest brother (usually the best move) sets the bound for the rest
+		int best = root.child(list[0], depth, alpha, beta);
+		int bestMove = list[0];
+		if (aborted)
+			return 0;
+		AtomicInteger bound = new AtomicInteger(best);
+		ArrayList<ForkJoinTask<long[]>> tasks = new ArrayList<ForkJoinTask<long[]>>();
+		for (int i = 1; i < count; i++) {
+			int line = list[i];
+			tasks.add(ForkJoinTask.adapt(() -> {
+				Search search = new Search(root);
+				int floor = Math.max(alpha, bound.get());
+				int score = search.child(line, depth, floor, beta);
+				bound.accumulateAndGet(score, Math::max);
+				return new long[] { score, floor, search.nodes, search.limited };
+			}));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+		for (int i = 1; i < count; i++) {
+			long[] result = tasks.get(i - 1).join();
+			root.nodes += result[2];
+			root.limited += (int)result[3];
+			// (A move that failed low against the bound it started with is no better than the bound)
+			if (result[0] > result[1] && result[0] > best) {
+				best = (int)result[0];
+				bestMove = list[i];
+			}
+		}
+		if (aborted)
+			return 0;
+		table.store(root.hashes[symmetry], best, TranspositionTable.EXACT, root.limited == 0 ? TranspositionTable.SOLVED : depth, lineMaps[symmetry][bestMove]);
+		root.rootMove = bestMove;
+		return best;
+	}
+
+	/**
+	 * One thread's copy of the position being searched.
+	 */
+	private class Search {
+		private int limited;     // How many times this search stopped at its depth limit
+		private long nodes;      // Positions searched
+		private int ply;         // How many moves deep the search is
+		private int remaining;   // Unclaimed boxes
+		private int rootMove;    // Best move found at the root
+		private int stamp = 0;   // Marks the boxes visited while finding chains and loops
+		private int twoSided;    // Unclaimed boxes with exactly two sides (once every box has two, only chains and loops are left)
+
+		private final boolean[] claimed; // Whether or not each line has been claimed
+		private final long[] hashes;     // Zobrist hash of the claimed lines, under each symmetry
+		private final int[][] moves;     // Moves to try at each ply (each list is made when first needed)
+		private final int[] sides;       // How many sides of each box have been claimed
+		private final int[] visited;     // Stamp of each box visited while finding chains and loops
+
+		/**
+		 * Claim a line, search what's left, then take the line back.
+		 * @return The value of claiming the line, for the player who claimed it
+		 */
+		int child(int line, int depth, int alpha, int beta) {
+			ply++;
+			int taken = make(line);
+			// Taking a box means moving again, otherwise it's the other player's turn
+			int score = taken > 0 ? taken + search(depth - 1, alpha - taken, beta - taken) : -search(depth - 1, -beta, -alpha);
+			unmake(line);
+			ply--;
+			return score;
+		}
+
+		int endgame() {
+			if (!analysis || twoSided != remaining)
+				return NONE;
+
+			// Every box has two sides, so they form chains (ending at the edge of the board) and loops
+			stamp++;
+			int[] lengths = new int[remaining];
+			int components = 0;
+			int[] pending = new int[remaining];
+			for (int box = 0; box < sides.length; box++) {
+				if (sides[box] != 2 || visited[box] == stamp)
+					continue;
+				int length = 0;
+				int ends = 0;
+				int waiting = 0;
+				pending[waiting++] = box;
+				visited[box] = stamp;
+				while (waiting > 0) {
+					int next = pending[--waiting];
+					length++;
+					for (int line : boxLines[next]) {
+						if (claimed[line])
+							continue;
+						int other = lineBoxes[line][0] == next ? lineBoxes[line][1] : lineBoxes[line][0];
+						if (other == -1)
+							ends++;
+						else if (visited[other] != stamp) {
+							visited[other] = stamp;
+							pending[waiting++] = other;
+						}
+					}
+				}
+				// (Loops are stored as negative lengths)
+				lengths[components++] = ends == 0 ? -length : length;
+			}
+			int[] endgame = Arrays.copyOf(lengths, components);
+			Arrays.sort(endgame);
+			return Solver.this.endgame(endgame);
+		}
+
+		int generate(int tableMove) {
+			if (moves[ply] == null)
+				moves[ply] = new int[claimed.length];
+			int[] list = moves[ply];
+			int count = 0;
+			// Captures first (any capture that can't give a box away is the only move worth making)
+			for (int line = 0; line < claimed.length; line++) {
+				if (claimed[line])
+					continue;
+				int first = lineBoxes[line][0];
+				int second = lineBoxes[line][1];
+				boolean firstTaken = first != -1 && sides[first] == 3;
+				boolean secondTaken = second != -1 && sides[second] == 3;
+				if (!firstTaken && !secondTaken)
+					continue;
+				if (analysis && (first == -1 || sides[first] != 2) && (second == -1 || sides[second] != 2)) {
+					list[0] = line;
+					return 1;
+				}
+				list[count++] = line;
+			}
+			// With a chain to take, the only other move worth making leaves its last boxes for the other player (to keep control)
+			if (analysis && count > 0) {
+				int captures = count;
+				for (int i = 0; i < captures; i++) {
+					for (int box : lineBoxes[list[i]]) {
+						if (box == -1 || sides[box] != 2)
+							continue;
+						for (int line : boxLines[box])
+							if (!claimed[line] && line != list[i] && !contains(list, count, line))
+								list[count++] = line;
+					}
+				}
+				return order(list, count, tableMove);
+			}
+			// Then safe moves, then sacrifices
+			for (int line = 0; line < claimed.length; line++)
+				if (!claimed[line] && !isCapture(line) && isSafe(line))
+					list[count++] = line;
+			for (int line = 0; line < claimed.length; line++)
+				if (!claimed[line] && !isCapture(line) && !isSafe(line))
+					list[count++] = line;
+			return order(list, count, tableMove);
+		}
+
+		boolean isCapture(int line) {
+			return (lineBoxes[line][0] != -1 && sides[lineBoxes[line][0]] == 3) || (lineBoxes[line][1] != -1 && sides[lineBoxes[line][1]] == 3);
+		}
+
+		boolean isSafe(int line) {
+			return (lineBoxes[line][0] == -1 || sides[lineBoxes[line][0]] != 2) && (lineBoxes[line][1] == -1 || sides[lineBoxes[line][1]] != 2);
+		}
+
+		void load(Board board) {
+			Arrays.fill(sides, 0);
+			Arrays.fill(hashes, 0);
+			remaining = sides.length;
+			twoSided = 0;
+			for (int line = 0; line < claimed.length; line++) {
+				claimed[line] = board.getLine(lineX[line], lineY[line], lineVertical[line]) != -1;
+				if (!claimed[line])
+					continue;
+				for (int symmetry = 0; symmetry < symmetries; symmetry++)
+					hashes[symmetry] ^= zobrist[symmetry][line];
+				for (int box : lineBoxes[line])
+					if (box != -1)
+						sides[box]++;
+			}
+			for (int side : sides) {
+				if (side == 4)
+					remaining--;
+				else if (side == 2)
+					twoSided++;
+			}
+		}
+
+		/**
+		 * Claim a line.
+		 * @return How many boxes it took
+		 */
+		int make(int line) {
+			claimed[line] = true;
+			for (int symmetry = 0; symmetry < symmetries; symmetry++)
+				hashes[symmetry] ^= zobrist[symmetry][line];
+			int taken = 0;
+			for (int box : lineBoxes[line]) {
+				if (box == -1)
+					continue;
+				switch (++sides[box]) {
+				case 2:
+					twoSided++;
+					break;
+				case 3:
+					twoSided--;
+					break;
+				case 4:
+					taken++;
+				}
+			}
+			remaining -= taken;
+			return taken;
+		}
+
+		int search(int depth, int alpha, int beta) {
+			if (remaining == 0)
+				return 0;
+			if ((++nodes & 1023) == 0 && System.nanoTime() > deadline)
+				aborted = true;
+			if (aborted)
+				return 0;
+
+			// Already searched? (At the root, only to find the best move first)
+			int symmetry = symmetry();
+			long entry = table.probe(hashes[symmetry]);
+			int tableMove = tableMove(entry, symmetry);
+			if (entry != 0 && ply > 0) {
+				int searched = TranspositionTable.depth(entry);
+				int known = TranspositionTable.value(entry);
+				int bound = TranspositionTable.bound(entry);
+				if ((searched == TranspositionTable.SOLVED || searched >= depth)
+					&& (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && known >= beta) || (bound == TranspositionTable.UPPER && known <= alpha))) {
+					if (searched != TranspositionTable.SOLVED)
+						limited++;
+					return known;
+				}
+			}
+			if (ply > 0) {
+				int endgame = endgame();
+				if (endgame != NONE) {
+					table.store(hashes[symmetry], endgame, TranspositionTable.EXACT, TranspositionTable.SOLVED, -1);
+					return endgame;
+				}
+			}
+			if (depth == 0) {
+				limited++;
+				return 0;
+			}
+
+			int limitedBefore = limited;
+			int alphaBefore = alpha;
+			int count = generate(tableMove);
+			int best = NONE;
+			int bestMove = -1;
+			for (int i = 0; i < count; i++) {
+				int line = moves[ply][i];
+				int score = child(line, depth, alpha, beta);
+				if (aborted)
+					return 0;
+				if (score > best) {
+					best = score;
+					bestMove = line;
+				}
+				if (score > alpha)
+					alpha = score;
+				if (alpha >= beta)
+					break;
+			}
+			int bound = best <= alphaBefore ? TranspositionTable.UPPER : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(hashes[symmetry], best, bound, limited == limitedBefore ? TranspositionTable.SOLVED : depth, bestMove == -1 ? -1 : lineMaps[symmetry][bestMove]);
+			if (ply == 0)
+				rootMove = bestMove;
+			return best;
+		}
+
+		/**
+		 * Which symmetry gives the canonical hash (the smallest).
+		 */
+		int symmetry() {
+			int best = 0;
+			for (int symmetry = 1; symmetry < symmetries; symmetry++)
+				if (hashes[symmetry] < hashes[best])
+					best = symmetry;
+			return best;
+		}
+
+		void unmake(int line) {
+			claimed[line] = false;
+			for (int symmetry = 0; symmetry < symmetries; symmetry++)
+				hashes[symmetry] ^= zobrist[symmetry][line];
+			for (int box : lineBoxes[line]) {
+				if (box == -1)
+					continue;
+				switch (sides[box]--) {
+				case 2:
+					twoSided--;
+					break;
+				case 3:
+					twoSided++;
+					break;
+				case 4:
+					remaining++;
+				}
+			}
+		}
+
+		Search(int lines, int boxes) {
+			claimed = new boolean[lines];
+			hashes = new long[symmetries];
+			moves = new int[lines + 1][];
+			sides = new int[boxes];
+			visited = new int[boxes];
+		}
+
+		/**
+		 * A copy of another search's position (at its root).
+		 */
+		Search(Search other) {
+			claimed = other.claimed.clone();
+			moves = new int[other.moves.length][];
+			sides = other.sides.clone();
+			visited = new int[other.visited.length];
+			hashes = other.hashes.clone();
+			remaining = other.remaining;
+			twoSided = other.twoSided;
+		}
+	}
+
+	/**
+	 * A new solver for a size of grid.
+	 * @param grid The grid to solve positions on
+	 * @param tableBits Log2 of the number of transposition table slots
+	 */
+	public Solver(Grid grid, int tableBits) {
+		this.grid = new Grid(grid.width, grid.height);
+		int width = grid.width;
+		int height = grid.height;
+		int boxes = Math.max(width - 1, 0) * Math.max(height - 1, 0);
+		int lines = (width - 1) * height + width * (height - 1);
+		boxLines = new int[boxes][4];
+		lineBoxes = new int[lines][2];
+		lineX = new int[lines];
+		lineY = new int[lines];
+		lineVertical = new boolean[lines];
+		symmetries = width == height ? 8 : 4;
+		lineMaps = new int[symmetries][lines];
+		zobrist = new long[symmetries][lines];
+		root = new Search(lines, boxes);
+		table = new TranspositionTable(tableBits);
+
+		// Horizontal lines first, then vertical (boxes are numbered the same way as points, without the last row and column)
+		int[] lineIndex = new int[width * height * 2]; // Line number of each line, as a Board packs it
+		int line = 0;
+		for (int vertical = 0; vertical < 2; vertical++) {
+			for (int x = 0; x < (vertical == 1 ? width : width - 1); x++) {
+				for (int y = 0; y < (vertical == 1 ? height - 1 : height); y++) {
+					lineX[line] = x;
+					lineY[line] = y;
+					lineVertical[line] = vertical == 1;
+					lineIndex[(height * x + y) << 1 | vertical] = line;
+					// The box before the line (left of a vertical line, above a horizontal one), then the box after it
+					int firstX = vertical == 1 ? x - 1 : x;
+					int firstY = vertical == 1 ? y : y - 1;
+					lineBoxes[line][0] = firstX >= 0 && firstY >= 0 && firstX < width - 1 && firstY < height - 1 ? firstX * (height - 1) + firstY : -1;
+					lineBoxes[line][1] = x < width - 1 && y < height - 1 ? x * (height - 1) + y : -1;
+					for (int i = 0; i < 2; i++) {
+						int box = lineBoxes[line][i];
+						if (box == -1)
+							continue;
+						// Top and bottom sides, or left and right
+						boxLines[box][vertical * 2 + (i == 0 ? 1 : 0)] = line;
+					}
+					line++;
+				}
+			}
+		}
+		Board board = new Board(this.grid);
+		for (int symmetry = 0; symmetry < symmetries; symmetry++) {
+			for (line = 0; line < lines; line++) {
+				int moved = lineMaps[symmetry][line] = lineIndex[board.transform(symmetry, lineX[line], lineY[line], lineVertical[line])];
+				zobrist[symmetry][line] = Board.zobrist(lineX[moved], lineY[moved], lineVertical[moved]);
+			}
+		}
+	}
+}
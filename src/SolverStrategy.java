@@ -0,0 +1,57 @@
+import grid.Board;
+
+/**
+ * Plays like {@link ChainStrategy} while there is plenty of room to play
+ * safely, then lets a {@link Solver} search for the best move.
+ * <p>
+ * With a {@link PositionBook}, every position it solves is remembered, and
+ * a position already in the book (or any rotation or reflection of one) is
+ * answered straight away without searching.
+ * </p>
+ */
+public class SolverStrategy extends ChainStrategy {
+	private Solver solver; // Searches this size of grid (replaced if the grid changes size)
+
+	public PositionBook book;  // Solved positions (may be shared between bots, or null)
+	public long budget = 200;  // Most time to spend searching each move, in milliseconds
+	public int safeMoves = 6;  // Search once there are this few safe moves left
+
+	@Override
+	public Move choose(Board board, int playerID) {
+		int safe = 0;
+		for (Move move : Strategy.free(board))
+			if (Strategy.safe(board, move))
+				safe++;
+		if (safe > safeMoves)
+			return super.choose(board, playerID);
+
+		int symmetry = board.getSymmetry();
+		int height = board.getGrid().height;
+		if (book != null) {
+			int line = TranspositionTable.move(book.get(PositionBook.key(board)));
+			if (line != -1) {
+				// Turn the book's move back the way round this board is
+				line = board.transform(Board.inverse(symmetry), (line >> 1) / height, (line >> 1) % height, (line & 1) != 0);
+				Move move = new Move((line >> 1) / height, (line >> 1) % height, (line & 1) != 0);
+				if (board.hasLine(move.x, move.y, move.vertical) && board.getLine(move.x, move.y, move.vertical) == -1)
+					return move;
+			}
+		}
+
+		if (solver == null || solver.getGrid().width != board.getGrid().width || solver.getGrid().height != board.getGrid().height)
+			solver = new Solver(board.getGrid(), 20);
+		Move move = solver.solve(board, budget);
+		if (book != null && move != null && solver.isSolved()) {
+			int line = board.transform(symmetry, move.x, move.y, move.vertical);
+			// (An entry only has room for the lines of a board up to about 2900x2900)
+			if (line < 0xFFFFFF)
+				book.put(PositionBook.key(board), TranspositionTable.entry(solver.getValue(), TranspositionTable.EXACT, TranspositionTable.SOLVED, line));
+		}
+		return move;
+	}
+
+	@Override
+	public String toString() {
+		return "solver";
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the highest scoring players, as boxes are claimed.
+ * <p>
+ * Scores only ever go up during a game, so each claimed box can update the
+ * leaders in constant time, and nobody has to scan every player to find out
+ * who won. Disconnected players can't win, so a disconnect needs a
+ * {@link #recount(Iterable)}.
+ * </p>
+ * @see Player
+ */
+public class Standings {
+	private int highscore = 0; // Score of the current leaders
+
+	private final ArrayList<Player> leaders = new ArrayList<Player>(); // Connected players with the highest score
+
+	/**
+	 * Add to a player's score, and update the leaders.
+	 * @param player The player that claimed the boxes
+	 * @param boxes How many boxes they have just earned
+	 */
+	public void add(Player player, int boxes) {
+		if (boxes <= 0)
+			return;
+		player.add(boxes);
+		if (player.disconnected())
+			return;
+		int score = player.score();
+		if (score > highscore) {
+			highscore = score;
+			leaders.clear();
+			leaders.add(player);
+		}
+		// Their old score was lower, so they can't already be a leader
+		else if (score == highscore)
+			leaders.add(player);
+	}
+
+	/**
+	 * The highest score of any connected player.
+	 * @return How many boxes the leaders have claimed
+	 */
+	public int getHighscore() {
+		return highscore;
+	}
+
+	/**
+	 * Get the current highest scoring players.
+	 * @return Every connected {@link Player} with the highest score (more than one if there is a tie)
+	 */
+	public Player[] leaders() {
+		return leaders.toArray(new Player[leaders.size()]);
+	}
+
+	/**
+	 * Find the leaders from scratch. (Needed when a player disconnects.)
+	 * @param players Every player in the game
+	 */
+	public void recount(Iterable<Player> players) {
+		reset();
+		for (Player player : players) {
+			if (player.disconnected() || player.score() < highscore || player.score() == 0)
+				continue;
+			if (player.score() > highscore) {
+				highscore = player.score();
+				leaders.clear();
+			}
+			leaders.add(player);
+		}
+	}
+
+	/**
+	 * Describe the result of the game.
+	 * @return Who won, or who tied
+	 */
+	public String toString() {
+		if (leaders.size() == 1)
+			return leaders.get(0) + " wins!";
+		if (leaders.isEmpty())
+			return "Tie!";
+		String names = leaders.get(0).toString();
+		for (int i = 1; i < leaders.size() - 1; i++)
+			names += ", " + leaders.get(i);
+		return "Tie between " + names + " and " + leaders.get(leaders.size() - 1) + "!";
+	}
+
+	/**
+	 * Forget all scores. (Players should be reset as well.)
+	 * @see Player#reset()
+	 */
+	public void reset() {
+		highscore = 0;
+		leaders.clear();
+	}
+}
@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+
+import grid.Board;
+
+/**
+ * Chooses the moves a {@link Bot} makes.
+ * <p>
+ * A strategy is only ever asked for a move on its bot's mailbox, so it may
+ * keep scratch state of its own, but it shouldn't be shared between bots.
+ * The static methods are the board arithmetic every strategy needs.
+ * </p>
+ * @see GreedyStrategy
+ * @see SafeStrategy
+ * @see ChainStrategy
+ * @see SolverStrategy
+ */
+public interface Strategy {
+	/**
+	 * Choose the next move.
+	 * @param board The board as it is now (don't change it)
+	 * @param playerID The bot's own playerID
+	 * @return An unclaimed line, or <code>null</code> if there are none
+	 */
+	public Move choose(Board board, int playerID);
+
+	/**
+	 * A line that would complete a box, if there is one.
+	 * @param board The board
+	 * @return The last unclaimed side of a box with three sides, or <code>null</code>
+	 */
+	public static Move capture(Board board) {
+		for (int x = 0; x < board.getGrid().width - 1; x++)
+			for (int y = 0; y < board.getGrid().height - 1; y++)
+				if (board.getBox(x, y) == -1 && sides(board, x, y) == 3)
+					return missing(board, x, y);
+		return null;
+	}
+
+	/**
+	 * Every unclaimed line.
+	 * @param board The board
+	 * @return The lines, in grid order
+	 */
+	public static ArrayList<Move> free(Board board) {
+		ArrayList<Move> free = new ArrayList<Move>();
+		for (int x = 0; x < board.getGrid().width; x++) {
+			for (int y = 0; y < board.getGrid().height; y++) {
+				if (board.hasLine(x, y, false) && board.getLine(x, y, false) == -1)
+					free.add(new Move(x, y, false));
+				if (board.hasLine(x, y, true) && board.getLine(x, y, true) == -1)
+					free.add(new Move(x, y, true));
+			}
+		}
+		return free;
+	}
+
+	/**
+	 * An unclaimed side of a box.
+	 * @param board The board
+	 * @param x The box's grid x coordinate
+	 * @param y The box's grid y coordinate
+	 * @return The first unclaimed side (top, bottom, left, right), or <code>null</code> if it is enclosed
+	 */
+	public static Move missing(Board board, int x, int y) {
+		if (board.getLine(x, y, false) == -1)
+			return new Move(x, y, false);
+		if (board.getLine(x, y + 1, false) == -1)
+			return new Move(x, y + 1, false);
+		if (board.getLine(x, y, true) == -1)
+			return new Move(x, y, true);
+		if (board.getLine(x + 1, y, true) == -1)
+			return new Move(x + 1, y, true);
+		return null;
+	}
+
+	/**
+	 * Whether a line can be claimed without giving the next player a box.
+	 * @param board The board
+	 * @param move An unclaimed line
+	 * @return <code>true</code> if neither box beside the line would be left with three sides
+	 */
+	public static boolean safe(Board board, Move move) {
+		// The box before the line (left of a vertical line, above a horizontal one), then the box after it
+		int firstX = move.vertical ? move.x - 1 : move.x;
+		int firstY = move.vertical ? move.y : move.y - 1;
+		return (!board.hasBox(firstX, firstY) || sides(board, firstX, firstY) != 2)
+			&& (!board.hasBox(move.x, move.y) || sides(board, move.x, move.y) != 2);
+	}
+
+	/**
+	 * How many sides of a box have been claimed.
+	 * @param board The board
+	 * @param x The box's grid x coordinate
+	 * @param y The box's grid y coordinate
+	 * @return 0 to 4
+	 */
+	public static int sides(Board board, int x, int y) {
+		int sides = 0;
+		if (board.getLine(x, y, false) != -1)
+			sides++;
+		if (board.getLine(x, y + 1, false) != -1)
+			sides++;
+		if (board.getLine(x, y, true) != -1)
+			sides++;
+		if (board.getLine(x + 1, y, true) != -1)
+			sides++;
+		return sides;
+	}
+
+	/**
+	 * Find a strategy by name.
+	 * @param name <code>greedy</code>, <code>safe</code>, <code>chain</code>, or <code>solver</code>
+	 * @return A new instance of that strategy
+	 * @throws IllegalArgumentException If there is no such strategy
+	 */
+	public static Strategy parseStrategy(String name) {
+		switch (name) {
+		case "greedy":
+			return new GreedyStrategy();
+		case "safe":
+			return new SafeStrategy();
+		case "chain":
+			return new ChainStrategy();
+		case "solver":
+			return new SolverStrategy();
+		default:
+			throw new IllegalArgumentException("Unknown strategy: " + name);
+		}
+	}
+}
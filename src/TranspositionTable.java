@@ -0,0 +1,132 @@
+/**
+ * Remembers what a {@link Solver} learned about each position it searched,
+ * by the position's Zobrist hash.
+ * <p>
+ * A fixed number of slots (a power of two), each holding the full hash and
+ * one packed entry: the value, whether it is exact or only a bound, how deep
+ * it was searched, and the best move found. A new entry always replaces
+ * whatever was in its slot.
+ * </p>
+ * <p>
+ * The table is shared by every thread of a parallel search, without locks.
+ * Each slot's key is stored XORed with its entry, so a slot that one thread
+ * read while another was halfway through writing it just doesn't match (it
+ * reads as empty, rather than as another position's entry).
+ * </p>
+ * @see Solver
+ */
+public class TranspositionTable {
+	private final long[] entries; // Packed entry for each slot (0 if empty)
+	private final long[] keys;    // Hash of the position in each slot (XORed with its entry)
+	private final int mask;       // Slot index bits
+
+	// Bounds
+	public static final int EXACT = 0; // The value is exact
+	public static final int LOWER = 1; // The value is at least this (the search failed high)
+	public static final int UPPER = 2; // The value is at most this (the search failed low)
+
+	/**
+	 * Depth of an entry whose value was searched all the way to the end of the game.
+	 */
+	public static final int SOLVED = 255;
+
+	/**
+	 * The bound of an entry.
+	 * @param entry An entry from {@link #probe(long)}
+	 * @return {@link #EXACT}, {@link #LOWER}, or {@link #UPPER}
+	 */
+	public static int bound(long entry) {
+		return (int)(entry >>> 16) & 0x3;
+	}
+
+	/**
+	 * Forget every position.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(entries, 0);
+	}
+
+	/**
+	 * How many moves deep an entry was searched.
+	 * @param entry An entry from {@link #probe(long)}
+	 * @return The depth, or {@link #SOLVED}
+	 */
+	public static int depth(long entry) {
+		return (int)(entry >>> 18) & 0xFF;
+	}
+
+	/**
+	 * The best move of an entry.
+	 * @param entry An entry from {@link #probe(long)}
+	 * @return The move's line index, or -1 if there wasn't one
+	 */
+	public static int move(long entry) {
+		return (int)(entry >>> 26 & 0xFFFFFF) - 1;
+	}
+
+	/**
+	 * Pack an entry.
+	 * @param value The position's value (for the player to move)
+	 * @param bound {@link #EXACT}, {@link #LOWER}, or {@link #UPPER}
+	 * @param depth How deep it was searched, or {@link #SOLVED}
+	 * @param move The best move's line index, or -1
+	 * @return The entry (never 0)
+	 */
+	public static long entry(int value, int bound, int depth, int move) {
+		return 1L << 63 | (long)(move + 1) << 26 | (long)depth << 18 | (long)bound << 16 | (value & 0xFFFF);
+	}
+
+	/**
+	 * Look up a position.
+	 * @param key The position's hash
+	 * @return Its entry, or 0 if it isn't in the table
+	 */
+	public long probe(long key) {
+		int slot = (int)key & mask;
+		long entry = entries[slot];
+		return (keys[slot] ^ entry) == key ? entry : 0;
+	}
+
+	/**
+	 * How many slots there are.
+	 * @return The capacity
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * Remember a position.
+	 * @param key The position's hash
+	 * @param value Its value (for the player to move)
+	 * @param bound {@link #EXACT}, {@link #LOWER}, or {@link #UPPER}
+	 * @param depth How deep it was searched, or {@link #SOLVED}
+	 * @param move The best move's line index, or -1
+	 */
+	public void store(long key, int value, int bound, int depth, int move) {
+		int slot = (int)key & mask;
+		long entry = entry(value, bound, depth, move);
+		keys[slot] = key ^ entry;
+		entries[slot] = entry;
+	}
+
+	/**
+	 * The value of an entry.
+	 * @param entry An entry from {@link #probe(long)}
+	 * @return The value (for the player to move)
+	 */
+	public static int value(long entry) {
+		return (short)entry;
+	}
+
+	/**
+	 * A new, empty table.
+	 * @param bits Log2 of the number of slots (each takes 16 bytes)
+	 */
+	public TranspositionTable(int bits) {
+		keys = new long[1 << bits];
+		entries = new long[1 << bits];
+		mask = (1 << bits) - 1;
+	}
+}
@@ -0,0 +1,272 @@
+package coms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client served by a {@link ClientSelector}, rather than by its own thread.
+ * <p>
+ * Everything read from the channel is collected in a per-connection buffer,
+ * and handed to the selector one command at a time. Sends go straight to the
+ * channel when it can take them, anything left over is queued until the
+ * selector says the channel is writable again. Queued packets wait for a
+ * {@link #flush()} (or {@link Connection#flushThreshold} bytes), and are
+ * written straight from the packet's shared bytes. The queue is bounded by
+ * {@link #queueLimit}, the same as any other client's. Closing lets the
+ * selector finish writing it first (for {@link #closeTimeout} at most).
+ * </p>
+ * @see ClientSelector
+ */
+class ChannelClient extends Client {
+	private Boolean binaryIn = false;  // Whether or not we are reading frames
+	private Boolean binaryOut = false; // Whether or not we are writing frames
+	private Boolean closing = false;   // Whether or not to close once everything queued is written
+	private volatile int depth = 0;                    // Bytes queued but not yet written
+	private ByteBuffer in = ByteBuffer.allocate(1024); // Bytes read but not yet parsed (in write mode)
+	private int queued = 0;                            // Bytes queued since the last flush
+
+	private final SocketChannel channel;    // Channel to the client
+	private final ClientSelector selector;  // Selector serving this client
+	private final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>(); // Bytes waiting to be written
+
+	SelectionKey key; // Our registration with the selector
+
+	/**
+	 * Close communications right away, dropping anything still queued.
+	 */
+	@Override
+	public void abort() {
+		synchronized (out) {
+			out.clear();
+			depth = 0;
+			queued = 0;
+		}
+		shut();
+	}
+
+	/**
+	 * Close communications, once anything still queued has been written (or {@link #closeTimeout} is up).
+	 * (The selector then delivers the disconnect message.)
+	 */
+	@Override
+	public void close() {
+		synchronized (out) {
+			if (channel.isOpen() && !out.isEmpty()) {
+				if (!closing) {
+					closing = true;
+					CompletableFuture.delayedExecutor(closeTimeout, TimeUnit.MILLISECONDS).execute(this::abort);
+				}
+				// (Closes it once the rest is written, now or whenever the selector says it can be)
+				flush();
+				return;
+			}
+		}
+		shut();
+	}
+
+	/**
+	 * Drop everything queued that hasn't started being written.
+	 * @return How many bytes were dropped
+	 */
+	@Override
+	int drop() {
+		synchronized (out) {
+			int before = depth;
+			// (Half a command can't be taken back, nor can the switch to frames)
+			ByteBuffer started = out.peek() != null && out.peek().position() > 0 ? out.peek() : null;
+			out.removeIf(next -> next != started && next.array() != Connection.upgradeLine);
+			depth = 0;
+			for (ByteBuffer next : out)
+				depth += next.remaining();
+			queued = 0;
+			return before - depth;
+		}
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return depth;
+	}
+
+	/**
+	 * Read everything available from the channel.
+	 * @param messages Where to put every complete command read
+	 * @return <code>false</code> if the connection has closed
+	 */
+	boolean read(ArrayList<String> messages) throws IOException {
+		int count;
+		while ((count = channel.read(in)) > 0) {
+			Connection.bytesRead.add(count);
+			parse(messages);
+			if (!in.hasRemaining()) {
+				if (in.capacity() > Protocol.maxFrame + 8)
+					throw new IOException("Command too large");
+				ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+				in.flip();
+				bigger.put(in);
+				in = bigger;
+			}
+		}
+		return count != -1;
+	}
+
+	/**
+	 * Send a message to the client, without ever blocking.
+	 * @param message The message to send
+	 */
+	@Override
+	public String send(String message) {
+		synchronized (out) {
+			queue(new Packet(message));
+			flush();
+		}
+		return message;
+	}
+
+	/**
+	 * Queue a message, to be written with the next {@link #flush()}.
+	 * @param packet The message to send
+	 */
+	@Override
+	public void queue(Packet packet) {
+		synchronized (out) {
+			if (isLagging() || !channel.isOpen())
+				return;
+			byte[] bytes = binaryOut ? packet.frame() : packet.line();
+			if (depth + bytes.length > queueLimit) {
+				overflowed();
+				return;
+			}
+			out.add(ByteBuffer.wrap(bytes));
+			depth += bytes.length;
+			queued += bytes.length;
+			if (queued >= Connection.flushThreshold)
+				flush();
+		}
+	}
+
+	/**
+	 * Switch to sending binary frames.
+	 */
+	@Override
+	public void upgrade() {
+		synchronized (out) {
+			if (binaryOut)
+				return;
+			out.add(ByteBuffer.wrap(Connection.upgradeLine));
+			depth += Connection.upgradeLine.length;
+			binaryOut = true;
+			flush();
+		}
+	}
+
+	/**
+	 * Write as much of the queue as the channel will take. (Also called by the selector when the channel is writable.)
+	 */
+	@Override
+	public void flush() {
+		synchronized (out) {
+			queued = 0;
+			boolean failed = false;
+			try {
+				while (!out.isEmpty()) {
+					ByteBuffer next = out.peek();
+					int written = channel.write(next);
+					depth -= written;
+					Connection.bytesWritten.add(written);
+					if (next.hasRemaining())
+						break;
+					out.poll();
+				}
+			}
+			catch (IOException e) {
+				out.clear();
+				depth = 0;
+				failed = true;
+			}
+			if (failed || closing && out.isEmpty())
+				shut();
+			else
+				selector.interest(this, out.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void parse(ArrayList<String> messages) throws IOException {
+		in.flip();
+		while (in.hasRemaining()) {
+			String message = binaryIn ? readFrame() : readLine();
+			if (message == null)
+				break;
+			if (!binaryIn && Connection.upgrade.equals(message))
+				binaryIn = true;
+			messages.add(message);
+		}
+		in.compact();
+	}
+
+	private String readFrame() throws IOException {
+		int start = in.position();
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (shift >= 35)
+				throw new IOException("Malformed varint");
+			if (!in.hasRemaining()) {
+				in.position(start);
+				return null;
+			}
+			int b = in.get();
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		if (length > Protocol.maxFrame)
+			throw new IOException("Frame too large (" + length + " bytes)");
+		if (in.remaining() < length) {
+			in.position(start);
+			return null;
+		}
+		String message = Protocol.decode(in.array(), in.arrayOffset() + in.position(), length);
+		in.position(in.position() + length);
+		return message;
+	}
+
+	private String readLine() {
+		int start = in.position();
+		for (int i = start; i < in.limit(); i++) {
+			if (in.get(i) != '\n')
+				continue;
+			int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+			in.position(i + 1);
+			return new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		}
+		return null;
+	}
+
+	// Close the channel (once), and have the selector deliver the disconnect message
+	private synchronized void shut() {
+		if (!channel.isOpen())
+			return;
+		try {
+			channel.close();
+		}
+		catch (IOException e) { }
+		selector.closed(this);
+	}
+
+	/**
+	 * A client on a newly accepted channel.
+	 * @param channel Non-blocking channel to the client
+	 * @param selector Selector serving this client
+	 */
+	ChannelClient(SocketChannel channel, ClientSelector selector) {
+		this.channel = channel;
+		this.selector = selector;
+	}
+}
@@ -1,41 +1,121 @@
 package coms;
 
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.Socket;
-import java.util.Scanner;
 
+/**
+ * A connection to one game client, read by a thread of its own.
+ * <p>
+ * Everything sent to the client waits in its own queue, and is written by
+ * the connection's writer (see {@link Connection#startWriter(Transport)}), so
+ * sending never blocks, and neither does {@link #close()}. The queue is bounded
+ * ({@link #queueLimit}), a client that lets it fill up is a {@link SlowConsumer},
+ * and is dealt with as its {@link #slowConsumer} policy says.
+ * </p>
+ */
 public class Client extends Thread {
-	private Scanner clientIn;      // Connection to receive commands from the client
-	private PrintWriter clientOut; // Connection to send commands to the client
-	private Socket sock;           // Initial socket for connection to the client
-	private Boolean validated;     // Whether or not this client has been validated
+	private Connection connection;            // Connection to send and receive commands to/from the client
+	private volatile Boolean lagging = false; // Whether or not messages have been dropped since the last resync()
+	private Socket sock;                      // Initial socket for connection to the client
+	private Boolean validated;                // Whether or not this client has been validated
 
 	public String disconnect; // Command to receive when disconnecting
 
 	public Integer clientID; // Unique ID for this player
+	public int[] version;    // Protocol version the client reported (null until it does)
+
+	public Transport transport = Transport.THREAD; // What runs the read loop (THREAD or VIRTUAL, set before start())
+
+	public int queueLimit = defaultQueueLimit;                 // Most bytes that may wait to be sent, before the client is too slow
+	public SlowConsumer slowConsumer = SlowConsumer.DISCONNECT; // What to do once it is
 
 	/**
-	 * Close communications.
+	 * How long anything still queued gets to be sent after {@link #close()}, before the connection is closed anyway.
 	 */
-	public void close() {
+	public static final long closeTimeout = 250;
+
+	/**
+	 * Bytes that may wait to be sent to a client, unless {@link #queueLimit} says otherwise.
+	 */
+	public static final int defaultQueueLimit = 1 << 20;
+
+	/**
+	 * Close communications right away, dropping anything still queued. (For a client that can't keep up.)
+	 */
+	public void abort() {
+		drop();
 		try {
-			sock.close();
+			if (sock != null)
+				sock.close();
 		}
-		catch (Exception e) {
+		catch (IOException e) {
 			System.out.println("Unable to close client socket...");
 			System.out.println(e);
 		}
-		clientOut.close();
+		if (connection != null)
+			connection.close();
+	}
+
+	/**
+	 * Close communications, once anything still queued has been sent (or {@link #closeTimeout} is up).
+	 * <br>
+	 * Never waits for it, the writer closes the connection when it is done.
+	 */
+	public void close() {
+		if (connection != null)
+			connection.close(closeTimeout, this::abort);
+		else
+			abort();
+	}
+
+	/**
+	 * How far behind the client is.
+	 * @return Bytes queued for it, but not yet sent
+	 */
+	public int getQueueDepth() {
+		return connection != null ? connection.depth() : 0;
 	}
 
 	public Socket getSock() {
 		return sock;
 	}
 
+	/**
+	 * Whether or not messages to the client have been dropped, because it couldn't
+	 * keep up (with {@link SlowConsumer#RESYNC}). Nothing more is queued for it
+	 * until {@link #resync()} is called.
+	 * @return <code>true</code> if it needs bringing up to date
+	 */
+	public Boolean isLagging() {
+		return lagging;
+	}
+
 	public Boolean isValidated() {
 		return validated;
 	}
 
+	/**
+	 * The client's queue is full: drop what is queued, or disconnect it, as its {@link #slowConsumer} policy says.
+	 */
+	void overflowed() {
+		if (slowConsumer == SlowConsumer.RESYNC) {
+			lagging = true;
+			System.out.println("Client can't keep up, dropped " + drop() + " queued bytes.");
+		}
+		else {
+			System.out.println("Client can't keep up (" + getQueueDepth() + " bytes queued), disconnecting.");
+			abort();
+		}
+	}
+
+	/**
+	 * Drop everything queued that hasn't started being sent.
+	 * @return How many bytes were dropped
+	 */
+	int drop() {
+		return connection != null ? connection.drop() : 0;
+	}
+
 	/**
 	 * Receive a message from the client.
 	 * <br>
@@ -45,16 +125,49 @@ public class Client extends Thread {
 	public void receive(String message) { };
 
 	/**
-	 * Send a message to the client.
+	 * Send everything queued for the client.
+	 */
+	public void flush() {
+		if (connection != null)
+			connection.flush();
+	}
+
+	/**
+	 * Queue a message for the client, to be sent with the next {@link #flush()}.
+	 * @param packet The message to send (shared with any other clients it is sent to)
+	 */
+	public void queue(Packet packet) {
+		if (connection != null && !lagging && !connection.offer(packet, queueLimit))
+			overflowed();
+	}
+
+	/**
+	 * Start queuing messages again, after some were dropped. (Whatever brings the client up to date should be sent next.)
+	 * @see #isLagging()
+	 */
+	public void resync() {
+		lagging = false;
+	}
+
+	/**
+	 * Send a message to the client (and anything queued before it) right away.
 	 * @param message The message to send
 	 */
 	public String send(String message) {
-		//System.out.println(message);
-		clientOut.println(message);
-		clientOut.flush();
+		queue(new Packet(message));
+		flush();
 		return message;
 	}
 
+	/**
+	 * Switch to sending binary frames. (The client must have asked for them.)
+	 * @see Connection#upgrade()
+	 */
+	public void upgrade() {
+		if (connection != null)
+			connection.upgrade();
+	}
+
 	public Boolean validate() {
 		if (validated)
 			return false;
@@ -63,19 +176,40 @@ public class Client extends Thread {
 	}
 
 	/**
-	 * Begin the thread.
+	 * Begin the thread. (Or a virtual thread running it, with {@link Transport#VIRTUAL}.)
+	 */
+	@Override
+	public synchronized void start() {
+		if (connection != null)
+			connection.startWriter(transport);
+		if (!transport.startVirtual(this))
+			super.start();
+	}
+
+	/**
+	 * Read messages until the client disconnects.
 	 */
 	public void run() {
-		while (clientIn.hasNextLine()) {
-			String message = clientIn.nextLine();
+		String message;
+		while (connection != null && (message = connection.read()) != null) {
 			receive(message);
-			// do stuff
 		}
 		System.out.println("Client has disconnected!");
 		close();
 		receive(disconnect);
 	}
 
+	/**
+	 * For subclasses that handle their own communications (they must override
+	 * {@link #send(String)}, {@link #queue(Packet)}, {@link #flush()}, {@link #upgrade()}, {@link #close()}, and {@link #abort()},
+	 * and should override {@link #getQueueDepth()} if they queue anything).
+	 * @see ClientSelector
+	 */
+	protected Client() {
+		disconnect = "";
+		validated = false;
+	}
+
 	/**
 	 * Begin a connection with a game client.
 	 * @param sock Socket between the server and client
@@ -86,11 +220,10 @@ public class Client extends Thread {
 		validated = false;
 
 		try {
-			clientIn = new Scanner(sock.getInputStream());
-			clientOut = new PrintWriter(sock.getOutputStream());
+			connection = new Connection(sock.getInputStream(), sock.getOutputStream());
 		}
 		catch (Exception e) {
-			System.out.println("Could not create Scanner, or PrintWriter for client!");
+			System.out.println("Could not create Connection for client!");
 			System.out.println(e);
 			close();
 		}
@@ -6,6 +6,13 @@ import java.net.Socket;
 public class ClientCollector extends Thread {
 	private ServerSocket connectionManager; // Manages all client connections
 
+	public Transport transport = Transport.THREAD; // What runs each client's read loop (THREAD or VIRTUAL, set before start())
+
+	/**
+	 * How many connections may wait to be accepted. (A burst beyond this is dropped by the OS, and retried a second later.)
+	 */
+	public static final int backlog = 1024;
+
 	/**
 	 * Close communications.
 	 */
@@ -22,12 +29,41 @@ public class ClientCollector extends Thread {
 	/**
 	 * Fires when a connection is established with a client.
 	 * <br>
-	 * Should be overridden by something more useful.
+	 * By default, starts a {@link Client} thread for the socket, which passes
+	 * everything it receives to {@link #receive(Client, String)}.
 	 * @param sock Socket between the server and the client.
+	 * @see #connected(Client)
 	 */
 	public void connected(Socket sock) {
+		Client client = new Client(sock) {
+			@Override
+			public void receive(String message) {
+				ClientCollector.this.receive(this, message);
+			}
+		};
+		client.transport = transport;
+		connected(client);
+		client.start();
+	}
+
+	/**
+	 * Fires when a new client is ready, before anything has been received from it.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param client The new client
+	 */
+	public void connected(Client client) {
 		System.out.println("Client connected.");
-	};
+	}
+
+	/**
+	 * Receive a message from a client. (Including its {@link Client#disconnect} message, once it disconnects.)
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param client The client that sent the message
+	 * @param message The message to receive
+	 */
+	public void receive(Client client, String message) { }
 
 	/**
 	 * Begin the thread.
@@ -39,6 +75,8 @@ public class ClientCollector extends Thread {
 			try {
 				Socket sock = connectionManager.accept();
 				System.out.println("Connection established with " + sock.getInetAddress());
+				// Commands are small and already batched, don't let them wait on each other's acknowledgements
+				sock.setTcpNoDelay(true);
 				connected(sock);
 			}
 			catch (Exception e) {
@@ -52,13 +90,18 @@ public class ClientCollector extends Thread {
 		close();
 	}
 
+	/**
+	 * For subclasses that do their own listening.
+	 */
+	protected ClientCollector() { }
+
 	/**
 	 * Open communications and wait for connections from clients.
 	 */
 	public ClientCollector(Integer port) {
 		// Open Listener
 		try {
-			connectionManager = new ServerSocket(port);
+			connectionManager = new ServerSocket(port, backlog);
 		}
 		catch (Exception e) {
 			System.out.println("Unable to bind to port " + port + "!");
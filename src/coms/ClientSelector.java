@@ -0,0 +1,173 @@
+package coms;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link ClientCollector} that serves every client from this one thread.
+ * <p>
+ * Instead of a blocked thread per client, a single selector waits on the
+ * listening socket and every client channel at once. The same hooks fire:
+ * {@link #connected(Client)} for each new client, and
+ * {@link #receive(Client, String)} for each command (and the disconnect message).
+ * Since every command is received on this thread, the hooks should not block.
+ * </p>
+ * @see Transport#SELECTOR
+ */
+public class ClientSelector extends ClientCollector {
+	private ServerSocketChannel connectionManager; // Accepts new client connections
+	private Selector selector;                      // Waits on every channel
+
+	private final ConcurrentLinkedQueue<ChannelClient> closed = new ConcurrentLinkedQueue<ChannelClient>();                  // Clients waiting for their disconnect message
+	private final ConcurrentHashMap<ChannelClient, Integer> interest = new ConcurrentHashMap<ChannelClient, Integer>(); // Interest changes requested from other threads
+
+	/**
+	 * Close communications, with every client.
+	 */
+	@Override
+	public void close() {
+		try {
+			if (connectionManager != null)
+				connectionManager.close();
+			if (selector != null) {
+				for (SelectionKey key : selector.keys())
+					key.channel().close();
+				selector.close();
+			}
+		}
+		catch (Exception e) {
+			System.out.println("Unable to close listener...");
+			System.out.println(e);
+		}
+	}
+
+	/**
+	 * Deliver a client's disconnect message, once its channel has been closed.
+	 * @param client The client
+	 */
+	void closed(ChannelClient client) {
+		closed.add(client);
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	/**
+	 * Change which operations the selector waits on for a client.
+	 * @param client The client
+	 * @param ops Interest set
+	 */
+	void interest(ChannelClient client, int ops) {
+		SelectionKey key = client.key;
+		if (key == null || !key.isValid() || key.interestOps() == ops)
+			return;
+		if (Thread.currentThread() == this)
+			key.interestOps(ops);
+		else {
+			interest.put(client, ops);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Begin the thread.
+	 */
+	@Override
+	public void run() {
+		if (selector == null)
+			return;
+		System.out.println("Listening for connections on port " + connectionManager.socket().getLocalPort() + " (selector)...");
+		ArrayList<String> messages = new ArrayList<String>();
+		try {
+			while (selector.isOpen()) {
+				selector.select();
+				for (Iterator<ChannelClient> i = interest.keySet().iterator(); i.hasNext();) {
+					ChannelClient client = i.next();
+					Integer ops = interest.remove(client);
+					if (ops != null && client.key.isValid())
+						client.key.interestOps(ops);
+				}
+				ChannelClient client;
+				while ((client = closed.poll()) != null) {
+					System.out.println("Client has disconnected!");
+					receive(client, client.disconnect);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable())
+						accept();
+					else
+						serve(key, messages);
+				}
+			}
+		}
+		catch (ClosedSelectorException e) { }
+		catch (IOException e) {
+			System.out.println("Could not select, will no longer serve clients.");
+			System.out.println(e);
+		}
+		close();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = connectionManager.accept()) != null) {
+			System.out.println("Connection established with " + channel.socket().getInetAddress());
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			ChannelClient client = new ChannelClient(channel, this);
+			client.key = channel.register(selector, SelectionKey.OP_READ, client);
+			connected(client);
+		}
+	}
+
+	private void serve(SelectionKey key, ArrayList<String> messages) {
+		ChannelClient client = (ChannelClient)key.attachment();
+		boolean open;
+		try {
+			if (key.isWritable())
+				client.flush();
+			open = !key.isReadable() || client.read(messages);
+		}
+		catch (IOException e) {
+			System.out.println(e);
+			open = false;
+		}
+		for (String message : messages)
+			receive(client, message);
+		messages.clear();
+		if (!open)
+			client.close();
+	}
+
+	/**
+	 * Open communications and wait for connections from clients.
+	 */
+	public ClientSelector(Integer port) {
+		try {
+			selector = Selector.open();
+			connectionManager = ServerSocketChannel.open();
+			connectionManager.bind(new InetSocketAddress(port), backlog);
+			connectionManager.configureBlocking(false);
+			connectionManager.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		catch (Exception e) {
+			System.out.println("Unable to bind to port " + port + "!");
+			System.out.println(e);
+			close();
+			selector = null;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package coms;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Every command one side of the protocol answers, with its handler, looked up by opcode.
+ * <p>
+ * Each command is registered once, with a guard (who may send it), a decoder
+ * (usually a record's <code>decode</code>, see {@link Commands}), and a typed
+ * handler. {@link #dispatch(Object, Tokenizer)} finds the command's entry by
+ * its opcode in constant time, and runs them in that order: a command that
+ * isn't registered, or that its sender may not use, is turned away before any
+ * of its arguments are parsed, and a handler never sees a malformed command.
+ * </p>
+ * <p>
+ * The time each command takes (guard, decoding, and handling) is added up by
+ * opcode, see {@link #getCount(int)} and {@link #getNanos(int)}. A table is
+ * not thread safe, it belongs to whatever runs its commands one at a time.
+ * </p>
+ * @param <S> Where commands come from (the {@link Client} that sent them to a
+ * server, or the {@link Server} a client is connected to)
+ * @see Protocol#commands
+ */
+public class CommandTable<S> {
+	private final long[] counts = new long[Protocol.commands.length]; // Commands answered, by opcode (0 for commands without a handler)
+	private final Entry<S, ?>[] entries;                              // Each command's handler, by opcode
+	private final long[] nanos = new long[Protocol.commands.length];  // Time spent answering commands, by opcode
+
+	private static class Entry<S, R> {
+		final Function<Tokenizer, R> decoder; // Turns the command's words into its record
+		final Predicate<S> guard;             // Whether or not a sender may use the command (null for anyone)
+		final BiConsumer<S, R> handler;       // Answers the command
+
+		Entry(Predicate<S> guard, Function<Tokenizer, R> decoder, BiConsumer<S, R> handler) {
+			this.guard = guard;
+			this.decoder = decoder;
+			this.handler = handler;
+		}
+	}
+
+	private <R> void answer(Entry<S, R> entry, S sender, Tokenizer command) {
+		if (entry.guard != null && !entry.guard.test(sender))
+			return;
+		R decoded;
+		try {
+			decoded = entry.decoder.apply(command);
+		}
+		catch (IllegalArgumentException e) {
+			malformed(sender, command, e.getMessage());
+			return;
+		}
+		entry.handler.accept(sender, decoded);
+	}
+
+	/**
+	 * Answer a command.
+	 * @param sender Where it came from
+	 * @param command The command, already taken apart
+	 */
+	public void dispatch(S sender, Tokenizer command) {
+		int opcode = command.opcode();
+		long start = System.nanoTime();
+		if (entries[opcode] == null) {
+			opcode = 0;
+			unknown(sender, command);
+		}
+		else answer(entries[opcode], sender, command);
+		counts[opcode]++;
+		nanos[opcode] += System.nanoTime() - start;
+	}
+
+	/**
+	 * How many of a command have been answered.
+	 * @param opcode The command's index in {@link Protocol#commands} (0 for every command without a handler)
+	 * @return The count
+	 */
+	public long getCount(int opcode) {
+		return counts[opcode];
+	}
+
+	/**
+	 * How long answering a command has taken, all together.
+	 * @param opcode The command's index in {@link Protocol#commands} (0 for every command without a handler)
+	 * @return Nanoseconds
+	 */
+	public long getNanos(int opcode) {
+		return nanos[opcode];
+	}
+
+	/**
+	 * A command's arguments couldn't be decoded.
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param sender Where it came from
+	 * @param command The command
+	 * @param problem What was wrong with it
+	 */
+	public void malformed(S sender, Tokenizer command, String problem) { }
+
+	/**
+	 * Register a command with arguments.
+	 * @param command The command (it must be in {@link Protocol#commands})
+	 * @param guard Whether or not a sender may use it, answering them if not (<code>null</code> for anyone)
+	 * @param decoder Decodes its arguments, throwing an {@link IllegalArgumentException} if they are malformed
+	 * @param handler Answers it
+	 * @throws IllegalArgumentException If the command doesn't have an opcode
+	 */
+	public <R> void on(String command, Predicate<S> guard, Function<Tokenizer, R> decoder, BiConsumer<S, R> handler) {
+		int opcode = Protocol.opcode(command);
+		if (opcode == 0)
+			throw new IllegalArgumentException(command + " doesn't have an opcode");
+		entries[opcode] = new Entry<S, R>(guard, decoder, handler);
+	}
+
+	/**
+	 * Register a command without arguments (any it has are ignored).
+	 * @param command The command (it must be in {@link Protocol#commands})
+	 * @param guard Whether or not a sender may use it, answering them if not (<code>null</code> for anyone)
+	 * @param handler Answers it
+	 * @throws IllegalArgumentException If the command doesn't have an opcode
+	 */
+	public void on(String command, Predicate<S> guard, Consumer<S> handler) {
+		on(command, guard, tokens -> null, (sender, none) -> handler.accept(sender));
+	}
+
+	/**
+	 * A command was sent that nothing is registered for. (Including every command without an opcode.)
+	 * <br>
+	 * Should be overridden by something more useful.
+	 * @param sender Where it came from
+	 * @param command The command
+	 */
+	public void unknown(S sender, Tokenizer command) { }
+
+	/**
+	 * A new table, without any commands.
+	 */
+	@SuppressWarnings("unchecked")
+	public CommandTable() {
+		entries = (Entry<S, ?>[])new Entry<?, ?>[Protocol.commands.length];
+	}
+}
@@ -0,0 +1,264 @@
+package coms;
+
+/**
+ * The arguments of every command that has any, as small immutable records.
+ * <p>
+ * Each record decodes itself from a {@link Tokenizer} in one step, so every
+ * side of the protocol parses a command the same way, and handlers only ever
+ * see arguments that are already checked. A decoder that can't make sense of
+ * its command throws an {@link IllegalArgumentException}, whose message says
+ * what was wrong (and is sent back as <code>info-malformed</code>).
+ * </p>
+ * <p>
+ * Some commands mean something different each way: <code>game-play 3,4 ver</code>
+ * from a client is a {@link Move}, <code>game-play 1 3,4 ver 12</code> from the
+ * server is a {@link Played}.
+ * </p>
+ * @see CommandTable
+ */
+public class Commands {
+	/**
+	 * A box claimed by a player. (<code>player-box PLAYER X,Y</code>)
+	 */
+	public record Claimed(int player, int x, int y) {
+		public static Claimed decode(Tokenizer command) {
+			int player = parseInt(command, 1, "Could not parse playerID!");
+			return new Claimed(player, parseX(command, 2), parseY(command, 2));
+		}
+	}
+
+	/**
+	 * A player's new color. (<code>player-color RGB</code>)
+	 */
+	public record Color(int rgb) {
+		public static Color decode(Tokenizer command) {
+			return new Color(parseInt(command, 1, "Could not parse RGB color!"));
+		}
+	}
+
+	/**
+	 * Another player's color. (<code>player-color PLAYER RGB</code>)
+	 */
+	public record Colored(int player, int rgb) {
+		public static Colored decode(Tokenizer command) {
+			int player = parseInt(command, 1, "Could not parse playerID!");
+			return new Colored(player, parseInt(command, 2, "Could not parse RGB color!"));
+		}
+	}
+
+	/**
+	 * Just a player (or client) ID. (<code>player-remove PLAYER</code>, <code>game-current PLAYER</code>, ...)
+	 */
+	public record Id(int id) {
+		public static Id decode(Tokenizer command) {
+			return new Id(parseInt(command, 1, "Could not parse playerID!"));
+		}
+	}
+
+	/**
+	 * A line claimed by a player. (<code>player-line PLAYER hor|ver X,Y</code>)
+	 */
+	public record Line(int player, int x, int y, boolean vertical) {
+		public static Line decode(Tokenizer command) {
+			int player = parseInt(command, 1, "Could not parse playerID!");
+			boolean vertical = parseDirection(command, 2);
+			return new Line(player, parseX(command, 3), parseY(command, 3), vertical);
+		}
+	}
+
+	/**
+	 * A move a client wants to make. (<code>game-play X,Y hor|ver</code>)
+	 */
+	public record Move(int x, int y, boolean vertical) {
+		public static Move decode(Tokenizer command) {
+			int x = parseX(command, 1);
+			int y = parseY(command, 1);
+			return new Move(x, y, parseDirection(command, 2));
+		}
+	}
+
+	/**
+	 * A client's new name. (<code>player-rename NAME</code>)
+	 */
+	public record Name(String name) {
+		public static Name decode(Tokenizer command) {
+			if (command.size() < 2)
+				throw new IllegalArgumentException("Missing player name!");
+			return new Name(command.rest(1));
+		}
+	}
+
+	/**
+	 * A player, and their name. (<code>player-add PLAYER NAME</code>, <code>player-rename PLAYER NAME</code>)
+	 */
+	public record Named(int player, String name) {
+		public static Named decode(Tokenizer command) {
+			return new Named(parseInt(command, 1, "Could not parse playerID!"), command.rest(2));
+		}
+	}
+
+	/**
+	 * Part of the lines and boxes, for a board too large for one <code>grid-snapshot</code>. (<code>grid-part START RUNS SEQ</code>)
+	 * @param start Where the part starts, as {@link grid.Board#restore(int, String)} takes it
+	 * @param runs The part's runs
+	 * @param seq Sequence number of the last move in the whole snapshot
+	 */
+	public record Part(int start, String runs, long seq) {
+		public static Part decode(Tokenizer command) {
+			try {
+				return new Part(command.parseInt(1), command.word(2), command.parseLong(3));
+			}
+			catch (RuntimeException e) {
+				throw new IllegalArgumentException("Could not parse grid snapshot!");
+			}
+		}
+	}
+
+	/**
+	 * A move that was made. (<code>game-play PLAYER X,Y hor|ver [SEQ]</code>)
+	 * @param seq The move's sequence number (-1 if the server didn't send one)
+	 */
+	public record Played(int player, int x, int y, boolean vertical, long seq) {
+		public static Played decode(Tokenizer command) {
+			int player = parseInt(command, 1, "Could not parse playerID!");
+			int x = parseX(command, 2);
+			int y = parseY(command, 2);
+			boolean vertical = parseDirection(command, 3);
+			long seq = -1;
+			if (command.size() > 4) {
+				try {
+					seq = command.parseLong(4);
+				}
+				catch (RuntimeException e) {
+					throw new IllegalArgumentException("Could not parse move sequence number!");
+				}
+			}
+			return new Played(player, x, y, vertical, seq);
+		}
+	}
+
+	/**
+	 * A client that lost its connection, taking its player back. (<code>request-rejoin PLAYER TOKEN LAST_SEQ</code>)
+	 */
+	public record Rejoin(int player, String token, long seq) {
+		public static Rejoin decode(Tokenizer command) {
+			try {
+				return new Rejoin(command.parseInt(1), command.word(2), command.parseLong(3));
+			}
+			catch (RuntimeException e) {
+				throw new IllegalArgumentException("Could not parse rejoin request!");
+			}
+		}
+	}
+
+	/**
+	 * Chat from a player. (<code>network-chat PLAYER TEXT</code>, PLAYER is -3 for the server itself)
+	 */
+	public record Said(int player, String text) {
+		public static Said decode(Tokenizer command) {
+			return new Said(parseInt(command, 1, "Could not parse playerID!"), command.rest(2));
+		}
+	}
+
+	/**
+	 * The size of the grid. (<code>grid-size WIDTHxHEIGHT</code>)
+	 */
+	public record Size(int width, int height) {
+		public static Size decode(Tokenizer command) {
+			try {
+				String size = command.word(1);
+				int x = size.indexOf('x');
+				return new Size(Integer.parseInt(size, 0, x, 10), Integer.parseInt(size, x + 1, size.length(), 10));
+			}
+			catch (RuntimeException e) {
+				throw new IllegalArgumentException("Could not parse grid dimensions!");
+			}
+		}
+	}
+
+	/**
+	 * Every line and box at once. (<code>grid-snapshot LINES LINES BOXES [SEQ]</code>)
+	 * @param board The snapshot, as {@link grid.Board#restore(String)} takes it
+	 * @param seq Sequence number of the last move in it (-1 if the server didn't send one)
+	 */
+	public record Snapshot(String board, long seq) {
+		public static Snapshot decode(Tokenizer command) {
+			try {
+				return new Snapshot(command.word(1) + " " + command.word(2) + " " + command.word(3), command.size() > 4 ? command.parseLong(4) : -1);
+			}
+			catch (RuntimeException e) {
+				throw new IllegalArgumentException("Could not parse grid snapshot!");
+			}
+		}
+	}
+
+	/**
+	 * Free text. (<code>network-chat TEXT</code> from a client, <code>info-warn TEXT</code>, <code>request-deny TEXT</code>)
+	 */
+	public record Text(String text) {
+		public static Text decode(Tokenizer command) {
+			return new Text(command.size() > 1 ? command.rest(1) : "");
+		}
+	}
+
+	/**
+	 * A player's secret, for rejoining. (<code>player-token PLAYER TOKEN</code>)
+	 */
+	public record Token(int player, String token) {
+		public static Token decode(Tokenizer command) {
+			int player = parseInt(command, 1, "Could not parse playerID!");
+			if (command.size() < 3)
+				throw new IllegalArgumentException("Missing token!");
+			return new Token(player, command.word(2));
+		}
+	}
+
+	/**
+	 * The version of the other side. (<code>info-version MAJOR MINOR [binary]</code>)
+	 * @param binary Whether or not it asks for binary frames
+	 */
+	public record Version(int major, int minor, boolean binary) {
+		public static Version decode(Tokenizer command) {
+			try {
+				return new Version(command.parseInt(1), command.parseInt(2), command.is(3, "binary"));
+			}
+			catch (RuntimeException e) {
+				throw new IllegalArgumentException("Could not parse version numbers!");
+			}
+		}
+	}
+
+	private static int parseInt(Tokenizer command, int word, String problem) {
+		try {
+			return command.parseInt(word);
+		}
+		catch (RuntimeException e) {
+			throw new IllegalArgumentException(problem);
+		}
+	}
+
+	private static boolean parseDirection(Tokenizer command, int word) {
+		boolean vertical = command.is(word, "ver");
+		if (!vertical && !command.is(word, "hor"))
+			throw new IllegalArgumentException("Could not parse line direction!");
+		return vertical;
+	}
+
+	private static int parseX(Tokenizer command, int word) {
+		try {
+			return command.x(word);
+		}
+		catch (RuntimeException e) {
+			throw new IllegalArgumentException("Could not parse GridPoint!");
+		}
+	}
+
+	private static int parseY(Tokenizer command, int word) {
+		try {
+			return command.y(word);
+		}
+		catch (RuntimeException e) {
+			throw new IllegalArgumentException("Could not parse GridPoint!");
+		}
+	}
+}
@@ -0,0 +1,499 @@
+package coms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads and writes commands over a socket's streams, as lines of text or as
+ * binary {@link Protocol} frames.
+ * <p>
+ * Every connection starts out sending lines. Either end switches to frames by
+ * sending a final <code>info-binary</code> line ({@link #upgrade()}), and when
+ * that line is read, the other end reads frames from then on. The server only
+ * upgrades a client that asked for it, so old clients never see a frame.
+ * </p>
+ * <p>
+ * {@link #queue(Packet)} only buffers a command, so a server can write a
+ * whole tick's worth of commands and {@link #flush()} them together. The
+ * buffer is written out by itself whenever it fills ({@link #flushThreshold} bytes).
+ * </p>
+ * <p>
+ * Once {@link #startWriter(Transport)} is called, commands are written by a
+ * writer instead, so queuing and flushing never block on the socket. The
+ * writer is a virtual thread of the connection's own with {@link Transport#VIRTUAL},
+ * otherwise one of a shared pool of writer threads, which only holds a thread
+ * while it has something to write. (A client that stops reading holds one
+ * until it is dropped, or its write has been stuck for {@link #stallTimeout},
+ * everybody else only for a moment.) The queue can be
+ * bounded ({@link #offer(Packet, int)}), {@link #depth()} says how far behind
+ * it is, and {@link #close(long, Runnable)} closes it once the writer is done,
+ * without waiting for it.
+ * </p>
+ * @see Protocol
+ */
+public class Connection {
+	private Boolean binaryIn = false;      // Whether or not we are reading frames
+	private Boolean binaryOut = false;     // Whether or not we are writing frames
+	private byte[] buffer = new byte[256]; // Holds the line or frame being read
+	private Boolean closed = false;        // Whether or not the writer should stop (or has failed)
+	private Runnable closer;               // Closes the connection once the writer is done (null unless close(long, Runnable) is waiting for it)
+	private int depth = 0;                 // Bytes queued for the writer, but not yet written
+	private Boolean due = false;           // Whether or not the writer should write what is pending (only while something is)
+	private ArrayDeque<byte[]> pending;    // Commands waiting for the writer (null while writing directly)
+	private Boolean pooled = false;        // Whether or not the writer runs on the shared pool (rather than a thread of its own)
+	private Boolean scheduled = false;     // Whether or not the pool has been asked to write (until it finds nothing due)
+	private int waiting = 0;               // Bytes in pending (the rest of depth is being written)
+	private volatile long writing = 0;     // When the writer's current write began (System.nanoTime(), 0 while it isn't writing)
+
+	private final InputStream in;      // Stream to receive commands from
+	private final OutputStream out;    // Stream to send commands to
+	private final OutputStream socket; // The stream under out (closed to give up on a stalled write)
+
+	/**
+	 * The line that marks the switch to binary frames.
+	 */
+	public static final String upgrade = "info-binary";
+
+	/**
+	 * How many queued bytes are buffered before they are written anyway.
+	 */
+	public static final int flushThreshold = 8192;
+
+	/**
+	 * How long a write may be stuck (because the other end stopped reading) before the connection is closed, in milliseconds.
+	 * <br>
+	 * Whatever the client's {@link SlowConsumer} policy, as its writer can't do anything else until then.
+	 */
+	public static final long stallTimeout = 10000;
+
+	/**
+	 * The line itself. (Never dropped, or the other end would read frames as lines.)
+	 */
+	static final byte[] upgradeLine = new Packet(upgrade).line();
+
+	static final LongAdder bytesRead = new LongAdder();    // Bytes read by every connection (and ChannelClient) in this process
+	static final LongAdder bytesWritten = new LongAdder(); // Bytes written by every connection (and ChannelClient) in this process
+
+	private static final ExecutorService writers = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "Connection writer");
+		thread.setDaemon(true);
+		return thread;
+	}); // Writes for every connection without a writer thread of its own (a thread for each write in progress, idle ones go away)
+
+	private static final Set<Connection> watched = ConcurrentHashMap.newKeySet(); // Connections with a writer, checked for stalled writes
+	private static ScheduledExecutorService watchdog;                             // Checks them every second (null until the first writer starts)
+
+	/**
+	 * Close the output stream. (And stop the writer, dropping anything it hasn't written.)
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		watched.remove(this);
+		try {
+			out.close();
+		}
+		catch (IOException e) { }
+	}
+
+	/**
+	 * Close once the writer has written everything queued, without waiting for it.
+	 * <br>
+	 * Without a writer (or with nothing left to write), it is closed right away.
+	 * @param millis Longest time the writer gets, before it is closed anyway
+	 * @param then Closes the connection (and whatever is under its streams), on whichever thread finishes
+	 */
+	public void close(long millis, Runnable then) {
+		synchronized (this) {
+			if (pending != null && !closed && depth > 0) {
+				if (closer == null) {
+					closer = then;
+					wake();
+					CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS).execute(this::finish);
+				}
+				return;
+			}
+		}
+		if (pending == null)
+			flush();
+		then.run();
+	}
+
+	/**
+	 * How many bytes every connection in this process has read.
+	 * @return Bytes read, ever
+	 */
+	public static long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	/**
+	 * How many bytes every connection in this process has written.
+	 * @return Bytes written, ever
+	 */
+	public static long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	/**
+	 * How many bytes are queued for the writer, and not yet written.
+	 * @return Bytes waiting (always 0 without a writer)
+	 */
+	public synchronized int depth() {
+		return depth;
+	}
+
+	/**
+	 * Drop every command that the writer hasn't started on yet.
+	 * @return How many bytes were dropped
+	 */
+	public synchronized int drop() {
+		if (pending == null)
+			return 0;
+		int dropped = 0;
+		for (byte[] bytes : pending)
+			if (bytes != upgradeLine)
+				dropped += bytes.length;
+		pending.removeIf(bytes -> bytes != upgradeLine);
+		depth -= dropped;
+		waiting -= dropped;
+		due = due && !pending.isEmpty();
+		return dropped;
+	}
+
+	/**
+	 * Write everything queued. (With a writer, only tell it to.)
+	 * @return <code>false</code> if the connection has failed
+	 */
+	public synchronized Boolean flush() {
+		if (pending != null) {
+			if (!pending.isEmpty())
+				wake();
+			return !closed;
+		}
+		try {
+			out.flush();
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Whether or not commands are sent as binary frames.
+	 * @return <code>true</code> once {@link #upgrade()} has been called
+	 */
+	public Boolean isBinary() {
+		return binaryOut;
+	}
+
+	/**
+	 * Read the next command.
+	 * <br>
+	 * Reading the <code>info-binary</code> line switches to reading frames (the line is still returned).
+	 * @return The command, or <code>null</code> if the connection was closed
+	 */
+	public String read() {
+		try {
+			if (binaryIn) {
+				int length = Protocol.readVarint(in);
+				if (length == -1)
+					return null;
+				if (length > Protocol.maxFrame)
+					throw new IOException("Frame too large (" + length + " bytes)");
+				fill(length);
+				bytesRead.add(length + (32 - Integer.numberOfLeadingZeros(length | 1) + 6) / 7);
+				return Protocol.decode(buffer, length);
+			}
+			String line = readLine();
+			if (upgrade.equals(line))
+				binaryIn = true;
+			return line;
+		}
+		catch (IOException e) {
+			System.out.println(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Queue a command, unless the writer is too far behind.
+	 * <br>
+	 * Without a writer, it is always queued, the same as {@link #queue(Packet)}.
+	 * @param packet The command
+	 * @param limit Most bytes that may be waiting for the writer, including this command
+	 * @return <code>false</code> if it wasn't queued, because that would be more than <code>limit</code>
+	 */
+	public synchronized Boolean offer(Packet packet, int limit) {
+		if (pending == null) {
+			queue(packet);
+			return true;
+		}
+		// (A failed connection takes anything, its reader finds out soon enough)
+		if (closed)
+			return true;
+		byte[] bytes = binaryOut ? packet.frame() : packet.line();
+		if (depth + bytes.length > limit)
+			return false;
+		pending.add(bytes);
+		depth += bytes.length;
+		waiting += bytes.length;
+		if (waiting >= flushThreshold && !due)
+			wake();
+		return true;
+	}
+
+	/**
+	 * Buffer a command, to be sent with the next {@link #flush()}.
+	 * @param packet The command
+	 * @return <code>false</code> if the connection has failed
+	 */
+	public synchronized Boolean queue(Packet packet) {
+		if (pending != null)
+			return offer(packet, Integer.MAX_VALUE) && !closed;
+		try {
+			byte[] bytes = binaryOut ? packet.frame() : packet.line();
+			out.write(bytes);
+			bytesWritten.add(bytes.length);
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Send a command (and anything queued before it) right away.
+	 * @param message The command (a single line)
+	 * @return <code>false</code> if the command could not be sent
+	 */
+	public synchronized Boolean send(String message) {
+		return queue(new Packet(message)) && flush();
+	}
+
+	/**
+	 * Send the <code>info-binary</code> line, then switch to sending frames.
+	 */
+	public synchronized void upgrade() {
+		if (binaryOut)
+			return;
+		if (pending != null) {
+			pending.add(upgradeLine);
+			depth += upgradeLine.length;
+			waiting += upgradeLine.length;
+			flush();
+		}
+		else send(upgrade);
+		binaryOut = true;
+	}
+
+	/**
+	 * Write from a writer from now on, so that queuing and flushing only hand commands over, and never block.
+	 * @param transport What runs the writer (a virtual thread of its own with {@link Transport#VIRTUAL}, the shared pool otherwise)
+	 */
+	public synchronized void startWriter(Transport transport) {
+		if (pending != null)
+			return;
+		pending = new ArrayDeque<byte[]>();
+		pooled = !transport.startVirtual(this::write);
+		watched.add(this);
+		watch();
+	}
+
+	// Close every connection whose write has been stuck for too long (which fails its writer, and then its reader)
+	private static void evictStalled() {
+		long now = System.nanoTime();
+		for (Connection connection : watched) {
+			long started = connection.writing;
+			if (started == 0 || now - started < TimeUnit.MILLISECONDS.toNanos(stallTimeout))
+				continue;
+			System.out.println("Client stopped reading " + (now - started) / 1000000 + " ms ago, disconnecting.");
+			watched.remove(connection);
+			synchronized (connection) {
+				connection.closed = true;
+				connection.notifyAll();
+			}
+			try {
+				connection.socket.close();
+			}
+			catch (IOException e) { }
+		}
+	}
+
+	private void fill(int length) throws IOException {
+		if (buffer.length < length)
+			buffer = new byte[Math.max(length, buffer.length * 2)];
+		int read = 0;
+		while (read < length) {
+			int count = in.read(buffer, read, length - read);
+			if (count == -1)
+				throw new IOException("Connection closed in the middle of a frame");
+			read += count;
+		}
+	}
+
+	// Run the closer, if close(long, Runnable) is waiting for one (once the writer is done, or out of time)
+	private void finish() {
+		Runnable then;
+		synchronized (this) {
+			then = closer;
+			closer = null;
+		}
+		if (then != null)
+			then.run();
+	}
+
+	// Tell the writer what is pending is due (the caller holds the lock)
+	private void wake() {
+		due = true;
+		if (!pooled)
+			notifyAll();
+		else if (!scheduled && !closed) {
+			scheduled = true;
+			writers.execute(this::writeDue);
+		}
+	}
+
+	// Start the watchdog, if it hasn't been
+	private static synchronized void watch() {
+		if (watchdog != null)
+			return;
+		watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Connection watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watchdog.scheduleWithFixedDelay(Connection::evictStalled, 1, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * The writer, on a thread of its own: write whatever is pending each time it is due, until the connection is closed.
+	 */
+	private void write() {
+		ArrayList<byte[]> batch = new ArrayList<byte[]>();
+		try {
+			while (true) {
+				synchronized (this) {
+					while (!closed && !due)
+						wait();
+					if (closed)
+						return;
+				}
+				writeBatch(batch);
+			}
+		}
+		catch (IOException e) { }
+		catch (InterruptedException e) { }
+		failed();
+	}
+
+	/**
+	 * One of the shared pool's writers: write whatever is pending until nothing more is due.
+	 */
+	private void writeDue() {
+		ArrayList<byte[]> batch = new ArrayList<byte[]>();
+		try {
+			while (writeBatch(batch));
+			return;
+		}
+		catch (IOException e) { }
+		failed();
+	}
+
+	/**
+	 * Write what is pending, if it is due.
+	 * @param batch Somewhere to put it while it is written (left empty)
+	 * @return <code>false</code> if nothing was due (so a pooled writer is done), or the connection is closed
+	 */
+	private boolean writeBatch(ArrayList<byte[]> batch) throws IOException {
+		int size;
+		synchronized (this) {
+			if (closed || !due) {
+				scheduled = false;
+				return false;
+			}
+			batch.addAll(pending);
+			pending.clear();
+			size = waiting;
+			waiting = 0;
+			due = false;
+		}
+		// (Only this writer writes now, and it blocks nobody else while it does)
+		writing = System.nanoTime();
+		for (byte[] bytes : batch)
+			out.write(bytes);
+		out.flush();
+		writing = 0;
+		batch.clear();
+		bytesWritten.add(size);
+		boolean done;
+		synchronized (this) {
+			depth -= size;
+			done = depth == 0 && closer != null;
+		}
+		if (done)
+			finish();
+		return true;
+	}
+
+	// The writer can't write any more (the connection failed)
+	private void failed() {
+		synchronized (this) {
+			closed = true;
+			scheduled = false;
+		}
+		watched.remove(this);
+		finish();
+	}
+
+	private String readLine() throws IOException {
+		int length = 0;
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				if (length == 0)
+					return null;
+				break;
+			}
+			if (length == buffer.length) {
+				if (length >= Protocol.maxFrame)
+					throw new IOException("Line too long");
+				buffer = Arrays.copyOf(buffer, length * 2);
+			}
+			buffer[length++] = (byte)b;
+		}
+		bytesRead.add(b == '\n' ? length + 1 : length);
+		if (length > 0 && buffer[length - 1] == '\r')
+			length--;
+		return new String(buffer, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A new connection, sending and receiving lines of text.
+	 * @param in Stream to receive commands from
+	 * @param out Stream to send commands to
+	 */
+	public Connection(InputStream in, OutputStream out) {
+		this.in = new BufferedInputStream(in);
+		this.out = new BufferedOutputStream(out, flushThreshold);
+		socket = out;
+	}
+}
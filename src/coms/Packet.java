@@ -0,0 +1,77 @@
+package coms;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A command, encoded at most once for however many clients it is sent to.
+ * <p>
+ * Text and binary clients need different bytes, so each form is only built
+ * the first time a client asks for it, and then shared by every other client.
+ * The returned arrays must never be modified.
+ * </p>
+ * @see Client#queue(Packet)
+ */
+public class Packet {
+	private volatile byte[] frame; // Binary frame, once encoded
+	private volatile byte[] line;  // Text line, once encoded
+	private int opcode = -1;       // The command's opcode, once looked up
+
+	public final String message; // The command (a single line)
+
+	/**
+	 * The command as a binary {@link Protocol} frame.
+	 * @return The frame, including its length prefix
+	 */
+	public byte[] frame() {
+		if (frame == null)
+			frame = Protocol.encode(message);
+		return frame;
+	}
+
+	/**
+	 * The command as a line of text.
+	 * @return UTF-8 bytes, including the newline
+	 */
+	public byte[] line() {
+		if (line == null)
+			line = (message + "\n").getBytes(StandardCharsets.UTF_8);
+		return line;
+	}
+
+	/**
+	 * The command's opcode.
+	 * @return Its index in {@link Protocol#commands}, or 0 if it isn't there
+	 */
+	public int opcode() {
+		if (opcode == -1) {
+			int space = message.indexOf(' ');
+			opcode = Protocol.opcode(message, 0, space == -1 ? message.length() : space);
+		}
+		return opcode;
+	}
+
+	/**
+	 * Split several commands into packets.
+	 * @param messages The commands, one per line
+	 * @return A packet for each command
+	 */
+	public static Packet[] split(String messages) {
+		String[] lines = messages.split("\n");
+		Packet[] packets = new Packet[lines.length];
+		for (int i = 0; i < lines.length; i++)
+			packets[i] = new Packet(lines[i]);
+		return packets;
+	}
+
+	public String toString() {
+		return message;
+	}
+
+	/**
+	 * A new packet, not yet encoded.
+	 * @param message The command (a single line)
+	 */
+	public Packet(String message) {
+		this.message = message;
+	}
+}
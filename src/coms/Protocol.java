@@ -0,0 +1,316 @@
+package coms;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The compact binary form of the NetDot protocol.
+ * <p>
+ * Every command is still a line of text as far as the game is concerned, but
+ * once both ends have agreed to it (see {@link Connection}), each line is sent
+ * as a length-prefixed frame instead:
+ * </p>
+ * <pre>
+ * frame   = varint(length) opcode token*
+ * opcode  = one byte, the index of the command in {@link #commands} (0 means the command is sent as the first token)
+ * token   = TAG_INT zigzag-varint
+ *         | TAG_POINT zigzag-varint zigzag-varint
+ *         | TAG_HOR | TAG_VER
+ *         | TAG_STRING varint(length) utf-8
+ * </pre>
+ * So <code>game-play 3 10,12 ver</code> (22 bytes as a line) becomes an 8 byte frame.
+ * Decoding always gives back exactly the line that was encoded.
+ * @see Connection
+ */
+public class Protocol {
+	// Token Tags
+	private static final int TAG_STRING = 0;
+	private static final int TAG_INT = 1;
+	private static final int TAG_POINT = 2;
+	private static final int TAG_HOR = 3;
+	private static final int TAG_VER = 4;
+
+	private static final int[] opcodes = new int[256]; // Opcode of each command, in the slot its hash picks (open addressing, 0 for an empty slot)
+
+	/**
+	 * Every command with its own opcode. Only ever append to this list, the
+	 * index of each command is its opcode on the wire.
+	 */
+	public static final String[] commands = {
+		null, // 0: command sent as a string token
+		"game-current", "game-play", "game-restart", "game-start", "game-stop",
+		"grid-reset", "grid-size",
+		"info-binary", "info-malformed", "info-version", "info-warn",
+		"network-assign", "network-busy", "network-chat", "network-disconnect", "network-full",
+		"player-add", "player-box", "player-color", "player-line", "player-remove", "player-rename",
+		"request-deny", "request-info", "request-join", "request-restart", "request-spectate", "request-start", "request-stop",
+		"room-create", "room-info", "room-join", "room-list", "unknown-room",
+		"grid-snapshot",
+		"player-rejoin", "player-token", "request-rejoin",
+		"grid-part",
+	};
+
+	/**
+	 * The largest frame we are willing to read, anything bigger is treated as a broken connection.
+	 */
+	public static final int maxFrame = 1 << 16;
+
+	static {
+		for (int opcode = 1; opcode < commands.length; opcode++) {
+			int slot = commands[opcode].hashCode() & opcodes.length - 1;
+			while (opcodes[slot] != 0)
+				slot = slot + 1 & opcodes.length - 1;
+			opcodes[slot] = opcode;
+		}
+	}
+
+	/**
+	 * A growable byte buffer, without any locking.
+	 */
+	private static class Bytes {
+		byte[] data = new byte[32];
+		int length = 0;
+
+		void write(int b) {
+			if (length == data.length)
+				data = Arrays.copyOf(data, length * 2);
+			data[length++] = (byte)b;
+		}
+
+		void write(byte[] bytes) {
+			if (length + bytes.length > data.length)
+				data = Arrays.copyOf(data, Math.max(length * 2, length + bytes.length));
+			System.arraycopy(bytes, 0, data, length, bytes.length);
+			length += bytes.length;
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+	}
+
+	/**
+	 * Parse a number, only if it prints back exactly the same way.
+	 * @return The number, or <code>null</code> if <code>text</code> isn't a canonical int
+	 */
+	private static Integer canonicalInt(String text, int start, int end) {
+		int length = end - start;
+		if (length == 0 || length > 11)
+			return null;
+		boolean negative = text.charAt(start) == '-';
+		int digits = negative ? start + 1 : start;
+		if (digits == end || (text.charAt(digits) == '0' && (end - digits > 1 || negative)))
+			return null;
+		long value = 0;
+		for (int i = digits; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return null;
+			value = value * 10 + (c - '0');
+		}
+		value = negative ? -value : value;
+		return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? null : (int)value;
+	}
+
+	/**
+	 * Whether or not part of some text is exactly a string.
+	 */
+	static boolean matches(String string, CharSequence text, int start, int end) {
+		if (end - start != string.length())
+			return false;
+		for (int i = start; i < end; i++)
+			if (text.charAt(i) != string.charAt(i - start))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Look up a command's opcode.
+	 * @param command The command
+	 * @return The command's index in {@link #commands}, or 0 if it doesn't have one
+	 */
+	public static int opcode(String command) {
+		return opcode(command, 0, command.length());
+	}
+
+	/**
+	 * Look up a command's opcode, without copying it out of the text it is in.
+	 * @param text Text holding the command
+	 * @param start Where the command starts in <code>text</code>
+	 * @param end Where the command ends in <code>text</code>
+	 * @return The command's index in {@link #commands}, or 0 if it doesn't have one
+	 */
+	public static int opcode(CharSequence text, int start, int end) {
+		// (The same hash as String's, so the table can be built from the commands themselves)
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + text.charAt(i);
+		for (int slot = hash & opcodes.length - 1; opcodes[slot] != 0; slot = slot + 1 & opcodes.length - 1)
+			if (matches(commands[opcodes[slot]], text, start, end))
+				return opcodes[slot];
+		return 0;
+	}
+
+	private static void encodeToken(Bytes out, String token) {
+		if (token.equals("hor")) {
+			out.write(TAG_HOR);
+			return;
+		}
+		if (token.equals("ver")) {
+			out.write(TAG_VER);
+			return;
+		}
+		Integer number = canonicalInt(token, 0, token.length());
+		if (number != null) {
+			out.write(TAG_INT);
+			out.writeVarint(zigzag(number));
+			return;
+		}
+		int comma = token.indexOf(',');
+		if (comma != -1) {
+			Integer x = canonicalInt(token, 0, comma);
+			Integer y = x == null ? null : canonicalInt(token, comma + 1, token.length());
+			if (y != null) {
+				out.write(TAG_POINT);
+				out.writeVarint(zigzag(x));
+				out.writeVarint(zigzag(y));
+				return;
+			}
+		}
+		byte[] utf8 = token.getBytes(StandardCharsets.UTF_8);
+		out.write(TAG_STRING);
+		out.writeVarint(utf8.length);
+		out.write(utf8);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Decode a frame's contents back into a command line.
+	 * @param frame The frame (without its length prefix)
+	 * @param length How many bytes of <code>frame</code> to use
+	 * @return The command, exactly as it was encoded
+	 * @throws IOException If the frame is malformed
+	 */
+	public static String decode(byte[] frame, int length) throws IOException {
+		return decode(frame, 0, length);
+	}
+
+	/**
+	 * Decode a frame's contents back into a command line.
+	 * @param frame Buffer holding the frame (without its length prefix)
+	 * @param offset Where the frame starts in <code>frame</code>
+	 * @param length How many bytes long the frame is
+	 * @return The command, exactly as it was encoded
+	 * @throws IOException If the frame is malformed
+	 */
+	public static String decode(byte[] frame, int offset, int length) throws IOException {
+		if (length < 1)
+			throw new IOException("Empty frame");
+		int[] position = { offset + 1 };
+		length += offset;
+		int opcode = frame[offset] & 0xFF;
+		if (opcode >= commands.length)
+			throw new IOException("Unknown opcode " + opcode);
+		StringBuilder message = new StringBuilder((length - offset) * 2);
+		if (opcode != 0)
+			message.append(commands[opcode]);
+		boolean first = opcode == 0;
+		while (position[0] < length) {
+			if (!first)
+				message.append(' ');
+			first = false;
+			switch (frame[position[0]++]) {
+			case TAG_INT:
+				message.append(unzigzag(readVarint(frame, length, position)));
+				break;
+			case TAG_POINT:
+				message.append(unzigzag(readVarint(frame, length, position))).append(',').append(unzigzag(readVarint(frame, length, position)));
+				break;
+			case TAG_HOR:
+				message.append("hor");
+				break;
+			case TAG_VER:
+				message.append("ver");
+				break;
+			case TAG_STRING:
+				int size = readVarint(frame, length, position);
+				if (size < 0 || position[0] + size > length)
+					throw new IOException("String token overruns frame");
+				message.append(new String(frame, position[0], size, StandardCharsets.UTF_8));
+				position[0] += size;
+				break;
+			default:
+				throw new IOException("Unknown token tag");
+			}
+		}
+		return message.toString();
+	}
+
+	/**
+	 * Encode a command line as a frame.
+	 * @param message The command (a single line)
+	 * @return The frame, including its length prefix
+	 */
+	public static byte[] encode(String message) {
+		Bytes payload = new Bytes();
+		String[] tokens = message.split(" ", -1);
+		int opcode = opcode(tokens[0]);
+		payload.write(opcode);
+		for (int i = opcode == 0 ? 0 : 1; i < tokens.length; i++)
+			encodeToken(payload, tokens[i]);
+
+		Bytes frame = new Bytes();
+		frame.writeVarint(payload.length);
+		frame.write(Arrays.copyOf(payload.data, payload.length));
+		return Arrays.copyOf(frame.data, frame.length);
+	}
+
+	/**
+	 * Read an unsigned varint from a stream.
+	 * @param in Stream to read from
+	 * @return The value, or -1 if the stream ended before the first byte
+	 * @throws IOException If the stream ended part way, or the varint is too long
+	 */
+	public static int readVarint(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.read();
+			if (b == -1) {
+				if (shift == 0)
+					return -1;
+				throw new EOFException("Connection closed in the middle of a frame");
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static int readVarint(byte[] frame, int length, int[] position) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (position[0] >= length)
+				throw new IOException("Varint overruns frame");
+			int b = frame[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -1,15 +1,14 @@
 package coms;
 
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.Scanner;
 
 public class Server extends Thread {
 	private Boolean connected;     // Whether or not we successfully made a connection
-	private Scanner serverIn;      // Connection to receive commands from server
-	private PrintWriter serverOut; // Connection to send commands to server
+	private Connection connection; // Connection to send and receive commands to/from server
 	private Socket sock;           // Initial socket for connection to server
 
+	public Transport transport = Transport.THREAD; // What runs the read loop (THREAD or VIRTUAL, set before start())
+
 	public void close() {
 		try {
 			sock.close();
@@ -18,7 +17,8 @@ public class Server extends Thread {
 			System.out.println("Unable to close server socket...");
 			System.out.println(e);
 		}
-		serverOut.close();
+		if (connection != null)
+			connection.close();
 	}
 
 	/**
@@ -39,6 +39,14 @@ public class Server extends Thread {
 		System.out.println("Server disconnected.");
 	};
 
+	/**
+	 * Whether or not the connection was made.
+	 * @return <code>false</code> if the server couldn't be reached
+	 */
+	public Boolean isConnected() {
+		return connected;
+	}
+
 	/**
 	 * Receive a message from the client.
 	 * <br>
@@ -54,24 +62,40 @@ public class Server extends Thread {
 	 * @param message The command
 	 */
 	public String send(String message) {
-		serverOut.println(message);
-		serverOut.flush();
+		if (connection != null)
+			connection.send(message);
 		return message;
 	}
 
 	/**
-	 * Begin the thread.
+	 * Switch to sending binary frames. (Only once the server has sent <code>info-binary</code>.)
+	 * @see Connection#upgrade()
+	 */
+	public void upgrade() {
+		if (connection != null)
+			connection.upgrade();
+	}
+
+	/**
+	 * Begin the thread. (Or a virtual thread running it, with {@link Transport#VIRTUAL}.)
+	 */
+	@Override
+	public synchronized void start() {
+		if (!transport.startVirtual(this))
+			super.start();
+	}
+
+	/**
+	 * Read messages until the server disconnects.
 	 */
 	public void run() {
 		if (connected) {
 			connected();
-			while (serverIn.hasNextLine()) {
-				String message = serverIn.nextLine();
+			String message;
+			while (connection != null && (message = connection.read()) != null) {
 				receive(message);
 			}
 			System.out.println("Server has disconnected!");
-			disconnected();
-			serverIn.close();
 			close();
 		}
 		disconnected();
@@ -86,6 +110,7 @@ public class Server extends Thread {
 		connected = false;
 		try {
 			sock = new Socket(remoteAddr, port);
+			sock.setTcpNoDelay(true);
 		}
 		catch (Exception e) {
 			System.out.println("Unable to connect to " + remoteAddr + " on port " + port);
@@ -95,11 +120,10 @@ public class Server extends Thread {
 		connected = true;
 
 		try {
-			serverIn = new Scanner(sock.getInputStream());
-			serverOut = new PrintWriter(sock.getOutputStream());
+			connection = new Connection(sock.getInputStream(), sock.getOutputStream());
 		}
 		catch (Exception e) {
-			System.out.println("Could not create Scanner, or PrintWriter for server!");
+			System.out.println("Could not create Connection for server!");
 			System.out.println(e);
 			close();
 		}
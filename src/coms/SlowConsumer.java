@@ -0,0 +1,25 @@
+package coms;
+
+/**
+ * What to do with a client that can't keep up with what it is sent.
+ * <p>
+ * Everything sent to a client waits in its own bounded queue
+ * ({@link Client#queueLimit} bytes), which is written out by the I/O layer,
+ * never by whoever sent it. A client that lets its queue fill up is a slow
+ * consumer, and is dealt with on its own, so it never holds up anyone else.
+ * </p>
+ * @see Client#slowConsumer
+ */
+public enum SlowConsumer {
+	/**
+	 * Drop everything still queued, and skip whatever is sent next, until the
+	 * owner of the client brings it up to date all at once (see {@link Client#isLagging()}).
+	 * A client that stops reading altogether is still disconnected, once its
+	 * writer has been stuck for {@link Connection#stallTimeout}.
+	 */
+	RESYNC,
+	/**
+	 * Disconnect the client.
+	 */
+	DISCONNECT;
+}
@@ -0,0 +1,238 @@
+package coms;
+
+import java.util.Arrays;
+
+/**
+ * Takes a command line apart in one pass, without copying it.
+ * <p>
+ * Words are separated by single spaces, the same as <code>line.split(" ")</code>
+ * (empty words count, except at the end), but only where each word starts and
+ * ends is kept. Numbers and points are parsed straight out of the line, and a
+ * command's group and verb (<code>game</code> and <code>play</code> in
+ * <code>game-play</code>) come from a table built from {@link Protocol#commands},
+ * so taking apart any command in that table allocates nothing. Only the words
+ * asked for as strings (names, chat) are copied.
+ * </p>
+ * <p>
+ * One tokenizer is reused for line after line, so it must only be used by one thread at a time.
+ * </p>
+ */
+public class Tokenizer {
+	private int count;                 // Words in the line, not counting empty words at the end
+	private int end;                   // Where the line ends in text
+	private int[] ends = new int[8];   // Where each word ends in text
+	private int fields;                // Words in the line, including empty words at the end
+	private int hyphen;                // Where the first word's first hyphen is in text (-1 if it has none)
+	private int opcode;                // The command's index in Protocol.commands (0 if it isn't there)
+	private int[] starts = new int[8]; // Where each word starts in text
+	private CharSequence text = "";    // Holds the line
+
+	private static final String[] groups = new String[Protocol.commands.length]; // Group of each command in Protocol.commands
+	private static final String[] verbs = new String[Protocol.commands.length];  // Verb of each command in Protocol.commands
+
+	static {
+		for (int opcode = 1; opcode < Protocol.commands.length; opcode++) {
+			String command = Protocol.commands[opcode];
+			groups[opcode] = command.substring(0, command.indexOf('-'));
+			verbs[opcode] = command.substring(command.indexOf('-') + 1);
+		}
+	}
+
+	private void check(int word) {
+		if (word < 0 || word >= count)
+			throw new IndexOutOfBoundsException("No word " + word + " in " + this);
+	}
+
+	/**
+	 * Where a point's comma is.
+	 */
+	private int comma(int word) {
+		check(word);
+		for (int i = starts[word]; i < ends[word]; i++)
+			if (text.charAt(i) == ',')
+				return i;
+		throw new NumberFormatException("Not a point: " + word(word));
+	}
+
+	/**
+	 * The command, the line's first word.
+	 * @return The command (the same string every time, for commands in {@link Protocol#commands})
+	 */
+	public String command() {
+		return opcode != 0 ? Protocol.commands[opcode] : word(0);
+	}
+
+	/**
+	 * The command's group, the part of its first word before the hyphen.
+	 * @return The group (the same string every time, for groups of commands in {@link Protocol#commands})
+	 */
+	public String group() {
+		if (opcode != 0)
+			return groups[opcode];
+		if (hyphen == -1)
+			return word(0);
+		for (int i = 1; i < groups.length; i++)
+			if (Protocol.matches(groups[i], text, starts[0], hyphen))
+				return groups[i];
+		return text.subSequence(starts[0], hyphen).toString();
+	}
+
+	/**
+	 * Whether or not a word is exactly some text.
+	 * @param word The word's index (0 is the command)
+	 * @param value The text
+	 * @return <code>false</code> if it isn't, or there is no such word
+	 */
+	public boolean is(int word, String value) {
+		return word >= 0 && word < count && Protocol.matches(value, text, starts[word], ends[word]);
+	}
+
+	/**
+	 * The command's opcode.
+	 * @return Its index in {@link Protocol#commands}, or 0 if it isn't there
+	 */
+	public int opcode() {
+		return opcode;
+	}
+
+	/**
+	 * Parse a word as a number.
+	 * @param word The word's index (0 is the command)
+	 * @return The number
+	 * @throws NumberFormatException If the word isn't a number
+	 * @throws IndexOutOfBoundsException If there is no such word
+	 */
+	public int parseInt(int word) {
+		check(word);
+		return Integer.parseInt(text, starts[word], ends[word], 10);
+	}
+
+	/**
+	 * Parse a word as a (long) number.
+	 * @param word The word's index (0 is the command)
+	 * @return The number
+	 * @throws NumberFormatException If the word isn't a number
+	 * @throws IndexOutOfBoundsException If there is no such word
+	 */
+	public long parseLong(int word) {
+		check(word);
+		return Long.parseLong(text, starts[word], ends[word], 10);
+	}
+
+	/**
+	 * Take apart a line.
+	 * @param text The line (a single line, without its newline)
+	 * @return This tokenizer
+	 */
+	public Tokenizer reset(CharSequence text) {
+		return reset(text, 0, text.length());
+	}
+
+	/**
+	 * Take apart a line, that is part of some text.
+	 * <br>
+	 * The text must not change until this tokenizer is done with the line.
+	 * @param text Text holding the line
+	 * @param start Where the line starts in <code>text</code>
+	 * @param end Where the line ends in <code>text</code> (not including its newline)
+	 * @return This tokenizer
+	 */
+	public Tokenizer reset(CharSequence text, int start, int end) {
+		this.text = text;
+		this.end = end;
+		fields = 0;
+		count = 0;
+		hyphen = -1;
+		int word = start;
+		for (int i = start; i <= end; i++) {
+			char c = i == end ? ' ' : text.charAt(i);
+			if (c == '-' && fields == 0 && hyphen == -1)
+				hyphen = i;
+			if (c != ' ')
+				continue;
+			if (fields == starts.length) {
+				starts = Arrays.copyOf(starts, fields * 2);
+				ends = Arrays.copyOf(ends, fields * 2);
+			}
+			starts[fields] = word;
+			ends[fields] = i;
+			if (i > word || fields == 0)
+				count = fields + 1;
+			fields++;
+			word = i + 1;
+		}
+		opcode = Protocol.opcode(text, starts[0], ends[0]);
+		return this;
+	}
+
+	/**
+	 * Everything from a word to the end of the line. (A name, or chat.)
+	 * @param word The word's index (0 is the command)
+	 * @return The rest of the line, or an empty string if there is no such word
+	 */
+	public String rest(int word) {
+		return word < 0 || word >= fields ? "" : text.subSequence(starts[word], end).toString();
+	}
+
+	/**
+	 * How many words there are.
+	 * @return Words in the line, including the command (the same as <code>line.split(" ").length</code>)
+	 */
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return text.subSequence(starts[0], end).toString();
+	}
+
+	/**
+	 * The command's verb, the part of its first word after the hyphen.
+	 * @return The verb (the same string every time, for commands in {@link Protocol#commands}),
+	 * or <code>null</code> if the command isn't followed by a hyphen
+	 */
+	public String verb() {
+		if (opcode != 0)
+			return verbs[opcode];
+		if (hyphen == -1 || hyphen + 1 == ends[0])
+			return null;
+		int stop = hyphen + 1;
+		while (stop < ends[0] && text.charAt(stop) != '-')
+			stop++;
+		return text.subSequence(hyphen + 1, stop).toString();
+	}
+
+	/**
+	 * Copy a word out of the line.
+	 * @param word The word's index (0 is the command)
+	 * @return The word
+	 * @throws IndexOutOfBoundsException If there is no such word
+	 */
+	public String word(int word) {
+		check(word);
+		return text.subSequence(starts[word], ends[word]).toString();
+	}
+
+	/**
+	 * Parse the x coordinate of a point (<code>x,y</code>).
+	 * @param word The point's index (0 is the command)
+	 * @return The x coordinate
+	 * @throws NumberFormatException If the word isn't a point
+	 * @throws IndexOutOfBoundsException If there is no such word
+	 */
+	public int x(int word) {
+		return Integer.parseInt(text, starts[word], comma(word), 10);
+	}
+
+	/**
+	 * Parse the y coordinate of a point (<code>x,y</code>).
+	 * @param word The point's index (0 is the command)
+	 * @return The y coordinate
+	 * @throws NumberFormatException If the word isn't a point
+	 * @throws IndexOutOfBoundsException If there is no such word
+	 */
+	public int y(int word) {
+		return Integer.parseInt(text, comma(word) + 1, ends[word], 10);
+	}
+}
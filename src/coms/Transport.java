@@ -0,0 +1,66 @@
+package coms;
+
+import java.lang.reflect.Method;
+
+/**
+ * How a server runs its client connections.
+ * @see ClientCollector
+ * @see ClientSelector
+ */
+public enum Transport {
+	/**
+	 * One platform thread per client, blocking on reads. (The original model.)
+	 */
+	THREAD,
+	/**
+	 * One thread serving every client through a non-blocking selector.
+	 */
+	SELECTOR,
+	/**
+	 * One virtual thread per client, blocking on reads. Needs Java 21, falls back to {@link #THREAD} otherwise.
+	 */
+	VIRTUAL;
+
+	private static final Object builder; // Thread.ofVirtual() builder, null if unavailable
+	private static final Method start;   // Thread.Builder.start(Runnable)
+
+	/**
+	 * Whether or not this JVM can run virtual threads.
+	 */
+	public static final boolean virtualThreads;
+
+	static {
+		Object virtual = null;
+		Method method = null;
+		try {
+			virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			method = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+		}
+		catch (Exception e) {
+			// Older JVM (or a preview feature that wasn't enabled)
+			virtual = null;
+		}
+		builder = virtual;
+		start = method;
+		virtualThreads = builder != null;
+	}
+
+	/**
+	 * Run a connection's read loop on a virtual thread, for {@link #VIRTUAL}.
+	 * @param task The read loop
+	 * @return <code>false</code> if it wasn't started (so it should be run on a platform thread)
+	 */
+	boolean startVirtual(Runnable task) {
+		if (this != VIRTUAL || !virtualThreads)
+			return false;
+		try {
+			start.invoke(builder, task);
+			return true;
+		}
+		catch (Exception e) {
+			System.out.println("Unable to start a virtual thread, using a platform thread instead.");
+			System.out.println(e);
+			return false;
+		}
+	}
+}
@@ -0,0 +1,516 @@
+package grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ownership data for every line and box on a {@link Grid}.
+ * <p>
+ * Owners are stored as playerIDs (-1 if unclaimed) in flat arrays, indexed by
+ * <code>height * x + y</code> (the same order as {@link Grid#newArray()}).<br>
+ * Like a <code>Dot</code>, each point tracks the horizontal line to its right,
+ * the vertical line below it, and the box to its bottom right. Points on the
+ * edge of the grid never own a box, or one or more lines.
+ * </p>
+ * <p>
+ * The board also keeps a Zobrist hash of which lines are claimed (not who
+ * claimed them, which makes no difference to how the game can go on), under
+ * each of the grid's symmetries: 8 for a square grid (rotations and
+ * reflections), or 4 otherwise. Each is updated with a few XORs as lines are
+ * claimed, so {@link #getCanonicalHash()} is the same for every position that
+ * is just a rotation or reflection of another, and solvers, books and caches
+ * can share what they know about them.
+ * </p>
+ * @see Grid
+ */
+public class Board {
+	private int[] boxes;      // Box owners
+	private int claimed;      // How many boxes have been claimed
+	private int height;       // Grid height (copied from grid, so indexing never sees a half-resized grid)
+	private int[] horizontal; // Owners of the line directly to the right of each point
+	private int spaces;       // How many boxes there are
+	private int symmetries;   // How many ways the grid can be rotated or reflected onto itself (8 if it is square, 4 if not)
+	private int[] vertical;   // Owners of the line directly below each point
+	private int width;        // Grid width
+
+	private final Grid grid;                   // Grid information
+	private final long[] hashes = new long[8]; // Zobrist hash of the claimed lines, under each symmetry
+
+	// Results of play(int, int, int, boolean)
+	public static final int INVALID = -1;   // The line doesn't exist, or was already owned
+	public static final int NO_SCORE = 0;   // The line was claimed, but no boxes were
+	public static final int SCORED_ONE = 1; // The line and one box were claimed
+	public static final int SCORED_TWO = 2; // The line and two boxes were claimed
+	public static final int GAME_OVER = 4;  // Flag: every box has now been claimed (combined with SCORED_ONE or SCORED_TWO)
+
+	/**
+	 * Claim ownership of a box.
+	 * @param x The box's grid x coordinate
+	 * @param y The box's grid y coordinate
+	 * @param playerID The claimant
+	 * @return <code>true</code> if the box was claimed, <code>false</code> if it doesn't exist or is already owned
+	 */
+	public boolean claimBox(int x, int y, int playerID) {
+		if (!hasBox(x, y) || boxes[height * x + y] != -1)
+			return false;
+		boxes[height * x + y] = playerID;
+		claimed++;
+		return true;
+	}
+
+	/**
+	 * Claim ownership of a line.
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @param playerID The claimant
+	 * @return <code>true</code> if the line was claimed, <code>false</code> if it doesn't exist or is already owned
+	 */
+	public boolean claimLine(int x, int y, boolean vertical, int playerID) {
+		if (!hasLine(x, y, vertical))
+			return false;
+		int[] owners = vertical ? this.vertical : horizontal;
+		if (owners[height * x + y] != -1)
+			return false;
+		owners[height * x + y] = playerID;
+		hash(x, y, vertical);
+		return true;
+	}
+
+	/**
+	 * Whether a box has all four of its lines claimed.
+	 * @param x The box's grid x coordinate
+	 * @param y The box's grid y coordinate
+	 * @return <code>true</code> if the box is enclosed, <code>false</code> if not, or if there is no such box
+	 */
+	public boolean enclosed(int x, int y) {
+		if (!hasBox(x, y))
+			return false;
+		int index = height * x + y;
+		return horizontal[index] >= 0 && vertical[index] >= 0 && horizontal[index + 1] >= 0 && vertical[index + height] >= 0;
+	}
+
+	/**
+	 * Get the owner of a box.
+	 * @param x The box's grid x coordinate
+	 * @param y The box's grid y coordinate
+	 * @return The owner's playerID (-1 if unclaimed, or if there is no such box)
+	 */
+	public int getBox(int x, int y) {
+		return hasBox(x, y) ? boxes[height * x + y] : -1;
+	}
+
+	/**
+	 * The hash of the claimed lines, the same for every rotation and reflection of them.
+	 * @return The smallest of the hashes under each symmetry
+	 * @see #getSymmetry()
+	 */
+	public long getCanonicalHash() {
+		return hashes[getSymmetry()];
+	}
+
+	/**
+	 * Get the owner of a line.
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return The owner's playerID (-1 if unclaimed, or if there is no such line)
+	 */
+	public int getLine(int x, int y, boolean vertical) {
+		return hasLine(x, y, vertical) ? (vertical ? this.vertical : horizontal)[height * x + y] : -1;
+	}
+
+	/**
+	 * How many boxes have been claimed so far.
+	 * @return Number of owned boxes
+	 */
+	public int getClaimed() {
+		return claimed;
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * The Zobrist hash of the claimed lines.
+	 * @return The XOR of {@link #zobrist(int, int, boolean)} for every claimed line
+	 */
+	public long getHash() {
+		return hashes[0];
+	}
+
+	/**
+	 * Which symmetry turns this position into its canonical one.
+	 * @return The symmetry whose hash is {@link #getCanonicalHash()}
+	 * @see #transform(int, int, int, boolean)
+	 */
+	public int getSymmetry() {
+		int best = 0;
+		for (int symmetry = 1; symmetry < symmetries; symmetry++)
+			if (hashes[symmetry] < hashes[best])
+				best = symmetry;
+		return best;
+	}
+
+	/**
+	 * How many ways the grid can be rotated or reflected onto itself.
+	 * @return 8 for a square grid, otherwise 4
+	 */
+	public int getSymmetries() {
+		return symmetries;
+	}
+
+	// Claiming or unclaiming a line toggles its key in each symmetry's hash
+	private void hash(int x, int y, boolean vertical) {
+		for (int symmetry = 0; symmetry < symmetries; symmetry++) {
+			int line = transform(symmetry, x, y, vertical);
+			hashes[symmetry] ^= zobrist((line >> 1) / height, (line >> 1) % height, (line & 1) != 0);
+		}
+	}
+
+	/**
+	 * Whether a point owns a box.
+	 * @param x The point's grid x coordinate
+	 * @param y The point's grid y coordinate
+	 * @return <code>true</code> if there is a box to the bottom right of this point
+	 */
+	public boolean hasBox(int x, int y) {
+		return x >= 0 && y >= 0 && x < width - 1 && y < height - 1;
+	}
+
+	/**
+	 * Whether a point owns a line.
+	 * @param x The point's grid x coordinate
+	 * @param y The point's grid y coordinate
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return <code>true</code> if the line exists
+	 */
+	public boolean hasLine(int x, int y, boolean vertical) {
+		return x >= 0 && y >= 0 && (vertical ? x < width && y < height - 1 : x < width - 1 && y < height);
+	}
+
+	/**
+	 * Whether every box has been claimed.
+	 * @return <code>true</code> if the game is over
+	 */
+	public boolean isFull() {
+		return claimed == spaces;
+	}
+
+	/**
+	 * Claim a line, and any boxes it completes.
+	 * <p>
+	 * Allocates nothing, and only ever indexes into the ownership arrays, so it
+	 * is safe to call for every move of every game.
+	 * </p>
+	 * @param playerID The player making the move
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return {@link #INVALID}, or the number of boxes claimed ({@link #NO_SCORE}, {@link #SCORED_ONE},
+	 * {@link #SCORED_TWO}), with {@link #GAME_OVER} added if that was the last box
+	 * @see #scored(int)
+	 */
+	public int play(int playerID, int x, int y, boolean vertical) {
+		if (!claimLine(x, y, vertical, playerID))
+			return INVALID;
+
+		// The box before the line (left of a vertical line, above a horizontal one), then the box after it
+		int result = NO_SCORE;
+		int firstX = vertical ? x - 1 : x;
+		int firstY = vertical ? y : y - 1;
+		if (enclosed(firstX, firstY) && claimBox(firstX, firstY, playerID))
+			result++;
+		if (enclosed(x, y) && claimBox(x, y, playerID))
+			result++;
+
+		return result != NO_SCORE && isFull() ? result | GAME_OVER : result;
+	}
+
+	/**
+	 * Set every owner from a {@link #snapshot()}.
+	 * @param snapshot The snapshot, taken from a board of the same size
+	 * @throws IllegalArgumentException If the snapshot is malformed, or for a different size of board
+	 */
+	public void restore(String snapshot) {
+		String[] arrays = snapshot.split(" ");
+		if (arrays.length != 3)
+			throw new IllegalArgumentException("Snapshot needs 3 owner arrays");
+		int[] restored = new int[width * height * 3];
+		for (int i = 0; i < 3; i++)
+			decode(arrays[i], restored, width * height * i, width * height);
+
+		System.arraycopy(restored, 0, horizontal, 0, horizontal.length);
+		System.arraycopy(restored, horizontal.length, vertical, 0, vertical.length);
+		System.arraycopy(restored, horizontal.length * 2, boxes, 0, boxes.length);
+		claimed = 0;
+		for (int owner : boxes)
+			if (owner != -1)
+				claimed++;
+		Arrays.fill(hashes, 0);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				if (horizontal[height * x + y] != -1)
+					hash(x, y, false);
+				if (vertical[height * x + y] != -1)
+					hash(x, y, true);
+			}
+		}
+	}
+
+	/**
+	 * Set some owners from one part of a {@link #snapshot(int)}. (Once every part has been restored, in any order, so has the board.)
+	 * @param start Where the part starts, in the horizontal, vertical, and box owners end to end
+	 * @param runs The part's runs
+	 * @throws IllegalArgumentException If the part is malformed, or runs past the end of the board (nothing is set)
+	 */
+	public void restore(int start, String runs) {
+		int length = width * height;
+		ArrayList<int[]> parsed = new ArrayList<int[]>();
+		int end = start;
+		try {
+			for (String run : runs.split(",")) {
+				int star = run.indexOf('*');
+				int owner = Integer.parseInt(star == -1 ? run : run.substring(0, star));
+				int count = star == -1 ? 1 : Integer.parseInt(run.substring(star + 1));
+				if (owner < -1 || count < 1 || start < 0 || end + count > length * 3)
+					throw new IllegalArgumentException("Snapshot doesn't fit the board");
+				parsed.add(new int[] { owner, count });
+				end += count;
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Could not parse snapshot run", e);
+		}
+
+		int index = start;
+		for (int[] run : parsed) {
+			for (int i = 0; i < run[1]; i++, index++) {
+				int[] owners = index < length ? horizontal : index < length * 2 ? vertical : boxes;
+				int at = index % length;
+				int owner = owners[at];
+				// (Keep the box count and hashes up to date, as play() does)
+				if (owners == boxes)
+					claimed += (run[0] != -1 ? 1 : 0) - (owner != -1 ? 1 : 0);
+				else if ((owner == -1) != (run[0] == -1))
+					hash(at / height, at % height, owners == vertical);
+				owners[at] = run[0];
+			}
+		}
+	}
+
+	/**
+	 * Reset ownership of every line and box.
+	 */
+	public void reset() {
+		Arrays.fill(horizontal, -1);
+		Arrays.fill(vertical, -1);
+		Arrays.fill(boxes, -1);
+		Arrays.fill(hashes, 0);
+		claimed = 0;
+	}
+
+	/**
+	 * Match the size of the grid, if it has been resized. (Resets ownership.)
+	 * @see Grid#resize(Grid)
+	 */
+	public void resize() {
+		width = grid.width;
+		height = grid.height;
+		spaces = Math.max(width - 1, 0) * Math.max(height - 1, 0);
+		symmetries = width == height ? 8 : 4;
+		horizontal = new int[width * height];
+		vertical = new int[width * height];
+		boxes = new int[width * height];
+		reset();
+	}
+
+	/**
+	 * Every owner on the board, compactly.
+	 * <p>
+	 * The horizontal, vertical, and box owner arrays (in that order, separated
+	 * by spaces), each run-length encoded as comma separated runs of
+	 * <code>owner</code> or <code>owner*count</code>. A board is mostly long
+	 * runs of unclaimed lines (or lines claimed in chains), so it is usually
+	 * small, but a large board with many owners can take several characters
+	 * for every line. See {@link #snapshot(int)} for one in bounded parts.
+	 * </p>
+	 * @return The snapshot, for {@link #restore(String)}
+	 */
+	public String snapshot() {
+		StringBuilder snapshot = new StringBuilder();
+		encode(horizontal, snapshot);
+		snapshot.append(' ');
+		encode(vertical, snapshot);
+		snapshot.append(' ');
+		encode(boxes, snapshot);
+		return snapshot.toString();
+	}
+
+	/**
+	 * Every owner on the board, in parts of bounded length.
+	 * <p>
+	 * The same runs as {@link #snapshot()}, but over the horizontal, vertical,
+	 * and box owners end to end, split into parts of at most <code>limit</code>
+	 * characters. Each part is <code>START RUNS</code>, where START is the
+	 * index its first run starts at.
+	 * </p>
+	 * @param limit Longest part, in characters (at least 64)
+	 * @return The parts, for {@link #restore(int, String)}
+	 */
+	public List<String> snapshot(int limit) {
+		ArrayList<String> parts = new ArrayList<String>();
+		int length = width * height;
+		StringBuilder part = new StringBuilder();
+		StringBuilder run = new StringBuilder();
+		int start = 0;
+		while (start < length * 3) {
+			int owner = owner(start);
+			int end = start + 1;
+			while (end < length * 3 && owner(end) == owner)
+				end++;
+			run.setLength(0);
+			run.append(owner);
+			if (end - start > 1)
+				run.append('*').append(end - start);
+			if (part.length() > 0 && part.length() + 1 + run.length() > limit) {
+				parts.add(part.toString());
+				part.setLength(0);
+			}
+			if (part.length() == 0)
+				part.append(start).append(' ');
+			else
+				part.append(',');
+			part.append(run);
+			start = end;
+		}
+		if (part.length() > 0)
+			parts.add(part.toString());
+		return parts;
+	}
+
+	// Owner of a line or box, in the horizontal, vertical, and box owners end to end
+	private int owner(int index) {
+		int length = width * height;
+		return index < length ? horizontal[index] : index < length * 2 ? vertical[index - length] : boxes[index - length * 2];
+	}
+
+	private static void decode(String runs, int[] owners, int offset, int length) {
+		int index = offset;
+		try {
+			for (String run : runs.split(",")) {
+				int star = run.indexOf('*');
+				int owner = Integer.parseInt(star == -1 ? run : run.substring(0, star));
+				int count = star == -1 ? 1 : Integer.parseInt(run.substring(star + 1));
+				if (owner < -1 || count < 1 || index + count > offset + length)
+					throw new IllegalArgumentException("Snapshot doesn't fit the board");
+				Arrays.fill(owners, index, index + count, owner);
+				index += count;
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Could not parse snapshot run", e);
+		}
+		if (index != offset + length)
+			throw new IllegalArgumentException("Snapshot doesn't fit the board");
+	}
+
+	private static void encode(int[] owners, StringBuilder out) {
+		int start = 0;
+		for (int i = 1; i <= owners.length; i++) {
+			if (i < owners.length && owners[i] == owners[start])
+				continue;
+			if (start > 0)
+				out.append(',');
+			out.append(owners[start]);
+			if (i - start > 1)
+				out.append('*').append(i - start);
+			start = i;
+		}
+	}
+
+	/**
+	 * How many boxes a move claimed.
+	 * @param result The result of {@link #play(int, int, int, boolean)}
+	 * @return 0, 1, or 2 (0 for {@link #INVALID} as well)
+	 */
+	public static int scored(int result) {
+		return result == INVALID ? 0 : result & ~GAME_OVER;
+	}
+
+	/**
+	 * Where a line ends up when the grid is rotated or reflected.
+	 * <p>
+	 * Symmetries 0-3 reflect left to right (bit 0) and/or top to bottom
+	 * (bit 1). Symmetries 4-7 (only for a square grid) swap x and y first,
+	 * which together with the reflections gives the rotations.
+	 * </p>
+	 * @param symmetry Which symmetry (0 leaves the line where it is)
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return The transformed line, as <code>(height * x + y) &lt;&lt; 1 | (vertical ? 1 : 0)</code>
+	 * @see #inverse(int)
+	 */
+	public int transform(int symmetry, int x, int y, boolean vertical) {
+		// Transform both ends of the line, then take whichever is to the top left as its owner
+		int endX = vertical ? x : x + 1;
+		int endY = vertical ? y + 1 : y;
+		if ((symmetry & 4) != 0) {
+			int swap = x;
+			x = y;
+			y = swap;
+			swap = endX;
+			endX = endY;
+			endY = swap;
+		}
+		if ((symmetry & 1) != 0) {
+			x = width - 1 - x;
+			endX = width - 1 - endX;
+		}
+		if ((symmetry & 2) != 0) {
+			y = height - 1 - y;
+			endY = height - 1 - endY;
+		}
+		return (height * Math.min(x, endX) + Math.min(y, endY)) << 1 | (x == endX ? 1 : 0);
+	}
+
+	/**
+	 * The symmetry that undoes another.
+	 * @param symmetry A symmetry, as for {@link #transform(int, int, int, boolean)}
+	 * @return The symmetry that transforms every line back
+	 */
+	public static int inverse(int symmetry) {
+		// Swapping x and y after a reflection is the same as swapping first, then reflecting the other way
+		return (symmetry & 4) == 0 ? symmetry : 4 | (symmetry & 1) << 1 | (symmetry & 2) >> 1;
+	}
+
+	/**
+	 * The random key for a line, for Zobrist hashing.
+	 * <p>
+	 * Worked out from the line's coordinates (with SplitMix64), so keys are
+	 * the same in every process and every run, and can be kept on disk.
+	 * </p>
+	 * @param x The grid x coordinate of the point that owns the line
+	 * @param y The grid y coordinate of the point that owns the line
+	 * @param vertical <code>true</code> for the line below the point, <code>false</code> for the line to its right
+	 * @return 64 random bits
+	 */
+	public static long zobrist(int x, int y, boolean vertical) {
+		long z = ((long)x << 32 | (long)y << 1 | (vertical ? 1 : 0)) * 0x9E3779B97F4A7C15L + 0x5EED;
+		z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+		return z ^ z >>> 31;
+	}
+
+	/**
+	 * A new board, with nothing claimed.
+	 * @param grid The grid this board is played on
+	 */
+	public Board(Grid grid) {
+		this.grid = grid;
+		resize();
+	}
+}
@@ -43,13 +43,17 @@ public class Grid {
 	}
 
 	public void resize(Dimension size) {
-		width = size.width;
-		height = size.height;
+		resize(size.width, size.height);
+	}
+
+	public void resize(int width, int height) {
+		this.width = width;
+		this.height = height;
 		maxSpaces = (width - 1) * (height - 1);
 	}
 
 	public void resize(Grid grid) {
-		resize(new Dimension(grid.width, grid.height));
+		resize(grid.width, grid.height);
 	}
 
 	public String toString() {
@@ -65,11 +69,12 @@ public class Grid {
 	 * @see Grid#toString()
 	 */
 	public static Grid parseGrid(String grid) {
-		return new Grid(new Dimension(Integer.parseInt(grid.substring(0, grid.indexOf('x'))), Integer.parseInt(grid.substring(grid.indexOf('x') + 1))));
+		int x = grid.indexOf('x');
+		return new Grid(Integer.parseInt(grid, 0, x, 10), Integer.parseInt(grid, x + 1, grid.length(), 10));
 	}
 
 	public Grid() {
-		this(new Dimension(0, 0));
+		this(0, 0);
 	}
 
 	/**
@@ -79,4 +84,15 @@ public class Grid {
 	public Grid(Dimension size) {
 		resize(size);
 	}
+
+	/**
+	 * A new grid of set size.
+	 * <br>
+	 * Does not touch any AWT classes, so it is safe to use on a headless server.
+	 * @param width The point width of the grid
+	 * @param height The point height of the grid
+	 */
+	public Grid(int width, int height) {
+		resize(width, height);
+	}
 }
\ No newline at end of file
@@ -56,7 +56,8 @@ public class GridPoint extends Point {
 	}
 
 	public static GridPoint parsePoint(String point) {
-		return new GridPoint(Integer.parseInt(point.substring(0, point.indexOf(","))), Integer.parseInt(point.substring(point.indexOf(",") + 1)));
+		int comma = point.indexOf(',');
+		return new GridPoint(Integer.parseInt(point, 0, comma, 10), Integer.parseInt(point, comma + 1, point.length(), 10));
 	}
 
 	/**
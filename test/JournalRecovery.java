@@ -0,0 +1,160 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import coms.Client;
+import coms.Packet;
+import coms.Tokenizer;
+import grid.Board;
+import grid.Grid;
+
+/**
+ * Recovering a game whose journal was checkpointed on a move.
+ * <p>
+ * Usage: <code>make test</code><br>
+ * Two players play on a journaled in-process {@link GameServer} until a
+ * {@link Journal} checkpoint is written for one of their moves, and the
+ * server is then abandoned, as if its process died. A new server recovers
+ * the game from the journal, and must have the same board, the same
+ * sequence number, and number the next move after it.
+ * </p>
+ */
+public class JournalRecovery {
+	private static final Grid grid = Grid.parseGrid("30x30"); // Big enough for a game to outlast a checkpoint interval
+	private static final Tokenizer tokens = new Tokenizer();  // Takes apart what the servers send
+
+	/**
+	 * A client without a connection, that keeps everything a server sends it.
+	 */
+	private static class Recorder extends Client {
+		private int playerID = -1; // Our playerID (from network-assign)
+		private String token;      // Our rejoin token (from player-token)
+
+		private final BlockingQueue<String> messages = new LinkedBlockingQueue<String>(); // Everything sent to us, oldest first
+
+		/**
+		 * Wait for a command to be sent to us, skipping everything before it.
+		 * @param command The command's name
+		 * @return The whole message
+		 */
+		String await(String command) throws InterruptedException {
+			for (;;) {
+				String message = messages.poll(5, TimeUnit.SECONDS);
+				if (message == null)
+					throw new AssertionError("No " + command + " was sent");
+				tokens.reset(message);
+				if (tokens.is(0, "network-assign"))
+					playerID = tokens.parseInt(1);
+				else if (tokens.is(0, "player-token") && tokens.parseInt(1) == playerID)
+					token = tokens.word(2);
+				if (tokens.is(0, command))
+					return message;
+			}
+		}
+
+		@Override
+		public void close() { }
+
+		@Override
+		public void flush() { }
+
+		@Override
+		public void queue(Packet packet) {
+			messages.add(packet.message);
+		}
+
+		@Override
+		public String send(String message) {
+			queue(new Packet(message));
+			return message;
+		}
+
+		@Override
+		public void upgrade() { }
+
+		Recorder(GameServer server) throws InterruptedException {
+			server.mailbox.deliver(() -> server.accept(this));
+			server.clientMessage(this, "info-version " + GameServer.version[0] + " " + GameServer.version[1]);
+		}
+	}
+
+	private static void check(boolean condition, String failure) {
+		if (!condition)
+			throw new AssertionError(failure);
+	}
+
+	// Whether or not the journal was checkpointed on a move, so it starts from the board as of that move
+	private static boolean checkpointed(Path file, long seq) throws Exception {
+		for (String record : new Journal(file).read()) {
+			tokens.reset(record);
+			if (tokens.is(0, "grid-snapshot"))
+				return tokens.parseLong(4) == seq;
+		}
+		return false;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path file = Files.createTempFile("netdot", ".journal");
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			GameServer server = new GameServer(grid, 2, true);
+			server.journal(file);
+			Recorder[] seats = { new Recorder(server), new Recorder(server) };
+			for (Recorder seat : seats) {
+				server.clientMessage(seat, "request-join");
+				seat.await("player-token");
+			}
+			server.clientMessage(seats[0], "request-start");
+			for (Recorder seat : seats)
+				seat.await("game-start");
+
+			// Play until a checkpoint comes due on a move
+			Board board = new Board(grid);
+			Strategy strategy = Strategy.parseStrategy("greedy");
+			int currentPlayer = 1;
+			long seq = 0;
+			do {
+				check(!board.isFull(), "The game ended before the journal was checkpointed");
+				Recorder seat = seats[0].playerID == currentPlayer ? seats[0] : seats[1];
+				server.clientMessage(seat, "game-play " + strategy.choose(board, currentPlayer));
+				String move = seats[0].await("game-play");
+				seats[1].await("game-play");
+				tokens.reset(move);
+				seq = tokens.parseLong(4);
+				if (board.play(currentPlayer, tokens.x(2), tokens.y(2), tokens.is(3, "ver")) == Board.NO_SCORE)
+					currentPlayer = currentPlayer % 2 + 1;
+			} while (!checkpointed(file, seq));
+
+			// The server dies, and another recovers the game
+			GameServer recovered = new GameServer(grid, 2, true);
+			recovered.journal(file);
+			Recorder spectator = new Recorder(recovered);
+			recovered.clientMessage(spectator, "request-spectate");
+			String snapshot = spectator.await("grid-snapshot");
+			check(snapshot.equals("grid-snapshot " + board.snapshot() + " " + seq),
+				"Recovered " + snapshot.substring(snapshot.lastIndexOf(' ') + 1) + " moves, not " + seq);
+
+			// The next move carries on from there
+			Recorder seat = seats[0].playerID == currentPlayer ? seats[0] : seats[1];
+			Recorder rejoined = new Recorder(recovered);
+			recovered.clientMessage(rejoined, "request-rejoin " + currentPlayer + " " + seat.token + " " + seq);
+			rejoined.await("game-current");
+			recovered.clientMessage(rejoined, "game-play " + strategy.choose(board, currentPlayer));
+			tokens.reset(rejoined.await("game-play"));
+			check(tokens.parseLong(4) == seq + 1, "The move after recovery was numbered " + tokens.word(4) + ", not " + (seq + 1));
+
+			System.setOut(out);
+			System.out.println("Journal recovery after a checkpoint on move " + seq + ": OK");
+		}
+		finally {
+			System.setOut(out);
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+		}
+	}
+}